@@ -0,0 +1,214 @@
+import com.sun.net.httpserver.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Workloads for the JMH benchmarks in the bench package (Helpers, Queries, EndToEnd).
+ *
+ * JMH needs benchmark classes in a named package, and those cannot name the server's classes
+ * in the default package, so the work itself lives here and they look it up once per fork
+ * through {@link #workloads}.
+ *
+ * The helpers (parseForm, esc, getSession, sendHtml) and the booking page run against a fake
+ * exchange that discards the response. Queries and the booking round trip use bench.db
+ * (-Dbus.bench.db), generated on first use with -Dbus.bench.buses/routes/schedules/bookings
+ * rows. Delete the file to change its size. Forks inherit the -D options given to
+ * benchmarks.jar.
+ *
+ *   java -cp jmh/target/benchmarks.jar Bench before.json after.json
+ *
+ * prints the change per benchmark between two runs saved with -rf json.
+ */
+public class Bench {
+
+    private static Map<String, Callable<Object>> workloads;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.out.println("usage: Bench before.json after.json");
+            return;
+        }
+        Map<String, Double> before = scores(Files.readString(Path.of(args[0])));
+        Map<String, Double> after = scores(Files.readString(Path.of(args[1])));
+        System.out.printf("%-32s %14s %14s %9s%n", "Benchmark", "before", "after", "change");
+        for (Map.Entry<String, Double> e : after.entrySet()) {
+            Double old = before.get(e.getKey());
+            if (old == null) continue;
+            System.out.printf("%-32s %14.3f %14.3f %+8.1f%%%n", e.getKey(), old, e.getValue(), (e.getValue() - old) * 100 / old);
+        }
+    }
+
+    /** Opens bench.db, generating it on first use, and returns every workload by name. */
+    public static synchronized Map<String, Callable<Object>> workloads() throws Exception {
+        if (workloads != null) return workloads;
+        String db = System.getProperty("bus.bench.db", "bench.db");
+        if (System.getProperty("bus.db.url") == null) System.setProperty("bus.db.url", "jdbc:sqlite:" + db);
+        boolean fresh = !new File(db).exists();
+        DBUtil.write(Migrations::migrate);
+        if (fresh) populate();
+        workloads = build();
+        return workloads;
+    }
+
+    // ---------- Workloads ----------
+
+    private static Map<String, Callable<Object>> build() throws SQLException {
+        Map<String, Callable<Object>> w = new LinkedHashMap<>();
+        String form = "scheduleId=123&name=" + URLEncoder.encode("রহিম উদ্দিন", StandardCharsets.UTF_8) + "&phone=01700000000&seat=12&seat=13";
+        String name = "ঢাকা <Express> & সিলেট \"AC\" 'night'";
+        String cookie = "theme=dark; SESSION=" + Main.sessions.create("bench", "user") + "; lang=bn";
+        String page = "<div class='card'><table>" + "<tr><td>ঢাকা</td><td>চট্টগ্রাম</td><td>09:00</td><td>40</td></tr>".repeat(80) + "</table></div>";
+
+        w.put("parseForm", () -> Main.parseForm(form));
+        w.put("esc", () -> Main.esc(name));
+        w.put("getSession", () -> Main.getSession(new FakeExchange("GET", "/user", cookie, "")));
+        w.put("sendHtml", () -> {
+            FakeExchange ex = new FakeExchange("GET", "/user", cookie, "");
+            Main.sendHtml(ex, 200, page);
+            return ex.written;
+        });
+
+        // Queries: ids and places drawn with a fixed seed so runs compare like for like
+        SplittableRandom rnd = new SplittableRandom(42);
+        int[] ids = scheduleIds();
+        List<RefData.Route> routes = new ArrayList<>(RefData.routes());
+        String date = LocalDate.now().plusDays(7).toString();
+        int[] rows = new int[1];
+        BusService.Sink<BusService.ScheduleRow> count = r -> rows[0]++;
+        w.put("search.route", () -> {
+            RefData.Route r = routes.get(rnd.nextInt(routes.size()));
+            BusService.search(r.source(), r.destination(), "", count);
+            return rows[0];
+        });
+        w.put("search.routeDate", () -> {
+            RefData.Route r = routes.get(rnd.nextInt(routes.size()));
+            BusService.search(r.source(), r.destination(), date, count);
+            return rows[0];
+        });
+        w.put("search.date", () -> { BusService.search("", "", date, count); return rows[0]; });
+        w.put("available", () -> BusService.available(ids[rnd.nextInt(ids.length)]));
+        w.put("schedule", () -> BusService.schedule(ids[rnd.nextInt(ids.length)]));
+        w.put("bookings.page", () -> BusService.bookings("", "", 0, 0, 25).rows().size());
+
+        // End to end through BookHandler: the seat page, then booking one seat
+        Main.BookHandler book = new Main.BookHandler();
+        w.put("e2e.bookPage", () -> {
+            FakeExchange ex = new FakeExchange("GET", "/user/book?scheduleId=" + ids[rnd.nextInt(ids.length)], cookie, "");
+            book.handle(ex);
+            return ex.written;
+        });
+        Seats target = new Seats(routes.get(0).id());
+        w.put("e2e.book", () -> {
+            int seat = target.next();
+            FakeExchange ex = new FakeExchange("POST", "/user/book?scheduleId=" + target.scheduleId, cookie,
+                    "name=Bench&phone=01700000000&seat=" + seat);
+            book.handle(ex);
+            return ex.written;
+        });
+        return Collections.unmodifiableMap(w);
+    }
+
+    /** Fresh seats for the booking benchmark: a new empty schedule whenever one fills up. */
+    private static final class Seats {
+        final int routeId;
+        int scheduleId, seat, capacity;
+        Seats(int routeId) { this.routeId = routeId; }
+
+        int next() throws SQLException {
+            if (seat == capacity) {
+                RefData.Bus bus = RefData.buses().iterator().next();
+                scheduleId = BusService.addSchedule(bus.id(), routeId, LocalDate.now().plusDays(90).toString(), "23:59");
+                capacity = bus.capacity();
+                seat = 0;
+            }
+            return ++seat;
+        }
+    }
+
+    private static int[] scheduleIds() throws SQLException {
+        try (Connection c = DBUtil.getConnection(); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id FROM schedules ORDER BY id")) {
+            List<Integer> ids = new ArrayList<>();
+            while (rs.next()) ids.add(rs.getInt(1));
+            if (ids.isEmpty()) throw new SQLException("bench.db has no schedules");
+            return ids.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    // ---------- Generated database ----------
+
+    private static void populate() throws SQLException {
+        DataGen.Size size = new DataGen.Size(Integer.getInteger("bus.bench.buses", 200), Integer.getInteger("bus.bench.routes", 400),
+                Integer.getInteger("bus.bench.schedules", 100_000), Integer.getInteger("bus.bench.bookings", 200_000));
+        System.out.println("generating bench db: " + size);
+        DataGen.generate(size, 7);
+    }
+
+    // ---------- JMH results ----------
+
+    /** Primary score per benchmark from a JMH -rf json file. */
+    private static Map<String, Double> scores(String json) {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        Matcher m = Pattern.compile("\"benchmark\"\\s*:\\s*\"([^\"]+)\"[\\s\\S]*?\"primaryMetric\"\\s*:\\s*\\{\\s*\"score\"\\s*:\\s*([0-9.Ee+-]+)").matcher(json);
+        while (m.find()) scores.put(m.group(1), Double.parseDouble(m.group(2)));
+        return scores;
+    }
+
+    // ---------- Fake exchange ----------
+
+    /** Request from strings; the response body is counted and dropped. */
+    static final class FakeExchange extends HttpExchange {
+        private final String method;
+        private final URI uri;
+        private final Headers request = new Headers(), response = new Headers();
+        private final InputStream body;
+        private int code = -1;
+        int written;
+
+        FakeExchange(String method, String uri, String cookie, String body) {
+            this.method = method;
+            this.uri = URI.create(uri);
+            this.body = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+            request.set("Cookie", cookie);
+            if (!body.isEmpty()) request.set("Content-Type", "application/x-www-form-urlencoded");
+        }
+
+        private final OutputStream out = new OutputStream() {
+            @Override public void write(int b) { written++; }
+            @Override public void write(byte[] b, int off, int len) { written += len; }
+        };
+
+        @Override public Headers getRequestHeaders() { return request; }
+        @Override public Headers getResponseHeaders() { return response; }
+        @Override public URI getRequestURI() { return uri; }
+        @Override public String getRequestMethod() { return method; }
+        @Override public HttpContext getHttpContext() { return null; }
+        @Override public void close() {}
+        @Override public InputStream getRequestBody() { return body; }
+        @Override public OutputStream getResponseBody() { return out; }
+        @Override public void sendResponseHeaders(int rCode, long length) { code = rCode; }
+        @Override public InetSocketAddress getRemoteAddress() { return new InetSocketAddress("127.0.0.1", 0); }
+        @Override public int getResponseCode() { return code; }
+        @Override public InetSocketAddress getLocalAddress() { return new InetSocketAddress("127.0.0.1", 0); }
+        @Override public String getProtocol() { return "HTTP/1.1"; }
+        @Override public Object getAttribute(String name) { return null; }
+        @Override public void setAttribute(String name, Object value) {}
+        @Override public void setStreams(InputStream i, OutputStream o) {}
+        @Override public HttpPrincipal getPrincipal() { return null; }
+    }
+}
@@ -0,0 +1,27 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/** In process through BookHandler: the seat page, and booking one seat (a new schedule as each fills). */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class EndToEnd {
+
+    private Callable<Object> bookPage, book;
+
+    @Setup
+    public void setUp() throws Exception {
+        bookPage = Workloads.get("e2e.bookPage");
+        book = Workloads.get("e2e.book");
+    }
+
+    @Benchmark public Object bookPage() throws Exception { return bookPage.call(); }
+    @Benchmark public Object book() throws Exception { return book.call(); }
+}
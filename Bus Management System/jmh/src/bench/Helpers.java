@@ -0,0 +1,31 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/** Request helpers in Main, each against a fake exchange or a fixed input. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class Helpers {
+
+    private Callable<Object> parseForm, esc, getSession, sendHtml;
+
+    @Setup
+    public void setUp() throws Exception {
+        parseForm = Workloads.get("parseForm");
+        esc = Workloads.get("esc");
+        getSession = Workloads.get("getSession");
+        sendHtml = Workloads.get("sendHtml");
+    }
+
+    @Benchmark public Object parseForm() throws Exception { return parseForm.call(); }
+    @Benchmark public Object esc() throws Exception { return esc.call(); }
+    @Benchmark public Object getSession() throws Exception { return getSession.call(); }
+    @Benchmark public Object sendHtml() throws Exception { return sendHtml.call(); }
+}
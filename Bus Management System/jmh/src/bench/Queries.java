@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/** The search, availability, schedule and bookings-page queries against bench.db. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class Queries {
+
+    private Callable<Object> searchRoute, searchRouteDate, searchDate, available, schedule, bookingsPage;
+
+    @Setup
+    public void setUp() throws Exception {
+        searchRoute = Workloads.get("search.route");
+        searchRouteDate = Workloads.get("search.routeDate");
+        searchDate = Workloads.get("search.date");
+        available = Workloads.get("available");
+        schedule = Workloads.get("schedule");
+        bookingsPage = Workloads.get("bookings.page");
+    }
+
+    @Benchmark public Object searchRoute() throws Exception { return searchRoute.call(); }
+    @Benchmark public Object searchRouteDate() throws Exception { return searchRouteDate.call(); }
+    @Benchmark public Object searchDate() throws Exception { return searchDate.call(); }
+    @Benchmark public Object available() throws Exception { return available.call(); }
+    @Benchmark public Object schedule() throws Exception { return schedule.call(); }
+    @Benchmark public Object bookingsPage() throws Exception { return bookingsPage.call(); }
+}
@@ -0,0 +1,18 @@
+package bench;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/** Looks up Bench's workloads; Bench is in the default package, so this is reflection, once per fork. */
+final class Workloads {
+
+    private Workloads() {}
+
+    @SuppressWarnings("unchecked")
+    static Callable<Object> get(String name) throws Exception {
+        Map<String, Callable<Object>> all = (Map<String, Callable<Object>>) Class.forName("Bench").getMethod("workloads").invoke(null);
+        Callable<Object> w = all.get(name);
+        if (w == null) throw new IllegalArgumentException("no workload " + name);
+        return w;
+    }
+}
@@ -0,0 +1,536 @@
+import java.io.IOException;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Data access shared by the HTML pages and the JSON API (/api/v1).
+ *
+ * Handlers only parse input and render output. Every read and write of buses, routes,
+ * schedules and bookings goes through here, including the SeatMap claim, the booked_count
+ * counter and RefData invalidation, so both surfaces behave identically.
+ */
+public final class BusService {
+
+    private BusService() {}
+
+    public record ScheduleRow(int id, RefData.Bus bus, RefData.Route route, String date, String time, int available) {}
+    public record BookingRow(int id, String name, String phone, RefData.Route route, String date, String time,
+                             int seat, double total, String status) {}
+
+    /** One keyset page, newest first; {@code next} is the next page's "before", 0 on the last page. */
+    public record Page<T>(List<T> rows, long next) {}
+
+    /** Receives rows as they are read, so a long result is never collected in a list. */
+    public interface Sink<T> { void accept(T row) throws IOException; }
+
+    public enum Outcome { OK, INVALID, NOT_FOUND, SEAT_RANGE, SEAT_TAKEN, FULL, NOT_FULL }
+
+    /** Booking ids in the order of the requested seats; total is the fare for all of them. */
+    public record Booked(Outcome outcome, int[] ids, double total) {
+        static Booked failed(Outcome o) { return new Booked(o, new int[0], 0); }
+    }
+
+    /** Most seats one booking request may take (-Dbus.book.maxSeats). */
+    public static final int MAX_SEATS = Integer.getInteger("bus.book.maxSeats", 10);
+
+    public static final List<String> STATUSES = List.of("CONFIRMED", "COMPLETED", "CANCELLED");
+
+    // ---------- Users ----------
+
+    /** Role for a username/password pair, or null. */
+    public static String login(String username, String password) throws SQLException {
+        try (Connection c = DBUtil.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT role FROM users WHERE username=? AND password=?")) {
+            ps.setString(1, username); ps.setString(2, password);
+            try (ResultSet rs = ps.executeQuery()) { return rs.next() ? rs.getString(1) : null; }
+        }
+    }
+
+    // ---------- Search / availability ----------
+
+    // Routes are matched in memory (RefData); SQL only reads schedules, by route ids
+    // (a JSON array bound as one parameter) and/or date, both index lookups.
+    static String searchSql(boolean byRoutes, boolean byDate) {
+        return "SELECT s.id, s.bus_id, s.route_id, s.date, s.time, s.booked_count FROM schedules s WHERE 1=1" +
+                (byRoutes ? " AND s.route_id IN (SELECT value FROM json_each(?))" : "") +
+                (byDate ? " AND s.date=?" : "") +
+                " ORDER BY s.date, s.time";
+    }
+
+    /** Schedules whose route matches source/destination (empty = any) on a date (empty = any). */
+    public static void search(String source, String destination, String date, Sink<ScheduleRow> sink)
+            throws SQLException, IOException {
+        boolean byRoutes = !source.isEmpty() || !destination.isEmpty();
+        StringJoiner routeIds = new StringJoiner(",", "[", "]");
+        if (byRoutes) for (RefData.Route r : RefData.matchRoutes(source, destination)) routeIds.add(String.valueOf(r.id()));
+        if (!date.isEmpty()) ScheduleRules.ensure(date, 1);
+        try (Connection c = DBUtil.getConnection();
+             PreparedStatement ps = c.prepareStatement(searchSql(byRoutes, !date.isEmpty()))) {
+            int i = 1;
+            if (byRoutes) ps.setString(i++, routeIds.toString());
+            if (!date.isEmpty()) ps.setString(i, date);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ScheduleRow row = scheduleRow(rs);
+                    if (row != null) sink.accept(row);
+                }
+            }
+        }
+    }
+
+    /** One schedule with its live seat count (SeatMap), or null. */
+    public static ScheduleRow schedule(int id) throws SQLException {
+        RefData.Schedule sc = RefData.schedule(id);
+        RefData.Bus bus = sc == null ? null : RefData.bus(sc.busId());
+        RefData.Route route = sc == null ? null : RefData.route(sc.routeId());
+        SeatMap.Seats seats = bus == null || route == null ? null : SeatMap.get(id);
+        if (seats == null) return null;
+        return new ScheduleRow(id, bus, route, sc.date(), sc.time(), seats.capacity() - seats.takenCount());
+    }
+
+    /** Free seats from the booked_count counter less checkout holds, without loading the seat bitmap. */
+    public static int available(int scheduleId) throws SQLException {
+        RefData.Schedule sc = RefData.schedule(scheduleId);
+        RefData.Bus b = sc == null ? null : RefData.bus(sc.busId());
+        if (b == null) return 0;
+        try (Connection c = DBUtil.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT booked_count FROM schedules WHERE id=?")) {
+            ps.setInt(1, scheduleId);
+            try (ResultSet rs = ps.executeQuery()) { return rs.next() ? b.capacity() - rs.getInt(1) - SeatHolds.count(scheduleId) : 0; }
+        }
+    }
+
+    // ---------- Admin lists (keyset pages) ----------
+
+    static String schedulesSql(boolean byDate, boolean byRoute) {
+        return "SELECT id,bus_id,route_id,date,time,booked_count FROM schedules WHERE 1=1" +
+                (byDate ? " AND date=?" : "") +
+                (byRoute ? " AND route_id=?" : "") +
+                " AND id<? ORDER BY id DESC LIMIT ?";
+    }
+
+    // Keyset on bk.id: with no filter or a status filter this walks an index from the key
+    // and stops after one page. Date/route filters start from that day's or route's
+    // schedules instead, so the cost follows their bookings, not the whole table.
+    static String bookingsSql(boolean byStatus, boolean byDate, boolean byRoute) {
+        return """
+          SELECT bk.id, bk.name, bk.phone, bk.seat_no, bk.total, bk.status,
+                 s.route_id, s.date, s.time
+          FROM bookings bk
+          JOIN schedules s ON s.id=bk.schedule_id
+          WHERE 1=1""" +
+                (byStatus ? " AND bk.status=?" : "") +
+                (byDate ? " AND s.date=?" : "") +
+                (byRoute ? " AND s.route_id=?" : "") +
+                " AND bk.id<? ORDER BY bk.id DESC LIMIT ?";
+    }
+
+    /** Schedules with id below {@code before}; empty date / routeId 0 mean no filter. */
+    public static Page<ScheduleRow> schedules(String date, int routeId, long before, int limit) throws SQLException {
+        List<ScheduleRow> rows = new ArrayList<>();
+        long last = 0;
+        int n = 0;
+        try (Connection c = DBUtil.getConnection();
+             PreparedStatement ps = c.prepareStatement(schedulesSql(!date.isEmpty(), routeId > 0))) {
+            int i = 1;
+            if (!date.isEmpty()) ps.setString(i++, date);
+            if (routeId > 0) ps.setInt(i++, routeId);
+            ps.setLong(i++, before);
+            ps.setInt(i, limit + 1); // one extra row says whether a next page exists
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next() && ++n <= limit) {
+                    last = rs.getInt("id");
+                    ScheduleRow row = scheduleRow(rs);
+                    if (row != null) rows.add(row);
+                }
+            }
+        }
+        return new Page<>(rows, n > limit ? last : 0);
+    }
+
+    /** Bookings with id below {@code before}; empty status/date and routeId 0 mean no filter. */
+    public static Page<BookingRow> bookings(String status, String date, int routeId, long before, int limit) throws SQLException {
+        List<BookingRow> rows = new ArrayList<>();
+        long last = 0;
+        int n = 0;
+        try (Connection c = DBUtil.getConnection();
+             PreparedStatement ps = c.prepareStatement(bookingsSql(!status.isEmpty(), !date.isEmpty(), routeId > 0))) {
+            int i = 1;
+            if (!status.isEmpty()) ps.setString(i++, status);
+            if (!date.isEmpty()) ps.setString(i++, date);
+            if (routeId > 0) ps.setInt(i++, routeId);
+            ps.setLong(i++, before);
+            ps.setInt(i, limit + 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next() && ++n <= limit) {
+                    last = rs.getInt("id");
+                    rows.add(new BookingRow(rs.getInt("id"), rs.getString("name"), rs.getString("phone"),
+                            RefData.route(rs.getInt("route_id")), rs.getString("date"), rs.getString("time"),
+                            rs.getInt("seat_no"), rs.getDouble("total"), rs.getString("status")));
+                }
+            }
+        }
+        return new Page<>(rows, n > limit ? last : 0);
+    }
+
+    // Bus and route columns come from the reference cache instead of a join
+    private static ScheduleRow scheduleRow(ResultSet rs) throws SQLException {
+        RefData.Bus b = RefData.bus(rs.getInt("bus_id"));
+        RefData.Route r = RefData.route(rs.getInt("route_id"));
+        if (b == null || r == null) return null;
+        int id = rs.getInt("id");
+        return new ScheduleRow(id, b, r, rs.getString("date"), rs.getString("time"),
+                b.capacity() - rs.getInt("booked_count") - SeatHolds.count(id));
+    }
+
+    // ---------- Bookings ----------
+    // schedules.booked_count = number of non-cancelled bookings; kept in step by every booking write
+
+    record BookingRef(int scheduleId, int seatNo, String status, String phone) {}
+
+    static final String FIND_BOOKING_SQL = "SELECT schedule_id,seat_no,status,phone FROM bookings WHERE id=?";
+
+    static final String INFO_SQL = """
+      SELECT r.fare, b.capacity, s.booked_count as booked
+      FROM schedules s
+      JOIN routes r ON r.id=s.route_id
+      JOIN buses b ON b.id=s.bus_id
+      WHERE s.id=?
+    """;
+
+    private static boolean isActive(String status) { return !"CANCELLED".equalsIgnoreCase(status); }
+
+    private static BookingRef findBooking(Connection c, int id) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(FIND_BOOKING_SQL)) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? new BookingRef(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4)) : null;
+            }
+        }
+    }
+
+    private static void adjustBookedCount(Connection c, int scheduleId, int delta) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("UPDATE schedules SET booked_count=booked_count+? WHERE id=?")) {
+            ps.setInt(1, delta); ps.setInt(2, scheduleId); ps.executeUpdate();
+        }
+    }
+
+    private static boolean isUnique(SQLException e) {
+        return e.getMessage() != null && e.getMessage().toLowerCase().contains("unique");
+    }
+
+    /** Thrown inside a write to roll back its savepoint, i.e. every seat inserted so far. */
+    private static final class Rejected extends SQLException {
+        private static final long serialVersionUID = 1L;
+        final Outcome outcome;
+        Rejected(Outcome outcome) { super(outcome.name()); this.outcome = outcome; }
+    }
+
+    // 1..MAX_SEATS positive seat numbers, no repeats
+    private static boolean validSeats(int[] seats) {
+        if (seats.length == 0 || seats.length > MAX_SEATS) return false;
+        for (int i = 0; i < seats.length; i++) {
+            if (seats[i] <= 0) return false;
+            for (int j = 0; j < i; j++) if (seats[j] == seats[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Holds {@code seats} for {@code owner} (a session) for {@link SeatHolds#TTL_SEC} seconds,
+     * all or nothing, replacing the owner's earlier hold on this schedule. Nothing is written.
+     */
+    public static Outcome hold(String owner, int scheduleId, int... seats) throws SQLException {
+        if (owner == null || !validSeats(seats)) return Outcome.INVALID;
+        SeatMap.Seats map = SeatMap.get(scheduleId);
+        if (map == null) return Outcome.NOT_FOUND;
+        for (int seat : seats) if (seat > map.capacity()) return Outcome.SEAT_RANGE;
+        return SeatHolds.hold(owner, map, scheduleId, seats);
+    }
+
+    public static Booked book(int scheduleId, String name, String phone, int... seats) throws SQLException {
+        return book(null, scheduleId, name, phone, seats);
+    }
+
+    /**
+     * Books {@code seats} on one schedule for one passenger, all or nothing: every seat is
+     * claimed in SeatMap first, then all rows go in as one JDBC batch inside a single write,
+     * so ten seats cost one writer round trip and share one commit. Seats {@code owner} holds
+     * are already claimed and are used as they are; a null owner holds nothing.
+     */
+    public static Booked book(String owner, int scheduleId, String name, String phone, int[] seats) throws SQLException {
+        int n = seats.length;
+        if (name.isEmpty() || phone.isEmpty() || !validSeats(seats)) return Booked.failed(Outcome.INVALID);
+
+        // Claim the seats in memory first: a taken seat is rejected without touching SQLite
+        SeatMap.Seats map = SeatMap.get(scheduleId);
+        if (map == null) return Booked.failed(Outcome.NOT_FOUND);
+        for (int seat : seats) if (seat > map.capacity()) return Booked.failed(Outcome.SEAT_RANGE);
+        boolean[] held = SeatHolds.take(owner, scheduleId, seats);
+        for (int i = 0; i < n; i++) {
+            if (!held[i] && !map.claim(seats[i])) {
+                for (int j = 0; j < n; j++) if (j < i || held[j]) map.release(seats[j]);
+                return Booked.failed(Outcome.SEAT_TAKEN);
+            }
+        }
+
+        // Check + insert run together on the writer so the capacity check cannot go stale
+        Booked result;
+        try {
+            result = DBUtil.write(c -> {
+                double fare; int cap; int booked;
+                try (PreparedStatement ps = c.prepareStatement(INFO_SQL)) {
+                    ps.setInt(1, scheduleId);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) return Booked.failed(Outcome.NOT_FOUND);
+                        fare = rs.getDouble("fare"); cap = rs.getInt("capacity"); booked = rs.getInt("booked");
+                    }
+                }
+                for (int seat : seats) if (seat > cap) return Booked.failed(Outcome.SEAT_RANGE);
+                if (booked + n > cap) return Booked.failed(Outcome.FULL);
+
+                try (PreparedStatement ps = c.prepareStatement(
+                        "INSERT INTO bookings(name,phone,schedule_id,seat_no,status,total) VALUES(?,?,?,?,?,?)"
+                )) {
+                    for (int seat : seats) {
+                        ps.setString(1, name); ps.setString(2, phone); ps.setInt(3, scheduleId);
+                        ps.setInt(4, seat); ps.setString(5, "CONFIRMED"); ps.setDouble(6, fare);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                } catch (SQLException e) {
+                    // some rows may be in already: throwing rolls this write's savepoint back
+                    if (isUnique(e)) throw new Rejected(Outcome.SEAT_TAKEN);
+                    throw e;
+                }
+                adjustBookedCount(c, scheduleId, n);
+                // one writer, AUTOINCREMENT: the batch's rows got consecutive ids
+                int last = lastInsertId(c);
+                int[] ids = new int[n];
+                for (int i = 0; i < n; i++) ids[i] = last - n + 1 + i;
+                return new Booked(Outcome.OK, ids, fare * n);
+            });
+        } catch (Rejected e) {
+            result = Booked.failed(e.outcome);
+        } catch (SQLException e) {
+            for (int seat : seats) map.release(seat);
+            throw e;
+        }
+        // SEAT_TAKEN: at least one seat is really held in the DB; reload the bitmap rather than guess which
+        if (result.outcome() == Outcome.SEAT_TAKEN) SeatMap.invalidate(scheduleId);
+        else if (result.outcome() != Outcome.OK) for (int seat : seats) map.release(seat);
+        return result;
+    }
+
+    /** Admin status change; SEAT_TAKEN when re-activating a booking whose seat was sold again. */
+    public static Outcome setStatus(int id, String status) throws SQLException {
+        if (!STATUSES.contains(status)) return Outcome.INVALID;
+        return changeStatus(id, status, null);
+    }
+
+    /** Cancels a booking; a non-null phone must match the booking's (a passenger cancelling their own). */
+    public static Outcome cancel(int id, String phone) throws SQLException {
+        return changeStatus(id, "CANCELLED", phone);
+    }
+
+    // The booking as it was, and the waiter its freed seat went to (null if none)
+    private record Changed(BookingRef old, Waitlist.Promotion promoted) {}
+
+    private static Outcome changeStatus(int id, String st, String phone) throws SQLException {
+        Changed ch;
+        try {
+            ch = DBUtil.write(c -> {
+                BookingRef b = findBooking(c, id);
+                if (b == null || phone != null && !phone.equals(b.phone())) return null;
+                try (PreparedStatement ps = c.prepareStatement("UPDATE bookings SET status=? WHERE id=?")) {
+                    ps.setString(1, st); ps.setInt(2, id); ps.executeUpdate();
+                }
+                int delta = (isActive(st) ? 1 : 0) - (isActive(b.status()) ? 1 : 0);
+                if (delta != 0) adjustBookedCount(c, b.scheduleId(), delta);
+                // a freed seat goes to the waitlist in this same write
+                return new Changed(b, delta < 0 ? Waitlist.promote(c, b.scheduleId(), b.seatNo()) : null);
+            });
+        } catch (SQLException e) {
+            if (isUnique(e)) return Outcome.SEAT_TAKEN;
+            Waitlist.invalidate();
+            throw e;
+        }
+        if (ch == null) return Outcome.NOT_FOUND;
+        BookingRef old = ch.old();
+        if (isActive(old.status()) && !isActive(st) && ch.promoted() == null) SeatMap.release(old.scheduleId(), old.seatNo());
+        if (!isActive(old.status()) && isActive(st)) SeatMap.claim(old.scheduleId(), old.seatNo());
+        return Outcome.OK;
+    }
+
+    public static Outcome deleteBooking(int id) throws SQLException {
+        Changed ch;
+        try {
+            ch = DBUtil.write(c -> {
+                BookingRef b = findBooking(c, id);
+                if (b == null) return null;
+                try (PreparedStatement ps = c.prepareStatement("DELETE FROM bookings WHERE id=?")) {
+                    ps.setInt(1, id); ps.executeUpdate();
+                }
+                if (!isActive(b.status())) return new Changed(b, null);
+                adjustBookedCount(c, b.scheduleId(), -1);
+                return new Changed(b, Waitlist.promote(c, b.scheduleId(), b.seatNo()));
+            });
+        } catch (SQLException e) {
+            Waitlist.invalidate();
+            throw e;
+        }
+        if (ch == null) return Outcome.NOT_FOUND;
+        if (isActive(ch.old().status()) && ch.promoted() == null) SeatMap.release(ch.old().scheduleId(), ch.old().seatNo());
+        return Outcome.OK;
+    }
+
+    // ---------- Waitlist ----------
+
+    /** Joined (id of the waitlist row), or NOT_FULL if seats are free and the caller should book. */
+    public record Waiting(Outcome outcome, int id) {}
+
+    /** Puts a passenger on a full schedule's waitlist; see {@link Waitlist}. */
+    public static Waiting joinWaitlist(int scheduleId, String name, String phone) throws SQLException {
+        if (name.isEmpty() || phone.isEmpty()) return new Waiting(Outcome.INVALID, 0);
+        SeatMap.Seats seats = SeatMap.get(scheduleId);
+        if (seats == null) return new Waiting(Outcome.NOT_FOUND, 0);
+        int id;
+        try { id = DBUtil.write(c -> Waitlist.join(c, scheduleId, seats, name, phone)); }
+        catch (SQLException e) { Waitlist.invalidate(); throw e; }
+        return new Waiting(id == 0 ? Outcome.NOT_FULL : Outcome.OK, id);
+    }
+
+    /** Leaves the waitlist; the phone must match the entry's. */
+    public static Outcome leaveWaitlist(int id, String phone) throws SQLException {
+        try { return DBUtil.write(c -> Waitlist.leave(c, id, phone)) ? Outcome.OK : Outcome.NOT_FOUND; }
+        catch (SQLException e) { Waitlist.invalidate(); throw e; }
+    }
+
+    // ---------- Buses / routes / schedules ----------
+    // Each write drops the caches it affects; deleting a bus or route cascades to schedules and rules.
+
+    public static int addBus(String name, String type, int capacity) throws SQLException {
+        int id = insert("INSERT INTO buses(name,type,capacity) VALUES(?,?,?)", name, type, capacity);
+        RefData.invalidateBuses();
+        return id;
+    }
+
+    public static boolean deleteBus(int id) throws SQLException {
+        boolean deleted = delete("DELETE FROM buses WHERE id=?", id);
+        SeatMap.clear();
+        Waitlist.invalidate();
+        RefData.invalidateBuses();
+        return deleted;
+    }
+
+    public static int addRoute(String source, String destination, double fare, int durationMin) throws SQLException {
+        int id = insert("INSERT INTO routes(source,destination,fare,duration_min) VALUES(?,?,?,?)",
+                source, destination, fare, durationMin);
+        RefData.invalidateRoutes();
+        return id;
+    }
+
+    public static boolean deleteRoute(int id) throws SQLException {
+        boolean deleted = delete("DELETE FROM routes WHERE id=?", id);
+        SeatMap.clear();
+        Waitlist.invalidate();
+        RefData.invalidateRoutes();
+        return deleted;
+    }
+
+    public static int addSchedule(int busId, int routeId, String date, String time) throws SQLException {
+        int id = insert("INSERT INTO schedules(bus_id,route_id,date,time) VALUES(?,?,?,?)", busId, routeId, date, time);
+        RefData.scheduleAdded();
+        return id;
+    }
+
+    public static boolean deleteSchedule(int id) throws SQLException {
+        boolean deleted;
+        try {
+            deleted = DBUtil.write(c -> {
+                // a trip generated from a rule would otherwise come back on the next generation run
+                try (PreparedStatement skip = c.prepareStatement(
+                        "INSERT OR IGNORE INTO schedule_rule_skips(rule_id,date) SELECT rule_id,date FROM schedules WHERE id=? AND rule_id IS NOT NULL");
+                     PreparedStatement ps = c.prepareStatement("DELETE FROM schedules WHERE id=?")) {
+                    skip.setInt(1, id);
+                    skip.executeUpdate();
+                    ps.setInt(1, id);
+                    if (ps.executeUpdate() == 0) return false;
+                }
+                Waitlist.scheduleDeleted(c, id);
+                return true;
+            });
+        } catch (SQLException e) {
+            Waitlist.invalidate();
+            throw e;
+        }
+        SeatMap.invalidate(id);
+        RefData.invalidateSchedule(id);
+        return deleted;
+    }
+
+    // ---------- Recurring schedule rules ----------
+
+    public static List<ScheduleRules.Rule> rules() throws SQLException { return RefData.rules(); }
+
+    /** Adds a rule (see {@link ScheduleRules#check}) and generates its trips for the current window. */
+    public static int addRule(int busId, int routeId, String time, int days, String start, String end) throws SQLException {
+        int id = insert("INSERT INTO schedule_rules(bus_id,route_id,time,days,start_date,end_date) VALUES(?,?,?,?,?,?)",
+                busId, routeId, time, days, start, end.isEmpty() ? null : end);
+        RefData.invalidateRules();
+        ScheduleRules.rulesChanged();
+        ScheduleRules.refreshWindow();
+        return id;
+    }
+
+    /**
+     * Deletes a rule and its upcoming trips that nobody has booked. Past trips and booked ones
+     * stay as ordinary schedules (rule_id becomes NULL).
+     */
+    public static boolean deleteRule(int id) throws SQLException {
+        boolean deleted = DBUtil.write(c -> {
+            try (PreparedStatement trips = c.prepareStatement(
+                    "DELETE FROM schedules WHERE rule_id=? AND date>=? AND booked_count=0");
+                 PreparedStatement ps = c.prepareStatement("DELETE FROM schedule_rules WHERE id=?")) {
+                trips.setInt(1, id);
+                trips.setString(2, LocalDate.now().toString());
+                trips.executeUpdate();
+                ps.setInt(1, id);
+                return ps.executeUpdate() > 0;
+            }
+        });
+        SeatMap.clear();
+        RefData.invalidateRules();
+        ScheduleRules.rulesChanged();
+        return deleted;
+    }
+
+    private static int insert(String sql, Object... args) throws SQLException {
+        return DBUtil.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                for (int i = 0; i < args.length; i++) ps.setObject(i + 1, args[i]);
+                ps.executeUpdate();
+            }
+            return lastInsertId(c);
+        });
+    }
+
+    private static boolean delete(String sql, int id) throws SQLException {
+        return DBUtil.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setInt(1, id);
+                return ps.executeUpdate() > 0;
+            }
+        });
+    }
+
+    // Writer connection only: rowid of its own last INSERT
+    static int lastInsertId(Connection c) throws SQLException {
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery("SELECT last_insert_rowid()")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import com.sun.net.httpserver.*;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzips text responses for clients that accept it.
+ *
+ * The handler's exchange is wrapped so the decision is made in sendResponseHeaders, once the
+ * status, Content-Type and length are known: bodies below -Dbus.gzip.minBytes (default 1024),
+ * non-text types, already-encoded bodies and empty responses pass through untouched.
+ * Compressed responses are sent chunked. The gzip framing is written by hand so the Deflater
+ * can come from a pool instead of being allocated (with its native zlib state) per response.
+ */
+public class CompressionFilter extends Filter {
+
+    private static final int MIN_BYTES = Integer.getInteger("bus.gzip.minBytes", 1024);
+    private static final int LEVEL = Integer.getInteger("bus.gzip.level", 6);
+    private static final ArrayBlockingQueue<Deflater> POOL = new ArrayBlockingQueue<>(64);
+
+    private static final AtomicLong compressed = new AtomicLong();
+    private static final AtomicLong skipped = new AtomicLong();
+    private static final AtomicLong bytesIn = new AtomicLong();
+    private static final AtomicLong bytesOut = new AtomicLong();
+
+    @Override public String description() { return "gzip text responses"; }
+
+    @Override public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+        if (!acceptsGzip(ex.getRequestHeaders().getFirst("Accept-Encoding"))) {
+            chain.doFilter(ex);
+            return;
+        }
+        chain.doFilter(new GzipExchange(ex));
+    }
+
+    public static long compressedResponses() { return compressed.get(); }
+    public static long skippedResponses() { return skipped.get(); }
+    public static long bytesIn() { return bytesIn.get(); }
+    public static long bytesOut() { return bytesOut.get(); }
+    public static long bytesSaved() { return bytesIn.get() - bytesOut.get(); }
+
+    public static String summary() {
+        long in = bytesIn(), out = bytesOut();
+        return String.format("gzip responses=%d skipped=%d in=%dKB out=%dKB saved=%d%%",
+                compressedResponses(), skippedResponses(), in / 1024, out / 1024, in == 0 ? 0 : (in - out) * 100 / in);
+    }
+
+    static boolean acceptsGzip(String header) {
+        if (header == null) return false;
+        for (String part : header.split(",")) {
+            String[] p = part.trim().split(";");
+            if (!p[0].trim().equalsIgnoreCase("gzip")) continue;
+            for (int i = 1; i < p.length; i++) {
+                if (p[i].trim().matches("q=0(\\.0*)?")) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean compressible(String contentType) {
+        if (contentType == null) return false;
+        return contentType.startsWith("text/") || contentType.startsWith("application/json")
+                || contentType.startsWith("application/javascript");
+    }
+
+    /** Delegates everything except the response headers/body decision. */
+    private static final class GzipExchange extends HttpExchange {
+        private final HttpExchange ex;
+        private OutputStream body;
+
+        GzipExchange(HttpExchange ex) { this.ex = ex; }
+
+        @Override public void sendResponseHeaders(int code, long length) throws IOException {
+            Headers h = ex.getResponseHeaders();
+            boolean gzip = length >= 0 && (length == 0 || length >= MIN_BYTES)
+                    && code >= 200 && code != 204 && code != 304
+                    && !"HEAD".equalsIgnoreCase(ex.getRequestMethod())
+                    && !h.containsKey("Content-Encoding")
+                    && compressible(h.getFirst("Content-Type"));
+            if (!gzip) {
+                if (length != -1) skipped.incrementAndGet();
+                ex.sendResponseHeaders(code, length);
+                body = ex.getResponseBody();
+                return;
+            }
+            h.set("Content-Encoding", "gzip");
+            h.add("Vary", "Accept-Encoding");
+            ex.sendResponseHeaders(code, 0);
+            body = new GzipStream(ex.getResponseBody());
+            compressed.incrementAndGet();
+        }
+
+        @Override public OutputStream getResponseBody() {
+            // before headers go out, hand back a stream that resolves once they have
+            return body != null ? body : new FilterOutputStream(null) {
+                @Override public void write(int b) throws IOException { stream().write(b); }
+                @Override public void write(byte[] b, int off, int len) throws IOException { stream().write(b, off, len); }
+                @Override public void flush() throws IOException { stream().flush(); }
+                @Override public void close() throws IOException { if (body != null) body.close(); else ex.close(); }
+                private OutputStream stream() {
+                    if (body == null) throw new IllegalStateException("response headers not sent");
+                    return body;
+                }
+            };
+        }
+
+        @Override public void close() {
+            try {
+                if (body != null) body.close();
+            } catch (IOException ignored) {
+                // client went away; the exchange is closed below either way
+            }
+            ex.close();
+        }
+
+        @Override public Headers getRequestHeaders() { return ex.getRequestHeaders(); }
+        @Override public Headers getResponseHeaders() { return ex.getResponseHeaders(); }
+        @Override public URI getRequestURI() { return ex.getRequestURI(); }
+        @Override public String getRequestMethod() { return ex.getRequestMethod(); }
+        @Override public HttpContext getHttpContext() { return ex.getHttpContext(); }
+        @Override public InputStream getRequestBody() { return ex.getRequestBody(); }
+        @Override public int getResponseCode() { return ex.getResponseCode(); }
+        @Override public InetSocketAddress getRemoteAddress() { return ex.getRemoteAddress(); }
+        @Override public InetSocketAddress getLocalAddress() { return ex.getLocalAddress(); }
+        @Override public String getProtocol() { return ex.getProtocol(); }
+        @Override public Object getAttribute(String name) { return ex.getAttribute(name); }
+        @Override public void setAttribute(String name, Object value) { ex.setAttribute(name, value); }
+        @Override public void setStreams(InputStream i, OutputStream o) { ex.setStreams(i, o); }
+        @Override public HttpPrincipal getPrincipal() { return ex.getPrincipal(); }
+    }
+
+    /** RFC 1952 member: fixed 10-byte header, raw deflate data, CRC-32 and length trailer. */
+    private static final class GzipStream extends OutputStream {
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buf = new byte[8192];
+        private Deflater deflater;
+        private long in;
+
+        GzipStream(OutputStream out) throws IOException {
+            this.out = out;
+            Deflater d = POOL.poll();
+            this.deflater = d != null ? d : new Deflater(LEVEL, true);
+            out.write(HEADER);
+        }
+
+        @Override public void write(int b) throws IOException { write(new byte[]{(byte) b}, 0, 1); }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            if (deflater == null) throw new IOException("stream closed");
+            crc.update(b, off, len);
+            in += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) drain();
+        }
+
+        private void drain() throws IOException {
+            int n = deflater.deflate(buf, 0, buf.length);
+            if (n > 0) { out.write(buf, 0, n); bytesOut.addAndGet(n); }
+        }
+
+        @Override public void close() throws IOException {
+            if (deflater == null) return;
+            try {
+                deflater.finish();
+                while (!deflater.finished()) drain();
+                byte[] trailer = new byte[8];
+                int c = (int) crc.getValue(), size = (int) in;
+                for (int i = 0; i < 4; i++) {
+                    trailer[i] = (byte) (c >>> (8 * i));
+                    trailer[4 + i] = (byte) (size >>> (8 * i));
+                }
+                out.write(trailer);
+                bytesIn.addAndGet(in);
+                bytesOut.addAndGet(HEADER.length + trailer.length);
+                out.close();
+            } finally {
+                deflater.reset();
+                if (!POOL.offer(deflater)) deflater.end();
+                deflater = null;
+            }
+        }
+    }
+}
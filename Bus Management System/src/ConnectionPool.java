@@ -0,0 +1,229 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small fixed-size pool of SQLite connections.
+ *
+ * Connections are opened lazily up to maxSize (or eagerly via {@link #warmUp}), get the
+ * pragmas applied once, and keep an LRU cache of prepared statements. Callers use the
+ * returned Connection exactly like a DriverManager one: close() hands it back to the
+ * pool and closing a cached PreparedStatement only clears its parameters.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    static final List<String> DEFAULT_PRAGMAS = List.of(
+            "PRAGMA journal_mode=WAL",
+            "PRAGMA synchronous=NORMAL",
+            "PRAGMA foreign_keys=ON",
+            "PRAGMA busy_timeout=5000",
+            "PRAGMA mmap_size=268435456",
+            "PRAGMA cache_size=-16000");
+
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final String url;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final List<String> pragmas;
+    private final BlockingQueue<Pooled> idle;
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, int maxSize, long borrowTimeoutMs, List<String> pragmas) {
+        this.url = url;
+        this.maxSize = Math.max(1, maxSize);
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.pragmas = List.copyOf(pragmas);
+        this.idle = new ArrayBlockingQueue<>(this.maxSize);
+    }
+
+    /** Opens connections until {@code count} exist, so the first requests skip the open cost. */
+    public void warmUp(int count) throws SQLException {
+        while (created.get() < Math.min(count, maxSize)) {
+            Pooled p = tryCreate();
+            if (p == null) break;
+            idle.offer(p);
+        }
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) throw new SQLException("connection pool closed");
+        long start = System.nanoTime();
+        Pooled p = idle.poll();
+        if (p == null) p = tryCreate();
+        if (p == null) {
+            try {
+                p = idle.poll(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("interrupted waiting for connection", e);
+            }
+            if (p == null) throw new SQLException("connection pool exhausted (" + maxSize + " in use)");
+        }
+        long waited = System.nanoTime() - start;
+        borrows.incrementAndGet();
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        inUse.incrementAndGet();
+        return p.lease();
+    }
+
+    private Pooled tryCreate() throws SQLException {
+        while (true) {
+            int n = created.get();
+            if (n >= maxSize) return null;
+            if (created.compareAndSet(n, n + 1)) break;
+        }
+        try {
+            Connection raw = DriverManager.getConnection(url);
+            try (Statement st = raw.createStatement()) {
+                for (String pragma : pragmas) st.execute(pragma);
+            }
+            return new Pooled(raw);
+        } catch (SQLException e) {
+            created.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void release(Pooled p) {
+        inUse.decrementAndGet();
+        try {
+            if (!p.raw.getAutoCommit()) {
+                p.raw.rollback();
+                p.raw.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            p.discard();
+            created.decrementAndGet();
+            return;
+        }
+        if (closed || !idle.offer(p)) {
+            p.discard();
+            created.decrementAndGet();
+        }
+    }
+
+    @Override public void close() {
+        closed = true;
+        Pooled p;
+        while ((p = idle.poll()) != null) { p.discard(); created.decrementAndGet(); }
+    }
+
+    public Stats stats() {
+        long b = borrows.get();
+        return new Stats(created.get(), inUse.get(), idle.size(), maxSize, b,
+                b == 0 ? 0 : waitNanos.get() / b, maxWaitNanos.get());
+    }
+
+    public record Stats(int created, int inUse, int idle, int maxSize, long borrows,
+                        long avgWaitNanos, long maxWaitNanos) {
+        @Override public String toString() {
+            return String.format("pool created=%d inUse=%d idle=%d max=%d borrows=%d avgWait=%.3fms maxWait=%.3fms",
+                    created, inUse, idle, maxSize, borrows, avgWaitNanos / 1e6, maxWaitNanos / 1e6);
+        }
+    }
+
+    // ---------- Pooled connection + statement cache ----------
+    private final class Pooled {
+        final Connection raw;
+        final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> e) {
+                if (size() <= STATEMENT_CACHE_SIZE) return false;
+                e.getValue().closeQuietly();
+                return true;
+            }
+        };
+
+        Pooled(Connection raw) { this.raw = raw; }
+
+        Connection lease() {
+            boolean[] released = {false};
+            InvocationHandler h = (proxy, m, args) -> {
+                switch (m.getName()) {
+                    case "close":
+                        if (!released[0]) { released[0] = true; release(this); }
+                        return null;
+                    case "isClosed":
+                        return released[0] || raw.isClosed();
+                    case "prepareStatement":
+                        if (released[0]) throw new SQLException("connection returned to pool");
+                        if (args.length == 1) return prepare((String) args[0]);
+                        break;
+                    default:
+                        if (released[0] && m.getDeclaringClass() == Connection.class)
+                            throw new SQLException("connection returned to pool");
+                }
+                return invoke(raw, m, args);
+            };
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, h);
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            CachedStatement cs = statements.get(sql);
+            if (cs == null) {
+                cs = new CachedStatement(raw.prepareStatement(sql));
+                statements.put(sql, cs);
+            }
+            // Same SQL already open on this lease (nested use): hand out a plain statement
+            if (cs.leased) return raw.prepareStatement(sql);
+            cs.leased = true;
+            return cs.proxy;
+        }
+
+        void discard() {
+            statements.values().forEach(CachedStatement::closeQuietly);
+            statements.clear();
+            try { raw.close(); } catch (SQLException ignored) {}
+        }
+    }
+
+    private static final class CachedStatement {
+        final PreparedStatement ps;
+        final PreparedStatement proxy;
+        boolean leased;
+
+        CachedStatement(PreparedStatement ps) {
+            this.ps = ps;
+            InvocationHandler h = (p, m, args) -> {
+                if (m.getName().equals("close")) {
+                    if (leased) {
+                        leased = false;
+                        ps.clearParameters();
+                        ps.clearBatch();
+                    }
+                    return null;
+                }
+                if (m.getName().equals("isClosed")) return !leased || ps.isClosed();
+                return invoke(ps, m, args);
+            };
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, h);
+        }
+
+        void closeQuietly() { try { ps.close(); } catch (SQLException ignored) {} }
+    }
+
+    private static Object invoke(Object target, Method m, Object[] args) throws Throwable {
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
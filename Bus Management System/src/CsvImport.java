@@ -0,0 +1,217 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Bulk CSV import of buses, routes or schedules, streamed from the request body.
+ *
+ *   buses      name,type,capacity
+ *   routes     source,destination,fare[,duration_min]
+ *   schedules  bus_id,route_id,date,time      (yyyy-MM-dd, HH:mm)
+ *
+ * A header row naming the columns is skipped. Rows are validated as they are read; bad ones
+ * are reported by line number and skipped. Good rows go to the writer in chunks of
+ * -Dbus.import.batch (default 1000) as one addBatch/executeBatch each, and every chunk is its
+ * own write, so the writer commits as the file streams in. The next chunk is parsed while the
+ * previous one commits. A chunk that fails in SQLite (e.g. a constraint) is rolled back whole
+ * and reported; chunks already committed stay.
+ */
+public final class CsvImport {
+
+    public enum Kind {
+        BUSES("INSERT INTO buses(name,type,capacity) VALUES(?,?,?)", "name"),
+        ROUTES("INSERT INTO routes(source,destination,fare,duration_min) VALUES(?,?,?,?)", "source"),
+        SCHEDULES("INSERT INTO schedules(bus_id,route_id,date,time) VALUES(?,?,?,?)", "bus_id");
+
+        final String sql;
+        final String firstColumn;
+        Kind(String sql, String firstColumn) { this.sql = sql; this.firstColumn = firstColumn; }
+
+        public static Kind of(String name) {
+            for (Kind k : values()) if (k.name().equalsIgnoreCase(name)) return k;
+            return null;
+        }
+    }
+
+    public record LineError(long line, String message) {}
+
+    public record Result(Kind kind, long imported, long skipped, int batches, List<LineError> errors) {}
+
+    static final int BATCH = Integer.getInteger("bus.import.batch", 1000);
+    private static final int MAX_ERRORS = 50;
+
+    private CsvImport() {}
+
+    /** A chunk queued on the writer, with the input lines it covers. */
+    private record Chunk(CompletableFuture<int[]> commit, long from, long to, int rows) {}
+
+    public static Result run(Kind kind, InputStream body) throws IOException, SQLException {
+        List<LineError> errors = new ArrayList<>();
+        long imported = 0, skipped = 0, line = 0;
+        int batches = 0;
+        List<Object[]> rows = new ArrayList<>(BATCH);
+        long from = 0;
+        Chunk pending = null;
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8), 65536);
+        try {
+            String text;
+            while (true) {
+                text = in.readLine();
+                if (text != null) {
+                    line++;
+                    if (line == 1 && text.startsWith("\uFEFF")) text = text.substring(1);
+                    if (text.isBlank()) continue;
+                    List<String> fields = fields(text);
+                    if (line == 1 && fields.get(0).trim().toLowerCase(Locale.ROOT).equals(kind.firstColumn)) continue;
+                    try {
+                        Object[] row = row(kind, fields);
+                        if (rows.isEmpty()) from = line;
+                        rows.add(row);
+                    } catch (IllegalArgumentException e) {
+                        skipped++;
+                        if (errors.size() < MAX_ERRORS) errors.add(new LineError(line, e.getMessage()));
+                    }
+                    if (rows.size() < BATCH) continue;
+                }
+                if (!rows.isEmpty()) {
+                    // at most one chunk in flight: the previous one commits while this one was parsed
+                    long done = settle(pending, errors);
+                    imported += done;
+                    if (pending != null) skipped += pending.rows() - done;
+                    pending = new Chunk(submit(kind, rows), from, line, rows.size());
+                    batches++;
+                    rows = new ArrayList<>(BATCH);
+                }
+                if (text == null) break;
+            }
+        } finally {
+            long done = settle(pending, errors);
+            imported += done;
+            if (pending != null) skipped += pending.rows() - done;
+            if (batches > 0) invalidate(kind);
+        }
+        return new Result(kind, imported, skipped, batches, errors);
+    }
+
+    private static CompletableFuture<int[]> submit(Kind kind, List<Object[]> rows) throws SQLException {
+        return DBUtil.writeAsync(c -> {
+            try (PreparedStatement ps = c.prepareStatement(kind.sql)) {
+                for (Object[] r : rows) {
+                    for (int i = 0; i < r.length; i++) ps.setObject(i + 1, r[i]);
+                    ps.addBatch();
+                }
+                return ps.executeBatch();
+            }
+        });
+    }
+
+    /** Rows a chunk committed, or 0 after recording why it failed. */
+    private static long settle(Chunk chunk, List<LineError> errors) throws SQLException {
+        if (chunk == null) return 0;
+        try {
+            return chunk.commit().get().length;
+        } catch (ExecutionException e) {
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(new LineError(chunk.from(), "lines " + chunk.from() + "-" + chunk.to() + " not imported: " + e.getCause().getMessage()));
+            }
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for import batch", e);
+        }
+    }
+
+    private static void invalidate(Kind kind) {
+        switch (kind) {
+            case BUSES: RefData.invalidateBuses(); break;
+            case ROUTES: RefData.invalidateRoutes(); break;
+            default: RefData.scheduleAdded(); break;
+        }
+    }
+
+    private static Object[] row(Kind kind, List<String> f) {
+        switch (kind) {
+            case BUSES: {
+                need(f, 3, 3);
+                String name = text(f.get(0), "name");
+                int capacity = number(f.get(2), "capacity");
+                if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+                return new Object[]{name, f.get(1).trim(), capacity};
+            }
+            case ROUTES: {
+                need(f, 3, 4);
+                double fare;
+                try { fare = Double.parseDouble(f.get(2).trim()); }
+                catch (NumberFormatException e) { throw new IllegalArgumentException("fare is not a number"); }
+                if (!(fare >= 0)) throw new IllegalArgumentException("fare must not be negative");
+                int minutes = f.size() > 3 && !f.get(3).isBlank() ? number(f.get(3), "duration_min") : 240;
+                if (minutes <= 0) throw new IllegalArgumentException("duration_min must be positive");
+                return new Object[]{text(f.get(0), "source"), text(f.get(1), "destination"), fare, minutes};
+            }
+            default: {
+                need(f, 4, 4);
+                int bus = number(f.get(0), "bus_id"), route = number(f.get(1), "route_id");
+                String date = f.get(2).trim(), time = f.get(3).trim();
+                try {
+                    if (RefData.bus(bus) == null) throw new IllegalArgumentException("no bus " + bus);
+                    if (RefData.route(route) == null) throw new IllegalArgumentException("no route " + route);
+                } catch (SQLException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+                if (JourneyPlanner.minutes(date, time) < 0) throw new IllegalArgumentException("date/time must be yyyy-MM-dd and HH:mm");
+                return new Object[]{bus, route, date, time};
+            }
+        }
+    }
+
+    private static void need(List<String> f, int min, int max) {
+        if (f.size() < min || f.size() > max) {
+            throw new IllegalArgumentException("expected " + (min == max ? min : min + "-" + max) + " fields, got " + f.size());
+        }
+    }
+
+    private static String text(String v, String column) {
+        v = v.trim();
+        if (v.isEmpty()) throw new IllegalArgumentException(column + " is empty");
+        return v;
+    }
+
+    private static int number(String v, String column) {
+        try { return Integer.parseInt(v.trim()); }
+        catch (NumberFormatException e) { throw new IllegalArgumentException(column + " is not a whole number"); }
+    }
+
+    /** One CSV line: comma-separated, fields optionally in double quotes with "" for a quote. */
+    static List<String> fields(String line) {
+        List<String> out = new ArrayList<>(4);
+        StringBuilder f = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0, n = line.length(); i < n; i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < n && line.charAt(i + 1) == '"') { f.append('"'); i++; }
+                else if (c == '"') quoted = false;
+                else f.append(c);
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                out.add(f.toString());
+                f.setLength(0);
+            } else {
+                f.append(c);
+            }
+        }
+        out.add(f.toString());
+        return out;
+    }
+}
@@ -1,16 +1,82 @@
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
-
-public class DBUtil {
-    private static final String URL = "jdbc:sqlite:C:/databases/bus_management.db";
-
-    public static Connection getConnection() throws SQLException {
-        try {
-            Class.forName("org.sqlite.JDBC");
-        } catch (ClassNotFoundException e) {
-            throw new SQLException("SQLite JDBC driver not found", e);
-        }
-        return DriverManager.getConnection(URL);
-    }
-}
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class DBUtil {
+    private static final String URL = System.getProperty("bus.db.url", "jdbc:sqlite:bus.db");
+    private static final int POOL_SIZE = Integer.getInteger("bus.db.poolSize",
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    private static final long WRITE_TIMEOUT_MS = 30_000;
+
+    private static volatile ConnectionPool pool;
+    private static volatile WriteQueue writer;
+
+    /** Read-only pooled connection. All mutations go through {@link #write}. */
+    public static Connection getConnection() throws SQLException {
+        return pool().borrow();
+    }
+
+    /** Directory holding the database file; the working directory for an in-memory database. */
+    public static Path dataDir() {
+        String file = URL.startsWith("jdbc:sqlite:") ? URL.substring("jdbc:sqlite:".length()) : "";
+        if (file.startsWith("file:")) file = file.substring("file:".length());
+        int q = file.indexOf('?');
+        if (q >= 0) file = file.substring(0, q);
+        Path dir = file.isEmpty() || file.startsWith(":memory:") ? null : Path.of(file).toAbsolutePath().getParent();
+        return dir != null ? dir : Path.of("").toAbsolutePath();
+    }
+
+    public static ConnectionPool pool() throws SQLException {
+        if (pool == null) init();
+        return pool;
+    }
+
+    public static WriteQueue writer() throws SQLException {
+        if (writer == null) init();
+        return writer;
+    }
+
+    /** Runs a mutation on the single writer thread and waits for its group commit. */
+    public static <T> T write(WriteQueue.Write<T> w) throws SQLException {
+        try {
+            return writeAsync(w).get(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException se) throw se;
+            throw new SQLException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for write", e);
+        } catch (TimeoutException e) {
+            throw new SQLException("write timed out", e);
+        }
+    }
+
+    public static <T> CompletableFuture<T> writeAsync(WriteQueue.Write<T> w) throws SQLException {
+        return writer().submit(w);
+    }
+
+    /** Opens every pooled connection up front so the first requests skip file open + pragmas. */
+    public static void warmUp() throws SQLException {
+        pool().warmUp(POOL_SIZE);
+    }
+
+    private static synchronized void init() throws SQLException {
+        if (pool != null) return;
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("SQLite JDBC driver not found", e);
+        }
+        // Writer first: it switches the file to WAL before any reader opens it
+        writer = new WriteQueue(URL, ConnectionPool.DEFAULT_PRAGMAS);
+        List<String> readPragmas = new ArrayList<>(ConnectionPool.DEFAULT_PRAGMAS);
+        readPragmas.add("PRAGMA query_only=ON");
+        pool = new ConnectionPool(URL, POOL_SIZE, 10_000, readPragmas);
+    }
+}
@@ -0,0 +1,246 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fills a database with a synthetic network for capacity testing.
+ *
+ *   java -Dbus.db.url=jdbc:sqlite:big.db DataGen [buses] [routes] [schedules] [bookings] [seed]
+ *
+ * Defaults are 2,000 buses, 5,000 routes, 1,000,000 schedules and 2,000,000 bookings. Places
+ * are the 64 districts, ranked roughly by population, and popularity is Zipf-skewed. Routes
+ * out of the big cities are more common. Popular routes get more trips, and their trips fill
+ * up while the long tail runs nearly empty. Trips run from 30 days ago to 60 days ahead.
+ * Past bookings are COMPLETED and about 5% are CANCELLED. Rows are appended to whatever is
+ * there. Users are not touched; Main seeds admin/user on start as usual.
+ *
+ * Rows are generated on this thread and written in chunks of -Dbus.gen.batch (default 20,000),
+ * one chunk in flight, so generation overlaps the previous commit.
+ */
+public final class DataGen {
+
+    public record Size(int buses, int routes, int schedules, int bookings) {}
+
+    /** The 64 districts, most populous first; index = popularity rank. */
+    static final String[] PLACES = {
+            "ঢাকা", "চট্টগ্রাম", "কুমিল্লা", "ময়মনসিংহ", "গাজীপুর", "নারায়ণগঞ্জ", "সিলেট", "খুলনা",
+            "রাজশাহী", "বগুড়া", "রংপুর", "বরিশাল", "নোয়াখালী", "কক্সবাজার", "যশোর", "টাঙ্গাইল",
+            "দিনাজপুর", "সিরাজগঞ্জ", "পাবনা", "ফেনী", "ব্রাহ্মণবাড়িয়া", "চাঁদপুর", "নরসিংদী", "কিশোরগঞ্জ",
+            "জামালপুর", "নওগাঁ", "কুষ্টিয়া", "ফরিদপুর", "হবিগঞ্জ", "মৌলভীবাজার", "সুনামগঞ্জ", "লক্ষ্মীপুর",
+            "পটুয়াখালী", "ভোলা", "সাতক্ষীরা", "বাগেরহাট", "ঝিনাইদহ", "চুয়াডাঙ্গা", "মেহেরপুর", "মাগুরা",
+            "নড়াইল", "গোপালগঞ্জ", "মাদারীপুর", "শরীয়তপুর", "রাজবাড়ী", "মানিকগঞ্জ", "মুন্সীগঞ্জ", "নেত্রকোনা",
+            "শেরপুর", "গাইবান্ধা", "কুড়িগ্রাম", "লালমনিরহাট", "নীলফামারী", "ঠাকুরগাঁও", "পঞ্চগড়", "জয়পুরহাট",
+            "নাটোর", "চাঁপাইনবাবগঞ্জ", "ঝালকাঠি", "পিরোজপুর", "বরগুনা", "রাঙ্গামাটি", "খাগড়াছড়ি", "বান্দরবান"};
+
+    private static final String[] OPERATORS = {"হানিফ", "শ্যামলী", "গ্রীন লাইন", "এনা", "সোহাগ", "দেশ ট্রাভেলস",
+            "সৌদিয়া", "ইউনিক", "তিশা", "এস আলম", "শাহ আলী", "সেন্টমার্টিন"};
+    private static final String[] FIRST = {"মোহাম্মদ", "আবদুল", "রহিম", "করিম", "ফাতেমা", "আয়েশা", "নুসরাত", "তানভীর",
+            "সাকিব", "মিম", "রুবিনা", "জাহিদ", "শারমিন", "আরিফ", "সুমাইয়া", "হাসান"};
+    private static final String[] LAST = {"হোসেন", "ইসলাম", "রহমান", "আহমেদ", "খান", "চৌধুরী", "সরকার", "মিয়া",
+            "বেগম", "আক্তার", "দাস", "রায়"};
+
+    static final int BATCH = Integer.getInteger("bus.gen.batch", 20_000);
+    static final int PAST_DAYS = 30, FUTURE_DAYS = 60;
+
+    private DataGen() {}
+
+    public static void main(String[] args) throws Exception {
+        Size size = new Size(arg(args, 0, 2_000), arg(args, 1, 5_000), arg(args, 2, 1_000_000), arg(args, 3, 2_000_000));
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        long t0 = System.nanoTime();
+        DBUtil.write(Migrations::migrate);
+        generate(size, seed);
+        System.out.printf("done in %.1fs%n", (System.nanoTime() - t0) / 1e9);
+        System.exit(0);   // the writer and pool threads are not daemons
+    }
+
+    private static int arg(String[] args, int i, int def) {
+        return args.length > i ? Integer.parseInt(args[i].replace("_", "")) : def;
+    }
+
+    // ---------- Skewed choice ----------
+
+    /** Draws index i with probability weight[i] / sum, by binary search over the running sum. */
+    static final class Weighted {
+        private final double[] cum;
+
+        Weighted(double[] weight) {
+            cum = new double[weight.length];
+            double s = 0;
+            for (int i = 0; i < weight.length; i++) cum[i] = s += weight[i];
+        }
+
+        /** Zipf: rank k (from 0) has weight 1 / (k + 1)^s. */
+        static Weighted zipf(int n, double s) {
+            double[] w = new double[n];
+            for (int k = 0; k < n; k++) w[k] = 1 / Math.pow(k + 1, s);
+            return new Weighted(w);
+        }
+
+        int next(SplittableRandom rnd) {
+            double x = rnd.nextDouble() * cum[cum.length - 1];
+            int lo = 0, hi = cum.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cum[mid] <= x) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    // ---------- Generation ----------
+
+    public static void generate(Size size, long seed) throws SQLException {
+        // the schedules/bookings indexes outgrow the normal 16 MB page cache within a few hundred thousand rows
+        pragma("PRAGMA cache_size=-" + Integer.getInteger("bus.gen.cacheMb", 256) * 1024);
+        try {
+            generateRows(size, seed);
+        } finally {
+            pragma("PRAGMA cache_size=-16000");
+        }
+    }
+
+    private static void pragma(String sql) throws SQLException {
+        DBUtil.write(c -> {
+            try (Statement st = c.createStatement()) { return st.execute(sql); }
+        });
+    }
+
+    private static void generateRows(Size size, long seed) throws SQLException {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        LocalDate today = LocalDate.now();
+        Weighted place = Weighted.zipf(PLACES.length, 1.0);
+
+        // buses: operator + number; AC coaches are smaller
+        int busBase = maxId("buses");
+        int[] capacity = new int[size.buses()];
+        insert("buses", "INSERT INTO buses(name,type,capacity) VALUES(?,?,?)", size.buses(), i -> {
+            int kind = rnd.nextInt(10);
+            String type = kind < 2 ? "AC" : kind < 3 ? "Sleeper" : "Non-AC";
+            capacity[i] = kind < 2 ? 36 : kind < 3 ? 28 : 40;
+            return new Object[]{OPERATORS[rnd.nextInt(OPERATORS.length)] + " " + String.format("%04d", busBase + i + 1), type, capacity[i]};
+        });
+
+        // routes: both ends Zipf over places, so Dhaka-Chattogram is common and the tail is rare
+        int routeBase = maxId("routes");
+        double[] routeWeight = new double[size.routes()];
+        double[] fare = new double[size.routes()];
+        insert("routes", "INSERT INTO routes(source,destination,fare,duration_min) VALUES(?,?,?,?)", size.routes(), i -> {
+            int a = place.next(rnd), b;
+            do b = place.next(rnd); while (b == a);
+            int minutes = 60 + 30 * rnd.nextInt(20);
+            fare[i] = Math.round(minutes * (1.8 + rnd.nextDouble()) / 10) * 10.0;
+            routeWeight[i] = 1.0 / ((a + 1) * (b + 1));
+            return new Object[]{PLACES[a], PLACES[b], fare[i], minutes};
+        });
+        Weighted route = new Weighted(routeWeight);
+
+        // schedules: popular routes get more trips; 15-minute slots between 05:00 and 23:45
+        int scheduleBase = maxId("schedules");
+        int n = size.schedules();
+        int[] routeOf = new int[n], busOf = new int[n];
+        byte[] day = new byte[n];   // offset from today - PAST_DAYS
+        String[] dates = new String[PAST_DAYS + FUTURE_DAYS + 1], times = new String[96];
+        for (int d = 0; d < dates.length; d++) dates[d] = today.plusDays(d - PAST_DAYS).toString();
+        for (int t = 0; t < times.length; t++) times[t] = String.format("%02d:%02d", t / 4, t % 4 * 15);
+        insert("schedules", "INSERT INTO schedules(bus_id,route_id,date,time) VALUES(?,?,?,?)", n, i -> {
+            routeOf[i] = route.next(rnd);
+            busOf[i] = rnd.nextInt(size.buses());
+            day[i] = (byte) rnd.nextInt(dates.length);
+            return new Object[]{busBase + busOf[i] + 1, routeBase + routeOf[i] + 1, dates[day[i]], times[20 + rnd.nextInt(76)]};
+        });
+
+        // bookings: pick a route by popularity, then one of its trips; full trips are retried
+        int[] first = new int[size.routes() + 1], byRoute = new int[n];
+        for (int r : routeOf) first[r + 1]++;
+        for (int r = 0; r < size.routes(); r++) first[r + 1] += first[r];
+        int[] fill = first.clone();
+        for (int s = 0; s < n; s++) byRoute[fill[routeOf[s]]++] = s;
+        short[] booked = new short[n];
+        long[] skipped = new long[1];
+        insert("bookings", "INSERT INTO bookings(name,phone,schedule_id,seat_no,status,total) VALUES(?,?,?,?,?,?)", size.bookings(), i -> {
+            int s = -1;
+            for (int tries = 0; tries < 8 && s < 0; tries++) {
+                int r = route.next(rnd), count = first[r + 1] - first[r];
+                if (count == 0) continue;
+                int pick = byRoute[first[r] + rnd.nextInt(count)];
+                if (booked[pick] < capacity[busOf[pick]]) s = pick;
+            }
+            if (s < 0) { skipped[0]++; return null; }
+            String status = rnd.nextInt(20) == 0 ? "CANCELLED" : day[s] < PAST_DAYS ? "COMPLETED" : "CONFIRMED";
+            return new Object[]{FIRST[rnd.nextInt(FIRST.length)] + " " + LAST[rnd.nextInt(LAST.length)],
+                    String.format("01%d%08d", 3 + rnd.nextInt(7), rnd.nextInt(100_000_000)),
+                    scheduleBase + s + 1, (int) ++booked[s], status, fare[routeOf[s]]};
+        });
+        if (skipped[0] > 0) System.out.println("  " + skipped[0] + " booking(s) skipped: their trips were full");
+
+        int fixed = DBUtil.write(c -> {
+            try (PreparedStatement ps = c.prepareStatement("""
+                    UPDATE schedules SET booked_count = (
+                      SELECT COUNT(*) FROM bookings bk WHERE bk.schedule_id=schedules.id AND bk.status!='CANCELLED')
+                    WHERE id>?""")) {
+                ps.setInt(1, scheduleBase);
+                return ps.executeUpdate();
+            }
+        });
+        System.out.println("  booked_count set on " + fixed + " schedule(s)");
+        DBUtil.write(c -> {
+            try (Statement st = c.createStatement()) { return st.executeUpdate("ANALYZE"); }
+        });
+    }
+
+    @FunctionalInterface
+    private interface Row { Object[] next(int i) throws SQLException; }
+
+    /** Rows 0..n-1 (null = skip) in chunks, one chunk committing while the next is generated. */
+    private static void insert(String table, String sql, int n, Row row) throws SQLException {
+        long t0 = System.nanoTime(), written = 0;
+        CompletableFuture<int[]> pending = null;
+        for (int from = 0; from < n; from += BATCH) {
+            List<Object[]> rows = new ArrayList<>(Math.min(BATCH, n - from));
+            for (int i = from; i < Math.min(n, from + BATCH); i++) {
+                Object[] r = row.next(i);
+                if (r != null) rows.add(r);
+            }
+            written += settle(pending);
+            pending = DBUtil.writeAsync(c -> {
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
+                    for (Object[] r : rows) {
+                        for (int k = 0; k < r.length; k++) ps.setObject(k + 1, r[k]);
+                        ps.addBatch();
+                    }
+                    return ps.executeBatch();
+                }
+            });
+        }
+        written += settle(pending);
+        double secs = (System.nanoTime() - t0) / 1e9;
+        System.out.printf("  %-10s %,12d rows  %6.1fs  %,10.0f rows/s%n", table, written, secs, written / secs);
+    }
+
+    private static int settle(CompletableFuture<int[]> chunk) throws SQLException {
+        if (chunk == null) return 0;
+        try {
+            return chunk.get().length;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException se) throw se;
+            throw new SQLException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted", e);
+        }
+    }
+
+    // Ids are AUTOINCREMENT and there is one writer, so a table's new rows are maxId+1, maxId+2, ...
+    private static int maxId(String table) throws SQLException {
+        try (Connection c = DBUtil.getConnection(); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MAX(COALESCE((SELECT seq FROM sqlite_sequence WHERE name='" + table + "'),0), " +
+                     "COALESCE((SELECT MAX(id) FROM " + table + "),0))")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+}
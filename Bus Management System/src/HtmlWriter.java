@@ -0,0 +1,244 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Streams an HTML response straight to the exchange through pooled char/byte buffers.
+ *
+ * Handlers append to it like a StringBuilder, or render a precompiled {@link Template}
+ * with {@link #begin}. Headers are held back until the byte buffer fills: a page that fits
+ * goes out with a fixed Content-Length, and a larger one switches to chunked transfer and is
+ * sent while it is still being rendered. The page is never held in heap as a whole.
+ * {@link JsonWriter} streams API responses through the same buffers.
+ */
+public final class HtmlWriter implements Closeable {
+
+    private static final int CHARS = 8192;
+    private static final int BYTES = 32768;
+    private static final ArrayBlockingQueue<Buffers> POOL = new ArrayBlockingQueue<>(64);
+
+    private static final class Buffers {
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        final CharBuffer chars = CharBuffer.allocate(CHARS);
+        final ByteBuffer bytes = ByteBuffer.allocate(BYTES);
+    }
+
+    private final HttpExchange ex;
+    private final int code;
+    private Buffers buf;
+    private OutputStream out;   // set once headers are sent
+    private Template template;  // being rendered by begin()...end()
+    private int slot;
+
+    private HtmlWriter(HttpExchange ex, int code, String contentType) {
+        this.ex = ex;
+        this.code = code;
+        Buffers b = POOL.poll();
+        this.buf = b != null ? b : new Buffers();
+        ex.getResponseHeaders().set("Content-Type", contentType);
+    }
+
+    public static HtmlWriter open(HttpExchange ex, int code) { return open(ex, code, "text/html; charset=utf-8"); }
+
+    /** Same buffering for another text type. */
+    static HtmlWriter open(HttpExchange ex, int code, String contentType) { return new HtmlWriter(ex, code, contentType); }
+
+    // ---------- plain appends ----------
+
+    public HtmlWriter append(CharSequence s) throws IOException {
+        if (s == null) s = "null";
+        CharBuffer chars = buf.chars;
+        int i = 0, n = s.length();
+        while (i < n) {
+            if (!chars.hasRemaining()) encodeChars();
+            int len = Math.min(n - i, chars.remaining());
+            if (s instanceof String str) {
+                str.getChars(i, i + len, chars.array(), chars.arrayOffset() + chars.position());
+                chars.position(chars.position() + len);
+            } else {
+                chars.append(s, i, i + len);
+            }
+            i += len;
+        }
+        return this;
+    }
+
+    public HtmlWriter append(char c) throws IOException {
+        if (!buf.chars.hasRemaining()) encodeChars();
+        buf.chars.put(c);
+        return this;
+    }
+
+    /** Decimal digits written in place, without an Integer.toString string. */
+    public HtmlWriter append(long v) throws IOException {
+        if (v == Long.MIN_VALUE) return append(Long.toString(v));
+        CharBuffer chars = buf.chars;
+        if (chars.remaining() < 20) encodeChars();
+        if (v < 0) { chars.put('-'); v = -v; }
+        char[] a = chars.array();
+        int start = chars.arrayOffset() + chars.position(), end = start;
+        do { a[end++] = (char) ('0' + v % 10); v /= 10; } while (v != 0);
+        for (int i = start, j = end - 1; i < j; i++, j--) { char t = a[i]; a[i] = a[j]; a[j] = t; }
+        chars.position(chars.position() + (end - start));
+        return this;
+    }
+
+    public HtmlWriter append(int v) throws IOException { return append((long) v); }
+    public HtmlWriter append(double v) throws IOException { return append(Double.toString(v)); }
+    public HtmlWriter append(Object o) throws IOException { return append(String.valueOf(o)); }
+
+    /** Already-encoded UTF-8, e.g. a template segment. */
+    public HtmlWriter write(byte[] b) throws IOException {
+        encodeChars();
+        ByteBuffer bytes = buf.bytes;
+        if (b.length > bytes.remaining()) sendBytes(false);
+        if (b.length > bytes.capacity()) out.write(b);
+        else bytes.put(b);
+        return this;
+    }
+
+    /** Appends {@code s} HTML-escaped, in one pass straight into the buffer. */
+    public HtmlWriter escape(CharSequence s) throws IOException {
+        if (s == null) return this;
+        CharBuffer chars = buf.chars;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            String entity = entity(c);
+            if (entity != null) { append(entity); continue; }
+            if (!chars.hasRemaining()) encodeChars();
+            chars.put(c);
+        }
+        return this;
+    }
+
+    /** Same escaping as {@link #escape(CharSequence)} for code that still builds Strings. */
+    public static String escaped(String s) {
+        if (s == null) return "";
+        int i = 0, n = s.length();
+        while (i < n && entity(s.charAt(i)) == null) i++;
+        if (i == n) return s;
+        StringBuilder sb = new StringBuilder(n + 16).append(s, 0, i);
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            String entity = entity(c);
+            if (entity != null) sb.append(entity); else sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static String entity(char c) {
+        switch (c) {
+            case '&': return "&amp;";
+            case '<': return "&lt;";
+            case '>': return "&gt;";
+            case '"': return "&quot;";
+            case '\'': return "&#39;";
+            default: return null;
+        }
+    }
+
+    // ---------- templates ----------
+
+    /** Starts rendering {@code t}; fill each slot in order, then call {@link #end()}. */
+    public HtmlWriter begin(Template t) throws IOException {
+        if (template != null) throw new IllegalStateException("template " + template + " not ended");
+        template = t;
+        slot = 0;
+        return write(t.segment(0));
+    }
+
+    public HtmlWriter text(String v) throws IOException { slot(Template.Kind.TEXT); escape(v); return next(); }
+    public HtmlWriter num(long v) throws IOException { slot(Template.Kind.INT); append(v); return next(); }
+    public HtmlWriter num(double v) throws IOException { slot(Template.Kind.NUM); append(v); return next(); }
+    public HtmlWriter raw(CharSequence v) throws IOException { slot(Template.Kind.RAW); append(v == null ? "" : v); return next(); }
+
+    public HtmlWriter end() {
+        if (template == null || slot != template.slots()) {
+            throw new IllegalStateException("template " + template + " ended after " + slot + " slot(s)");
+        }
+        template = null;
+        return this;
+    }
+
+    private void slot(Template.Kind kind) {
+        if (template == null || slot >= template.slots() || template.kind(slot) != kind) {
+            throw new IllegalStateException("template " + template + ": slot " + slot + " is not " + kind);
+        }
+    }
+
+    private HtmlWriter next() throws IOException { return write(template.segment(++slot)); }
+
+    // ---------- buffers ----------
+
+    /** Moves pending chars into the byte buffer, sending that first if it could overflow. */
+    private void encodeChars() throws IOException {
+        CharBuffer chars = buf.chars;
+        if (chars.position() == 0) return;
+        // UTF-8 needs at most 3 bytes per UTF-16 char
+        if (buf.bytes.remaining() < chars.position() * 3) sendBytes(false);
+        chars.flip();
+        CoderResult r = buf.encoder.encode(chars, buf.bytes, false);
+        if (r.isError()) r.throwException();
+        chars.compact();   // keeps a dangling high surrogate for the next round
+    }
+
+    private void sendBytes(boolean end) throws IOException {
+        ByteBuffer bytes = buf.bytes;
+        if (out == null) {
+            // 0 = chunked, -1 = no body
+            ex.sendResponseHeaders(code, end ? (bytes.position() == 0 ? -1 : bytes.position()) : 0);
+            out = ex.getResponseBody();
+        }
+        out.write(bytes.array(), bytes.arrayOffset(), bytes.position());
+        bytes.clear();
+    }
+
+    /**
+     * Gives up on the response and returns the buffers. True if nothing was sent yet, so the
+     * caller can still answer with an error; otherwise the exchange is closed and the client
+     * gets a cut-off body, never a second response on top of the first.
+     */
+    public boolean abort() {
+        if (buf == null) return false;
+        recycle();
+        if (out == null) return true;
+        ex.close();
+        return false;
+    }
+
+    // The buffers go back to the pool and the exchange is closed even if sending fails
+    @Override public void close() throws IOException {
+        if (buf == null) return;
+        boolean sent = false;
+        try {
+            CharBuffer chars = buf.chars;
+            if (buf.bytes.remaining() < chars.position() * 3 + 8) sendBytes(false);
+            chars.flip();
+            CoderResult r = buf.encoder.encode(chars, buf.bytes, true);
+            if (!r.isError()) r = buf.encoder.flush(buf.bytes);
+            if (r.isError()) r.throwException();
+            sendBytes(true);
+            out.close();
+            sent = true;
+        } finally {
+            recycle();
+            if (!sent) ex.close();
+        }
+    }
+
+    private void recycle() {
+        buf.chars.clear();
+        buf.bytes.clear();
+        buf.encoder.reset();
+        POOL.offer(buf);
+        buf = null;
+    }
+}
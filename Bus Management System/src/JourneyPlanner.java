@@ -0,0 +1,197 @@
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Multi-leg journey planning over routes + schedules (connection scan).
+ *
+ * Every upcoming schedule is one connection: from the route's source at its departure to the
+ * route's destination routes.duration_min later. Connections are held in arrays sorted by
+ * departure, so a query binary-searches its start time and scans forward once. Stops are
+ * place names folded with {@link RouteIndex#key}, so "ঢাকা" and "Dhaka" are the same stop.
+ *
+ * Each stop keeps a small Pareto set of labels (ready time, fare, legs); changing buses needs
+ * -Dbus.plan.minConnectionMin (default 30) and a journey has at most -Dbus.plan.maxLegs (3).
+ * The earliest-arrival scan stops at the first departure after the best arrival; the cheapest
+ * one runs to -Dbus.plan.horizonHours (48) past the requested time.
+ *
+ * Built on demand and cached by RefData. After a schedule, route or bus change it is rebuilt
+ * in the background and the previous index keeps answering until the new one is in, so a
+ * plan can be one rebuild stale: a trip just added may be missing, and one just deleted may
+ * still be found. Callers check every leg against the DB before offering it (a deleted or
+ * full schedule has no seats and is planned around), and booking a leg goes through
+ * BusService.book, which reads the schedule, capacity and fare again on the writer.
+ */
+public final class JourneyPlanner {
+
+    public enum Goal { EARLIEST, CHEAPEST }
+
+    /** Times are minutes since 1970-01-01 (local dates/times as stored). */
+    public record Leg(int scheduleId, int busId, RefData.Route route, long depart, long arrive) {}
+
+    public record Journey(List<Leg> legs, double fare) {
+        public long depart() { return legs.get(0).depart(); }
+        public long arrive() { return legs.get(legs.size() - 1).arrive(); }
+    }
+
+    static final int MIN_CONNECTION = Integer.getInteger("bus.plan.minConnectionMin", 30);
+    static final int MAX_LEGS = Integer.getInteger("bus.plan.maxLegs", 3);
+    static final int HORIZON = Integer.getInteger("bus.plan.horizonHours", 48) * 60;
+
+    private final Map<String, Integer> stops;   // phonetic key -> stop id
+    private final long[] dep, arr;
+    private final int[] from, to, schedule, bus;
+    private final RefData.Route[] route;
+
+    private JourneyPlanner(Map<String, Integer> stops, List<long[]> rows, Map<Integer, RefData.Route> routes) {
+        this.stops = stops;
+        rows.sort(Comparator.comparingLong(r -> r[0]));
+        int n = rows.size();
+        dep = new long[n]; arr = new long[n];
+        from = new int[n]; to = new int[n]; schedule = new int[n]; bus = new int[n];
+        route = new RefData.Route[n];
+        for (int i = 0; i < n; i++) {
+            long[] r = rows.get(i);
+            RefData.Route rt = routes.get((int) r[3]);
+            dep[i] = r[0];
+            arr[i] = r[0] + rt.durationMin();
+            schedule[i] = (int) r[1];
+            bus[i] = (int) r[2];
+            route[i] = rt;
+            from[i] = stops.get(RouteIndex.key(rt.source()));
+            to[i] = stops.get(RouteIndex.key(rt.destination()));
+        }
+    }
+
+    /** Loads schedules from yesterday on (overnight legs) with their cached routes. */
+    static JourneyPlanner load() throws SQLException {
+        Map<Integer, RefData.Route> routes = new HashMap<>();
+        Map<String, Integer> stops = new HashMap<>();
+        for (RefData.Route r : RefData.routes()) {
+            routes.put(r.id(), r);
+            stops.putIfAbsent(RouteIndex.key(r.source()), stops.size());
+            stops.putIfAbsent(RouteIndex.key(r.destination()), stops.size());
+        }
+        List<long[]> rows = new ArrayList<>();
+        try (Connection c = DBUtil.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT id,bus_id,route_id,date,time FROM schedules WHERE date>=?")) {
+            ps.setString(1, LocalDate.now().minusDays(1).toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    long t = minutes(rs.getString(4), rs.getString(5));
+                    if (t < 0 || !routes.containsKey(rs.getInt(3))) continue;   // free-text date/time that does not parse
+                    rows.add(new long[]{t, rs.getInt(1), rs.getInt(2), rs.getInt(3)});
+                }
+            }
+        }
+        return new JourneyPlanner(stops, rows, routes);
+    }
+
+    /** Minutes since the epoch for a stored date and HH:mm time, or -1. */
+    static long minutes(String date, String time) {
+        try {
+            return LocalDate.parse(date.trim()).toEpochDay() * 1440 + LocalTime.parse(time.trim()).toSecondOfDay() / 60;
+        } catch (DateTimeParseException | NullPointerException e) {
+            return -1;
+        }
+    }
+
+    /** "yyyy-MM-dd HH:mm" for a {@link #minutes} value. */
+    static String format(long minutes) {
+        long m = Math.floorMod(minutes, 1440L);
+        return LocalDate.ofEpochDay(Math.floorDiv(minutes, 1440L)) + String.format(" %02d:%02d", m / 60, m % 60);
+    }
+
+    public int connections() { return dep.length; }
+
+    private static final class Label {
+        final long ready, arrive;   // ready = when the next bus may leave from here
+        final double fare;
+        final int legs, conn;
+        final Label prev;
+        Label(long ready, long arrive, double fare, int legs, int conn, Label prev) {
+            this.ready = ready; this.arrive = arrive; this.fare = fare; this.legs = legs; this.conn = conn; this.prev = prev;
+        }
+    }
+
+    /**
+     * Best journey between any of the {@code from} and {@code to} place names leaving at or
+     * after {@code earliest}, skipping {@code excluded} schedules (e.g. full ones).
+     */
+    public Optional<Journey> plan(Collection<String> fromNames, Collection<String> toNames, long earliest,
+                                  Goal goal, Set<Integer> excluded) {
+        Label[][] bags = new Label[stops.size()][];
+        int[] sizes = new int[stops.size()];
+        boolean[] target = new boolean[stops.size()];
+        for (String n : toNames) { Integer s = stops.get(RouteIndex.key(n)); if (s != null) target[s] = true; }
+        for (String n : fromNames) {
+            Integer s = stops.get(RouteIndex.key(n));
+            if (s != null && !target[s]) add(bags, sizes, s, new Label(earliest, earliest, 0, 0, -1, null));
+        }
+
+        Label best = null;
+        long end = earliest + HORIZON;
+        for (int i = lowerBound(earliest); i < dep.length && dep[i] <= end; i++) {
+            if (goal == Goal.EARLIEST && best != null && dep[i] >= best.arrive) break;
+            Label[] bag = bags[from[i]];
+            if (bag == null || excluded.contains(schedule[i])) continue;
+            Label board = null;
+            for (int k = 0; k < sizes[from[i]]; k++) {
+                Label l = bag[k];
+                if (l.ready > dep[i] || l.legs >= MAX_LEGS) continue;
+                if (board == null || l.fare < board.fare || l.fare == board.fare && l.legs < board.legs) board = l;
+            }
+            if (board == null) continue;
+            Label next = new Label(arr[i] + MIN_CONNECTION, arr[i], board.fare + route[i].fare(), board.legs + 1, i, board);
+            if (target[to[i]]) {
+                if (best == null || better(next, best, goal)) best = next;
+            } else {
+                add(bags, sizes, to[i], next);
+            }
+        }
+        if (best == null) return Optional.empty();
+        LinkedList<Leg> legs = new LinkedList<>();
+        for (Label l = best; l.conn >= 0; l = l.prev) {
+            int c = l.conn;
+            legs.addFirst(new Leg(schedule[c], bus[c], route[c], dep[c], arr[c]));
+        }
+        return Optional.of(new Journey(List.copyOf(legs), best.fare));
+    }
+
+    private static boolean better(Label a, Label b, Goal goal) {
+        if (goal == Goal.CHEAPEST && a.fare != b.fare) return a.fare < b.fare;
+        if (a.arrive != b.arrive) return a.arrive < b.arrive;
+        if (a.fare != b.fare) return a.fare < b.fare;
+        return a.legs < b.legs;
+    }
+
+    /** Adds {@code l} to the stop's Pareto set unless an existing label is at least as good on all three. */
+    private static void add(Label[][] bags, int[] sizes, int stop, Label l) {
+        Label[] bag = bags[stop];
+        int n = sizes[stop], kept = 0;
+        if (bag == null) bag = bags[stop] = new Label[4];
+        for (int k = 0; k < n; k++) {
+            Label o = bag[k];
+            if (o.ready <= l.ready && o.fare <= l.fare && o.legs <= l.legs) return;
+        }
+        for (int k = 0; k < n; k++) {
+            Label o = bag[k];
+            if (!(l.ready <= o.ready && l.fare <= o.fare && l.legs <= o.legs)) bag[kept++] = o;
+        }
+        if (kept == bag.length) bag = bags[stop] = Arrays.copyOf(bag, kept * 2);
+        bag[kept++] = l;
+        Arrays.fill(bag, kept, Math.max(kept, n), null);
+        sizes[stop] = kept;
+    }
+
+    private int lowerBound(long t) {
+        int lo = 0, hi = dep.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (dep[mid] < t) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+}
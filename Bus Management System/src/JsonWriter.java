@@ -0,0 +1,128 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams a JSON response through {@link HtmlWriter}'s pooled buffers.
+ *
+ * Callers write the document structurally (beginObject, name, value, ...) and the writer
+ * adds the commas, colons and string escaping. There is no object mapping or reflection:
+ * each handler writes exactly the fields it means to, and rows go out as they are read.
+ */
+public final class JsonWriter implements Closeable {
+
+    private final HtmlWriter out;
+    private long hasValue;   // bit d: depth d already holds an element, so the next one needs a comma
+    private int depth;
+    private boolean named;   // a name was written and its value has not
+
+    private JsonWriter(HtmlWriter out) { this.out = out; }
+
+    public static JsonWriter open(HttpExchange ex, int code) {
+        ex.getResponseHeaders().set("Cache-Control", "no-store");
+        return new JsonWriter(HtmlWriter.open(ex, code, "application/json; charset=utf-8"));
+    }
+
+    /** {"error": code, "message": message} with the given status. */
+    public static void error(HttpExchange ex, int status, String code, String message) throws IOException {
+        try (JsonWriter json = open(ex, status)) {
+            json.beginObject().field("error", code).field("message", message).endObject();
+        }
+    }
+
+    // ---------- structure ----------
+
+    public JsonWriter beginObject() throws IOException { beforeValue(); out.append('{'); push(); return this; }
+    public JsonWriter endObject() throws IOException { pop(); out.append('}'); return this; }
+    public JsonWriter beginArray() throws IOException { beforeValue(); out.append('['); push(); return this; }
+    public JsonWriter endArray() throws IOException { pop(); out.append(']'); return this; }
+
+    public JsonWriter name(String name) throws IOException {
+        if (named) throw new IllegalStateException("name '" + name + "' after a name");
+        separator();
+        string(name);
+        out.append(':');
+        named = true;
+        return this;
+    }
+
+    // ---------- values ----------
+
+    public JsonWriter value(String v) throws IOException {
+        if (v == null) return nullValue();
+        beforeValue();
+        string(v);
+        return this;
+    }
+
+    public JsonWriter value(long v) throws IOException { beforeValue(); out.append(v); return this; }
+
+    public JsonWriter value(double v) throws IOException {
+        if (Double.isNaN(v) || Double.isInfinite(v)) return nullValue();
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return value((long) v);
+        beforeValue();
+        out.append(Double.toString(v));
+        return this;
+    }
+
+    public JsonWriter value(boolean v) throws IOException { beforeValue(); out.append(v ? "true" : "false"); return this; }
+    public JsonWriter nullValue() throws IOException { beforeValue(); out.append("null"); return this; }
+
+    public JsonWriter field(String name, String v) throws IOException { return name(name).value(v); }
+    public JsonWriter field(String name, long v) throws IOException { return name(name).value(v); }
+    public JsonWriter field(String name, double v) throws IOException { return name(name).value(v); }
+    public JsonWriter field(String name, boolean v) throws IOException { return name(name).value(v); }
+
+    @Override public void close() throws IOException { out.close(); }
+
+    /** See {@link HtmlWriter#abort}: true if nothing was sent and an error response can follow. */
+    public boolean abort() { return out.abort(); }
+
+    // ---------- internals ----------
+
+    private void beforeValue() throws IOException {
+        if (named) named = false;
+        else separator();
+    }
+
+    private void separator() throws IOException {
+        long bit = 1L << depth;
+        if ((hasValue & bit) != 0) out.append(',');
+        else hasValue |= bit;
+    }
+
+    private void push() {
+        if (++depth >= Long.SIZE) throw new IllegalStateException("JSON nested deeper than " + (Long.SIZE - 1));
+        hasValue &= ~(1L << depth);
+    }
+
+    private void pop() {
+        if (depth == 0 || named) throw new IllegalStateException("unbalanced JSON end");
+        depth--;
+    }
+
+    /** Quoted and escaped per RFC 8259, plus U+2028/2029 so the output is also valid JavaScript. */
+    private void string(String s) throws IOException {
+        out.append('"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        out.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 15]).append(HEX[(c >> 4) & 15]).append(HEX[c & 15]);
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
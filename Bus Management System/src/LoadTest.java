@@ -0,0 +1,237 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load test against a running Main: searches, bookings and cancellations.
+ *
+ *   java LoadTest [baseUrl] [threads] [seconds] [rate]
+ *
+ * Each worker logs in as user/user123 and then loops over a mix of operations through the
+ * JSON API (-Dbus.load.mix, default search:70,book:25,cancel:5):
+ *   search  GET /api/v1/schedules for a Zipf-popular place pair (DataGen.PLACES) and date
+ *   book    POST /api/v1/bookings for a random seat on a trip from the worker's last search;
+ *           with -Dbus.load.hold=true the seat is first held (POST /api/v1/holds), as the
+ *           booking page does, and a taken seat is turned away there
+ *   cancel  POST /api/v1/bookings/{id}/cancel for one of the worker's own bookings
+ *
+ * With rate = 0 (the default) the loop is closed: each worker sends its next request as soon
+ * as the last one returns. With rate > 0 the workers share that many requests per second on
+ * a fixed schedule, and latency is measured from when a request was due. A server that falls
+ * behind therefore shows its queueing delay instead of hiding it.
+ *
+ * Reports throughput, p50/p90/p99/p999 latency per operation and the booking conflict rate:
+ * the share of booking attempts answered 409 because the seat was taken or the trip was full.
+ * Run DataGen first for realistic volumes. Compare executor modes (-Dbus.executor=...) with
+ * the same arguments.
+ */
+public class LoadTest {
+
+    enum Kind { SEARCH, BOOK, CANCEL }
+
+    /** Counters and latencies for one operation kind, merged from all workers at the end. */
+    static final class Stats {
+        final AtomicLong ok = new AtomicLong(), failed = new AtomicLong(), shed = new AtomicLong(), conflict = new AtomicLong();
+        final List<long[]> samples = new CopyOnWriteArrayList<>();
+    }
+
+    private static final Pattern SCHEDULE = Pattern.compile("\\{\"id\":(\\d+),\"bus\":\\{[^}]*\"capacity\":(\\d+)\\}");
+    private static final Pattern BOOKING_ID = Pattern.compile("\"bookings\":\\[\\{\"id\":(\\d+)");
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:8080";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        double rate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        int[] mix = mix(System.getProperty("bus.load.mix", "search:70,book:25,cancel:5"));
+        long seed = Long.getLong("bus.load.seed", System.nanoTime());   // fix it to replay the same requests
+        boolean holdFirst = Boolean.getBoolean("bus.load.hold");
+
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(Executors.newFixedThreadPool(4))
+                .build();
+
+        Stats[] stats = new Stats[Kind.values().length];
+        for (int k = 0; k < stats.length; k++) stats[k] = new Stats();
+        DataGen.Weighted place = DataGen.Weighted.zipf(DataGen.PLACES.length, 1.0);
+        long intervalNanos = rate > 0 ? (long) (threads * 1e9 / rate) : 0;   // per worker
+        long begin = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        long deadline = begin + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            int idx = t;
+            workers.submit(() -> {
+                SplittableRandom rnd = new SplittableRandom(seed + idx);
+                String cookie = login(client, base, "user", "user123");
+                List<int[]> trips = new ArrayList<>();           // {scheduleId, capacity} from the last search
+                ArrayDeque<long[]> mine = new ArrayDeque<>();    // {bookingId, phone} not yet cancelled
+                long[][] lat = new long[stats.length][1 << 14];
+                int[] n = new int[stats.length];
+                // workers start staggered across one interval so a paced run is evenly spread
+                long due = begin + (intervalNanos > 0 ? intervalNanos * idx / threads : 0);
+                while (true) {
+                    long now = System.nanoTime();
+                    if (intervalNanos > 0) {
+                        if (due >= deadline) break;
+                        if (due > now) LockSupport.parkNanos(due - now);
+                    } else if (now >= deadline) break;
+                    long start = intervalNanos > 0 ? due : System.nanoTime();
+                    due += intervalNanos;
+
+                    Kind kind = pick(mix, rnd);
+                    if (kind == Kind.BOOK && trips.isEmpty() || kind == Kind.CANCEL && mine.isEmpty()) kind = Kind.SEARCH;
+                    Stats s = stats[kind.ordinal()];
+                    try {
+                        HttpResponse<String> r = switch (kind) {
+                            case SEARCH -> search(client, base, cookie, place, rnd);
+                            case BOOK -> {
+                                int[] trip = trips.get(rnd.nextInt(trips.size()));
+                                long phone = 1_700_000_000L + rnd.nextInt(100_000_000);
+                                String seat = "scheduleId=" + trip[0] + "&seat=" + (1 + rnd.nextInt(trip[1]));
+                                if (holdFirst) {
+                                    HttpResponse<String> h = post(client, base + "/api/v1/holds", cookie, seat);
+                                    if (h.statusCode() != 201) yield h;
+                                }
+                                HttpResponse<String> b = post(client, base + "/api/v1/bookings", cookie,
+                                        seat + "&name=" + enc("লোড টেস্ট") + "&phone=0" + phone);
+                                Matcher m = BOOKING_ID.matcher(b.body());
+                                if (b.statusCode() == 201 && m.find()) mine.add(new long[]{Long.parseLong(m.group(1)), phone});
+                                yield b;
+                            }
+                            case CANCEL -> {
+                                long[] own = mine.poll();
+                                yield post(client, base + "/api/v1/bookings/" + own[0] + "/cancel", cookie, "phone=0" + own[1]);
+                            }
+                        };
+                        int code = r.statusCode();
+                        if (code == 200 || code == 201) s.ok.incrementAndGet();
+                        else if (code == 409) s.conflict.incrementAndGet();
+                        else if (code == 503) s.shed.incrementAndGet();
+                        else s.failed.incrementAndGet();
+                        if (kind == Kind.SEARCH && code == 200) {
+                            trips.clear();
+                            Matcher m = SCHEDULE.matcher(r.body());
+                            while (m.find()) trips.add(new int[]{Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))});
+                        }
+                    } catch (Exception e) {
+                        s.failed.incrementAndGet();
+                    }
+                    int k = kind.ordinal();
+                    if (n[k] == lat[k].length) lat[k] = Arrays.copyOf(lat[k], n[k] * 2);
+                    lat[k][n[k]++] = System.nanoTime() - start;
+                }
+                for (int k = 0; k < stats.length; k++) stats[k].samples.add(Arrays.copyOf(lat[k], n[k]));
+                return null;
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+
+        System.out.printf("threads=%d seconds=%d target=%s seed=%d%s%n", threads, seconds,
+                rate > 0 ? rate + " req/s" : "closed loop", seed, holdFirst ? " (hold, then book)" : "");
+        System.out.printf("%-7s %9s %8s %8s %6s %9s %8s %8s %8s %8s %8s%n",
+                "op", "ok", "conflict", "failed", "shed", "req/s", "p50 ms", "p90", "p99", "p999", "max");
+        long total = 0;
+        long[] everything = new long[0];
+        for (Kind kind : Kind.values()) {
+            Stats s = stats[kind.ordinal()];
+            long[] all = s.samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            total += all.length;
+            everything = merge(everything, all);
+            row(kind.name().toLowerCase(), s, all, seconds);
+        }
+        System.out.printf("throughput: %.1f req/s%n", total / (double) seconds);
+        if (everything.length > 0) {
+            System.out.printf("latency ms: p50=%.2f p90=%.2f p99=%.2f p999=%.2f max=%.2f%n", pct(everything, 0.50),
+                    pct(everything, 0.90), pct(everything, 0.99), pct(everything, 0.999), everything[everything.length - 1] / 1e6);
+        }
+        Stats book = stats[Kind.BOOK.ordinal()];
+        long attempts = book.ok.get() + book.conflict.get();
+        if (attempts > 0) {
+            System.out.printf("booking conflicts: %d of %d (%.1f%%)%n", book.conflict.get(), attempts, book.conflict.get() * 100.0 / attempts);
+        }
+        System.exit(0);
+    }
+
+    private static void row(String name, Stats s, long[] all, int seconds) {
+        if (all.length == 0) return;
+        System.out.printf("%-7s %9d %8d %8d %6d %9.1f %8.2f %8.2f %8.2f %8.2f %8.2f%n", name, s.ok.get(), s.conflict.get(),
+                s.failed.get(), s.shed.get(), all.length / (double) seconds, pct(all, 0.50), pct(all, 0.90),
+                pct(all, 0.99), pct(all, 0.999), all[all.length - 1] / 1e6);
+    }
+
+    private static HttpResponse<String> search(HttpClient client, String base, String cookie,
+                                               DataGen.Weighted place, SplittableRandom rnd) throws Exception {
+        int a = place.next(rnd), b;
+        do b = place.next(rnd); while (b == a);
+        String q = "source=" + enc(DataGen.PLACES[a]) + "&destination=" + enc(DataGen.PLACES[b])
+                + "&date=" + LocalDate.now().plusDays(rnd.nextInt(14));
+        return client.send(HttpRequest.newBuilder(URI.create(base + "/api/v1/schedules?" + q)).header("Cookie", cookie).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> post(HttpClient client, String url, String cookie, String form) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(url))
+                        .header("Cookie", cookie)
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString(form)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    /** "search:70,book:25,cancel:5" as cumulative weights in Kind order. */
+    static int[] mix(String spec) {
+        int[] w = new int[Kind.values().length];
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split(":");
+            w[Kind.valueOf(kv[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(kv[1].trim());
+        }
+        for (int i = 1; i < w.length; i++) w[i] += w[i - 1];
+        if (w[w.length - 1] <= 0) throw new IllegalArgumentException("empty mix: " + spec);
+        return w;
+    }
+
+    private static Kind pick(int[] cumulative, SplittableRandom rnd) {
+        int x = rnd.nextInt(cumulative[cumulative.length - 1]);
+        for (int i = 0; i < cumulative.length; i++) if (x < cumulative[i]) return Kind.values()[i];
+        return Kind.SEARCH;
+    }
+
+    private static long[] merge(long[] a, long[] b) {
+        long[] m = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, m, a.length, b.length);
+        Arrays.sort(m);
+        return m;
+    }
+
+    static String login(HttpClient client, String base, String user, String pass) throws Exception {
+        HttpResponse<Void> r = client.send(HttpRequest.newBuilder(URI.create(base + "/login"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString("username=" + enc(user) + "&password=" + enc(pass))).build(),
+                HttpResponse.BodyHandlers.discarding());
+        String set = r.headers().firstValue("Set-Cookie").orElseThrow(() -> new IllegalStateException("login failed: " + r.statusCode()));
+        return set.substring(0, set.indexOf(';'));
+    }
+
+    static String enc(String s) { return URLEncoder.encode(s, StandardCharsets.UTF_8); }
+
+    static double pct(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+}
@@ -1,3 +1,4 @@
+import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
@@ -6,24 +7,25 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.sql.*;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 public class Main {
 
     // ---------- Server ----------
     private static int PORT = 8080;
     private static HttpServer server;
+    private static RequestExecutor executor;
 
-    // ---------- Simple in-memory session store ----------
-    private static final Map<String, Session> sessions = new ConcurrentHashMap<>();
-    private static final Random random = new Random();
-
-    // ---------- DB ----------
-    private static final String DB_URL = "jdbc:sqlite:bus.db";
+    // ---------- In-memory session store ----------
+    static final SessionStore sessions = SessionStore.fromSystemProperties();
 
     public static void main(String[] args) throws Exception {
         // Port select
@@ -42,12 +44,33 @@ public class Main {
         // DB init + seed
         initDb();
         seedDb();
+        rebuildBookedCounts();
+        checkQueryPlans();
+        DBUtil.warmUp();
+        try {
+            ScheduleRules.start();
+            System.out.println("🔁 " + ScheduleRules.summary());
+        } catch (SQLException e) {
+            System.out.println("⚠️ Recurring schedules not generated: " + e.getMessage());
+        }
+        try {
+            Waitlist.load();
+        } catch (SQLException e) {
+            System.out.println("⚠️ Waitlist not loaded: " + e.getMessage());
+        }
+        try {
+            System.out.println("🧭 Journey planner: " + RefData.planner().connections() + " upcoming connection(s)");
+        } catch (SQLException e) {
+            System.out.println("⚠️ Journey planner not built: " + e.getMessage());
+        }
 
         // Start server
         startServer();
         System.out.println("✅ সার্ভার চালু হয়েছে পোর্টে: " + PORT);
         System.out.println("🌐 খুলুন: http://localhost:" + PORT + "/");
         System.out.println("👤 Admin: admin/admin123 | User: user/user123");
+        System.out.println("⚙️ Executor: " + executor.mode().name().toLowerCase() + " (max in-flight " + executor.maxInFlight() + ")");
+        System.out.println("🗄️ DB " + DBUtil.pool().stats());
     }
 
     // ---------- Utilities ----------
@@ -61,39 +84,72 @@ public class Main {
 
     private static void startServer() throws IOException {
         server = HttpServer.create(new InetSocketAddress(PORT), 0);
+        executor = RequestExecutor.fromSystemProperties();
+        sessions.startSweeper(60);
+        String journal = System.getProperty("bus.session.journal", DBUtil.dataDir().resolve("sessions.journal").toString());
+        if (!journal.isBlank() && !"off".equalsIgnoreCase(journal)) {
+            sessions.enableJournal(Path.of(journal));
+            System.out.println("🔑 " + sessions + " (journal: " + journal + ")");
+        }
 
         // Public / Login
-        server.createContext("/", new LoginHandler());
-        server.createContext("/login", new LoginHandler());
-        server.createContext("/logout", new LogoutHandler());
+        route("/", new LoginHandler());
+        route("/login", new LoginHandler());
+        route("/logout", new LogoutHandler());
+        route(StaticAssets.PREFIX, new StaticAssets());
 
         // Admin
-        server.createContext("/admin", requireRole("admin", new AdminDashboardHandler()));
-        server.createContext("/admin/buses", requireRole("admin", new BusesHandler()));
-        server.createContext("/admin/buses/add", requireRole("admin", new AddBusHandler()));
-        server.createContext("/admin/buses/delete", requireRole("admin", new DeleteBusHandler()));
+        route("/admin", requireRole("admin", new AdminDashboardHandler()));
+        route("/admin/buses", requireRole("admin", new BusesHandler()));
+        route("/admin/buses/add", requireRole("admin", new AddBusHandler()));
+        route("/admin/buses/delete", requireRole("admin", new DeleteBusHandler()));
 
-        server.createContext("/admin/routes", requireRole("admin", new RoutesHandler()));
-        server.createContext("/admin/routes/add", requireRole("admin", new AddRouteHandler()));
-        server.createContext("/admin/routes/delete", requireRole("admin", new DeleteRouteHandler()));
+        route("/admin/routes", requireRole("admin", new RoutesHandler()));
+        route("/admin/routes/add", requireRole("admin", new AddRouteHandler()));
+        route("/admin/routes/delete", requireRole("admin", new DeleteRouteHandler()));
 
-        server.createContext("/admin/schedules", requireRole("admin", new SchedulesHandler()));
-        server.createContext("/admin/schedules/add", requireRole("admin", new AddScheduleHandler()));
-        server.createContext("/admin/schedules/delete", requireRole("admin", new DeleteScheduleHandler()));
+        route("/admin/schedules", requireRole("admin", new SchedulesHandler()));
+        route("/admin/schedules/add", requireRole("admin", new AddScheduleHandler()));
+        route("/admin/schedules/delete", requireRole("admin", new DeleteScheduleHandler()));
+        route("/admin/schedules/rules/add", requireRole("admin", new AddRuleHandler()));
+        route("/admin/schedules/rules/delete", requireRole("admin", new DeleteRuleHandler()));
 
-        server.createContext("/admin/bookings", requireRole("admin", new BookingsHandler()));
-        server.createContext("/admin/bookings/status", requireRole("admin", new BookingStatusHandler()));
-        server.createContext("/admin/bookings/delete", requireRole("admin", new BookingDeleteHandler()));
+        route("/admin/bookings", requireRole("admin", new BookingsHandler()));
+        route("/admin/bookings/status", requireRole("admin", new BookingStatusHandler()));
+        route("/admin/bookings/delete", requireRole("admin", new BookingDeleteHandler()));
 
         // User
-        server.createContext("/user", requireRole("user", new UserDashboardHandler()));
-        server.createContext("/user/search", requireRole("user", new SearchHandler()));
-        server.createContext("/user/book", requireRole("user", new BookHandler()));
+        route("/user", requireRole("user", new UserDashboardHandler()));
+        route("/user/search", requireRole("user", new SearchHandler()));
+        route("/user/plan", requireRole("user", new PlanHandler()));
+        route("/user/book", requireRole("user", new BookHandler()));
+        route("/user/book/hold", requireRole("user", new HoldSeatsHandler()));
+        route("/user/book/release", requireRole("user", new ReleaseSeatsHandler()));
+        route("/user/waitlist", requireRole("user", new WaitlistHandler()));
+        route("/user/waitlist/join", requireRole("user", new JoinWaitlistHandler()));
+
+        // JSON API: same session cookie, no page rendering
+        route("/api/v1/session", new ApiSessionHandler());
+        route("/api/v1/", requireApiRole(null, new ApiHandler()));
+        route("/api/v1/admin/", requireApiRole("admin", new ApiAdminHandler()));
+
+        // Prometheus scrape: admin session, or a bearer token if -Dbus.metrics.token is set
+        route("/metrics", new MetricsHandler());
 
-        server.setExecutor(null);
+        server.setExecutor(executor);
         server.start();
     }
 
+    // Every context goes through here so shared filters apply everywhere (metrics outermost)
+    private static final CompressionFilter GZIP = new CompressionFilter();
+
+    private static void route(String path, HttpHandler handler) {
+        List<Filter> filters = server.createContext(path, handler).getFilters();
+        filters.add(Metrics.filter(path));
+        filters.add(RequestExecutor.shedFilter());
+        filters.add(GZIP);
+    }
+
     // Middleware wrapper to enforce role
     private static HttpHandler requireRole(String role, HttpHandler next) {
         return exchange -> {
@@ -102,107 +158,99 @@ public class Main {
                 redirect(exchange, "/");
                 return;
             }
-            next.handle(exchange);
+            CURRENT_SESSION.set(s);
+            try { next.handle(exchange); }
+            finally { CURRENT_SESSION.remove(); }
+        };
+    }
+
+    // requireRole for /api/v1: 401/403 as JSON instead of a redirect to the login page; null role = any user
+    private static HttpHandler requireApiRole(String role, HttpHandler next) {
+        return exchange -> {
+            Session s = getSession(exchange);
+            if (s == null) { JsonWriter.error(exchange, 401, "unauthorized", "log in via POST /api/v1/session"); return; }
+            if (role != null && !role.equalsIgnoreCase(s.role)) { JsonWriter.error(exchange, 403, "forbidden", role + " only"); return; }
+            CURRENT_SESSION.set(s);
+            try { next.handle(exchange); }
+            finally { CURRENT_SESSION.remove(); }
         };
     }
 
     // ---------- DB Setup ----------
     private static void initDb() {
-        try (Connection c = DriverManager.getConnection(DB_URL)) {
-            try (Statement st = c.createStatement()) {
-                st.executeUpdate("""
-                    CREATE TABLE IF NOT EXISTS users(
-                      username TEXT PRIMARY KEY,
-                      password TEXT NOT NULL,
-                      role     TEXT NOT NULL
-                    );
-                """);
-                st.executeUpdate("""
-                    CREATE TABLE IF NOT EXISTS buses(
-                      id INTEGER PRIMARY KEY AUTOINCREMENT,
-                      name TEXT NOT NULL,
-                      type TEXT,
-                      capacity INTEGER NOT NULL
-                    );
-                """);
-                st.executeUpdate("""
-                    CREATE TABLE IF NOT EXISTS routes(
-                      id INTEGER PRIMARY KEY AUTOINCREMENT,
-                      source TEXT NOT NULL,
-                      destination TEXT NOT NULL,
-                      fare REAL NOT NULL
-                    );
-                """);
-                st.executeUpdate("""
-                    CREATE TABLE IF NOT EXISTS schedules(
-                      id INTEGER PRIMARY KEY AUTOINCREMENT,
-                      bus_id INTEGER NOT NULL,
-                      route_id INTEGER NOT NULL,
-                      date TEXT NOT NULL,
-                      time TEXT NOT NULL,
-                      FOREIGN KEY(bus_id) REFERENCES buses(id) ON DELETE CASCADE,
-                      FOREIGN KEY(route_id) REFERENCES routes(id) ON DELETE CASCADE
-                    );
-                """);
-                st.executeUpdate("""
-                    CREATE TABLE IF NOT EXISTS bookings(
-                      id INTEGER PRIMARY KEY AUTOINCREMENT,
-                      name TEXT NOT NULL,
-                      phone TEXT NOT NULL,
-                      schedule_id INTEGER NOT NULL,
-                      seat_no INTEGER NOT NULL,
-                      status TEXT NOT NULL,
-                      total REAL NOT NULL,
-                      created_at TEXT DEFAULT CURRENT_TIMESTAMP,
-                      UNIQUE(schedule_id, seat_no),
-                      FOREIGN KEY(schedule_id) REFERENCES schedules(id) ON DELETE CASCADE
-                    );
-                """);
-                st.executeUpdate("PRAGMA foreign_keys = ON;");
-            }
+        try {
+            int applied = DBUtil.write(Migrations::migrate);
+            if (applied > 0) System.out.println("🗄️ " + applied + " migration(s) applied, schema v" + Migrations.latest());
         } catch (SQLException e) {
             throw new RuntimeException("DB init failed: " + e.getMessage(), e);
         }
     }
 
+    // Fails startup under -Dbus.test=true if a per-request query would scan a table
+    private static void checkQueryPlans() {
+        List<Migrations.HotQuery> hot = List.of(
+                // json_each is the bound list of matching route ids, not a table
+                new Migrations.HotQuery("search by route+date", BusService.searchSql(true, true), Set.of("json_each")),
+                new Migrations.HotQuery("search by date", BusService.searchSql(false, true), Set.of()),
+                new Migrations.HotQuery("search by route", BusService.searchSql(true, false), Set.of("json_each")),
+                new Migrations.HotQuery("booking insert check", BusService.INFO_SQL, Set.of()),
+                new Migrations.HotQuery("booking lookup", BusService.FIND_BOOKING_SQL, Set.of()),
+                // the unfiltered first page walks the primary key backwards from +inf
+                new Migrations.HotQuery("schedules page", BusService.schedulesSql(false, false), Set.of("schedules")),
+                new Migrations.HotQuery("schedules page by date", BusService.schedulesSql(true, false), Set.of()),
+                new Migrations.HotQuery("schedules page by route", BusService.schedulesSql(false, true), Set.of()),
+                new Migrations.HotQuery("bookings page", BusService.bookingsSql(false, false, false), Set.of("bk")),
+                new Migrations.HotQuery("bookings page by status", BusService.bookingsSql(true, false, false), Set.of()),
+                new Migrations.HotQuery("bookings page by date", BusService.bookingsSql(false, true, false), Set.of()),
+                new Migrations.HotQuery("bookings page by route", BusService.bookingsSql(false, false, true), Set.of()));
+        try (Connection c = DBUtil.getConnection()) {
+            Migrations.checkQueryPlans(c, hot, Boolean.getBoolean("bus.test"));
+        } catch (SQLException e) {
+            throw new RuntimeException("Query plan check failed: " + e.getMessage(), e);
+        }
+    }
+
     private static void seedDb() {
-        try (Connection c = DriverManager.getConnection(DB_URL)) {
-            // users
-            if (!exists(c, "SELECT 1 FROM users LIMIT 1")) {
-                try (PreparedStatement p = c.prepareStatement("INSERT INTO users(username,password,role) VALUES(?,?,?)")) {
-                    p.setString(1,"admin"); p.setString(2,"admin123"); p.setString(3,"admin"); p.addBatch();
-                    p.setString(1,"user");  p.setString(2,"user123");  p.setString(3,"user");  p.addBatch();
-                    p.executeBatch();
+        try {
+            DBUtil.write(c -> {
+                // users
+                if (!exists(c, "SELECT 1 FROM users LIMIT 1")) {
+                    try (PreparedStatement p = c.prepareStatement("INSERT INTO users(username,password,role) VALUES(?,?,?)")) {
+                        p.setString(1,"admin"); p.setString(2,"admin123"); p.setString(3,"admin"); p.addBatch();
+                        p.setString(1,"user");  p.setString(2,"user123");  p.setString(3,"user");  p.addBatch();
+                        p.executeBatch();
+                    }
                 }
-            }
-            // buses
-            if (!exists(c, "SELECT 1 FROM buses LIMIT 1")) {
-                try (PreparedStatement p = c.prepareStatement("INSERT INTO buses(name,type,capacity) VALUES(?,?,?)")) {
-                    p.setString(1,"ঢাকা-চট্ট 01"); p.setString(2,"Non-AC"); p.setInt(3,40); p.addBatch();
-                    p.setString(1,"ঢাকা-সিলেট 02"); p.setString(2,"AC");     p.setInt(3,30); p.addBatch();
-                    p.executeBatch();
+                // buses
+                if (!exists(c, "SELECT 1 FROM buses LIMIT 1")) {
+                    try (PreparedStatement p = c.prepareStatement("INSERT INTO buses(name,type,capacity) VALUES(?,?,?)")) {
+                        p.setString(1,"ঢাকা-চট্ট 01"); p.setString(2,"Non-AC"); p.setInt(3,40); p.addBatch();
+                        p.setString(1,"ঢাকা-সিলেট 02"); p.setString(2,"AC");     p.setInt(3,30); p.addBatch();
+                        p.executeBatch();
+                    }
                 }
-            }
-            // routes
-            if (!exists(c, "SELECT 1 FROM routes LIMIT 1")) {
-                try (PreparedStatement p = c.prepareStatement("INSERT INTO routes(source,destination,fare) VALUES(?,?,?)")) {
-                    p.setString(1,"ঢাকা"); p.setString(2,"চট্টগ্রাম"); p.setDouble(3,700); p.addBatch();
-                    p.setString(1,"ঢাকা"); p.setString(2,"সিলেট");    p.setDouble(3,550); p.addBatch();
-                    p.executeBatch();
+                // routes
+                if (!exists(c, "SELECT 1 FROM routes LIMIT 1")) {
+                    try (PreparedStatement p = c.prepareStatement("INSERT INTO routes(source,destination,fare) VALUES(?,?,?)")) {
+                        p.setString(1,"ঢাকা"); p.setString(2,"চট্টগ্রাম"); p.setDouble(3,700); p.addBatch();
+                        p.setString(1,"ঢাকা"); p.setString(2,"সিলেট");    p.setDouble(3,550); p.addBatch();
+                        p.executeBatch();
+                    }
                 }
-            }
-            // schedules
-            if (!exists(c, "SELECT 1 FROM schedules LIMIT 1")) {
-                int bus1 = getId(c, "SELECT id FROM buses WHERE name=?","ঢাকা-চট্ট 01");
-                int bus2 = getId(c, "SELECT id FROM buses WHERE name=?","ঢাকা-সিলেট 02");
-                int r1 = getId(c,"SELECT id FROM routes WHERE destination=?","চট্টগ্রাম");
-                int r2 = getId(c,"SELECT id FROM routes WHERE destination=?","সিলেট");
-                try (PreparedStatement p = c.prepareStatement("INSERT INTO schedules(bus_id,route_id,date,time) VALUES(?,?,?,?)")) {
-                    p.setInt(1,bus1); p.setInt(2,r1); p.setString(3, LocalDate.now().plusDays(1).toString()); p.setString(4,"09:00"); p.addBatch();
-                    p.setInt(1,bus2); p.setInt(2,r2); p.setString(3, LocalDate.now().plusDays(2).toString()); p.setString(4,"14:00"); p.addBatch();
-                    p.executeBatch();
+                // schedules
+                if (!exists(c, "SELECT 1 FROM schedules LIMIT 1")) {
+                    int bus1 = getId(c, "SELECT id FROM buses WHERE name=?","ঢাকা-চট্ট 01");
+                    int bus2 = getId(c, "SELECT id FROM buses WHERE name=?","ঢাকা-সিলেট 02");
+                    int r1 = getId(c,"SELECT id FROM routes WHERE destination=?","চট্টগ্রাম");
+                    int r2 = getId(c,"SELECT id FROM routes WHERE destination=?","সিলেট");
+                    try (PreparedStatement p = c.prepareStatement("INSERT INTO schedules(bus_id,route_id,date,time) VALUES(?,?,?,?)")) {
+                        p.setInt(1,bus1); p.setInt(2,r1); p.setString(3, LocalDate.now().plusDays(1).toString()); p.setString(4,"09:00"); p.addBatch();
+                        p.setInt(1,bus2); p.setInt(2,r2); p.setString(3, LocalDate.now().plusDays(2).toString()); p.setString(4,"14:00"); p.addBatch();
+                        p.executeBatch();
+                    }
                 }
-            }
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException("DB seed failed: " + e.getMessage(), e);
         }
@@ -221,42 +269,53 @@ public class Main {
         return -1;
     }
 
-    // ---------- Session ----------
-    static class Session { String username; String role; }
-    private static Session getSession(HttpExchange ex) {
-        String cookie = ex.getRequestHeaders().getFirst("Cookie");
-        if (cookie == null) return null;
-        for (String part : cookie.split(";")) {
-            String[] kv = part.trim().split("=",2);
-            if (kv.length==2 && kv[0].equals("SESSION")) {
-                return sessions.get(kv[1]);
-            }
+    // ---------- Seat counters ----------
+    // schedules.booked_count = number of non-cancelled bookings; BusService keeps it in step on every booking write
+
+    // Startup consistency check: recount from bookings and fix any drifted counter
+    private static void rebuildBookedCounts() {
+        String sql = """
+            UPDATE schedules SET booked_count = (
+              SELECT COUNT(*) FROM bookings bk WHERE bk.schedule_id=schedules.id AND bk.status!='CANCELLED')
+            WHERE booked_count != (
+              SELECT COUNT(*) FROM bookings bk WHERE bk.schedule_id=schedules.id AND bk.status!='CANCELLED')
+        """;
+        try {
+            int fixed = DBUtil.write(c -> {
+                try (Statement st = c.createStatement()) { return st.executeUpdate(sql); }
+            });
+            if (fixed > 0) System.out.println("🔧 booked_count corrected for " + fixed + " schedule(s)");
+        } catch (SQLException e) {
+            throw new RuntimeException("Seat counter rebuild failed: " + e.getMessage(), e);
         }
-        return null;
+    }
+
+    // ---------- Session ----------
+    // Set by requireRole for the duration of the request, so handlers don't look the session up again.
+    // (Exchange attributes are shared per HttpContext on older JDKs, so they can't carry this.)
+    private static final ThreadLocal<Session> CURRENT_SESSION = new ThreadLocal<>();
+
+    static Session getSession(HttpExchange ex) {
+        Session current = CURRENT_SESSION.get();
+        if (current != null) return current;
+        return sessions.get(SessionStore.cookie(ex.getRequestHeaders().getFirst("Cookie"), "SESSION"));
     }
     private static void setSession(HttpExchange ex, String username, String role) {
-        String token = Long.toHexString(random.nextLong()) + Long.toHexString(System.nanoTime());
-        Session s = new Session(); s.username = username; s.role = role;
-        sessions.put(token, s);
+        String token = sessions.create(username, role);
         ex.getResponseHeaders().add("Set-Cookie", "SESSION="+token+"; HttpOnly; Path=/");
     }
+    // Seat holds belong to the session, not the username: two logins of one account hold separately
+    static String holdOwner(HttpExchange ex) {
+        return SessionStore.cookie(ex.getRequestHeaders().getFirst("Cookie"), "SESSION");
+    }
     private static void clearSession(HttpExchange ex) {
-        String cookie = ex.getRequestHeaders().getFirst("Cookie");
-        if (cookie != null) {
-            for (String part : cookie.split(";")) {
-                String[] kv = part.trim().split("=",2);
-                if (kv.length==2 && kv[0].equals("SESSION")) {
-                    sessions.remove(kv[1]);
-                }
-            }
-        }
+        sessions.remove(SessionStore.cookie(ex.getRequestHeaders().getFirst("Cookie"), "SESSION"));
         ex.getResponseHeaders().add("Set-Cookie","SESSION=deleted; Max-Age=0; Path=/");
     }
 
     // ---------- HTML helpers ----------
-    private static String uiStyles() {
-        return """
-        <style>
+    // Served once from /static/ with a fingerprinted URL, instead of inlined into every page
+    private static final String APP_CSS = """
         :root{
           --bg:#0f172a; --card:#0b1220; --muted:#a3b3d9;
           --pri:#7c4dff; --pri2:#00d4ff; --acc:#22c55e; --warn:#f59e0b; --err:#ef4444;
@@ -288,13 +347,13 @@ public class Main {
         .note{color:var(--muted); font-size:13px}
         .pill{display:inline-block; padding:4px 8px; border-radius:999px; font-size:12px; background:rgba(255,255,255,.08)}
         a.link{color:#8ab4ff}
-        </style>
         """;
-    }
+    private static final String CSS_LINK =
+            "<link rel='stylesheet' href='" + StaticAssets.add("app.css", "text/css; charset=utf-8", APP_CSS) + "'>";
     private static String pageHeader(String title, String subtitle, Session s) {
         return """
         <!doctype html><html><head><meta charset='utf-8'><meta name='viewport' content='width=device-width,initial-scale=1'>
-        <title>""" + esc(title) + "</title>" + uiStyles() + """
+        <title>""" + esc(title) + "</title>" + CSS_LINK + """
         </head><body><div class='wrap'>
         <div class='hero'>
           <div class='title'>""" + esc(title) + "</div><div class='subtitle'>" + esc(subtitle==null?"":subtitle) + "</div>" + (s!=null?
@@ -304,13 +363,10 @@ public class Main {
         """;
     }
     private static String pageFooter() { return "<div class='note' style='margin-top:16px'>ডেমো অ্যাপ • SQLite ফাইল: bus.db</div></div></body></html>"; }
-    private static String esc(String s){ if (s==null) return ""; return s.replace("&","&amp;").replace("<","&lt;").replace(">","&gt;").replace("\"","&quot;"); }
+    static String esc(String s){ return HtmlWriter.escaped(s); }
 
-    private static void sendHtml(HttpExchange ex, int code, String html) throws IOException {
-        ex.getResponseHeaders().set("Content-Type","text/html; charset=utf-8");
-        byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
-        ex.sendResponseHeaders(code, bytes.length);
-        try(OutputStream os = ex.getResponseBody()){ os.write(bytes); }
+    static void sendHtml(HttpExchange ex, int code, String html) throws IOException {
+        try (HtmlWriter w = HtmlWriter.open(ex, code)) { w.append(html); }
     }
     private static void redirect(HttpExchange ex, String path) throws IOException {
         ex.getResponseHeaders().add("Location", path);
@@ -318,7 +374,7 @@ public class Main {
         ex.close();
     }
 
-    private static Map<String,String> parseForm(String data){
+    static Map<String,String> parseForm(String data){
         Map<String,String> m = new HashMap<>();
         if (data==null || data.isEmpty()) return m;
         for (String kv : data.split("&")){
@@ -329,6 +385,22 @@ public class Main {
         }
         return m;
     }
+    // Every value of a repeated field, e.g. seat=3&seat=4 from a multi-select
+    private static List<String> formValues(String data, String key){
+        List<String> values = new ArrayList<>();
+        if (data==null || data.isEmpty()) return values;
+        for (String kv : data.split("&")){
+            String[] parts = kv.split("=",2);
+            if (!URLDecoder.decode(parts[0], StandardCharsets.UTF_8).equals(key)) continue;
+            values.add(parts.length>1 ? URLDecoder.decode(parts[1], StandardCharsets.UTF_8) : "");
+        }
+        return values;
+    }
+    // Seat numbers; anything unparsable becomes 0, which BusService.book rejects
+    private static int[] seatNumbers(Collection<String> values){
+        return values.stream().flatMap(v -> Arrays.stream(v.split(","))).filter(v -> !v.isBlank())
+                .mapToInt(Main::parseInt).toArray();
+    }
     private static Map<String,String> parseQuery(String query){
         Map<String,String> m = new HashMap<>();
         if (query==null || query.isEmpty()) return m;
@@ -341,6 +413,52 @@ public class Main {
         return m;
     }
 
+    // ---------- Paging ----------
+    // Admin lists are keyset-paged on id (newest first): a page is "id < before", so its cost
+    // does not grow with how far back it is, unlike OFFSET.
+    static final int PAGE_SIZE = Integer.getInteger("bus.page.size", 50);
+
+    private static int parseInt(String v) {
+        try { return v == null || v.isBlank() ? 0 : Integer.parseInt(v.trim()); } catch (NumberFormatException e) { return 0; }
+    }
+    private static long parseLong(String v) {
+        try { return v == null || v.isBlank() ? Long.MAX_VALUE : Long.parseLong(v.trim()); } catch (NumberFormatException e) { return Long.MAX_VALUE; }
+    }
+
+    /** GET filter form; status is null on pages without a status column. */
+    private static String filterForm(String path, String status, String date, int routeId) {
+        StringBuilder sb = new StringBuilder("<form method='GET' action='").append(path).append("'><div class='row'>");
+        if (status != null) {
+            sb.append("<div><label>স্ট্যাটাস</label><select name='status'><option value=''>সব</option>");
+            for (String st : BusService.STATUSES) {
+                sb.append("<option").append(st.equals(status) ? " selected" : "").append(">").append(st).append("</option>");
+            }
+            sb.append("</select></div>");
+        }
+        sb.append("<div><label>তারিখ</label><input name='date' value='").append(esc(date)).append("' placeholder='YYYY-MM-DD'></div>");
+        sb.append("<div><label>রুট</label><select name='route'><option value=''>সব</option>");
+        try {
+            for (RefData.Route r : RefData.routes()) {
+                sb.append("<option value='").append(r.id()).append("'").append(r.id() == routeId ? " selected" : "").append(">")
+                        .append(esc(r.source())).append(" → ").append(esc(r.destination())).append("</option>");
+            }
+        } catch (SQLException e) { sb.append("<option>DB error</option>"); }
+        sb.append("</select></div></div><button class='btn secondary'>ফিল্টার</button></form>");
+        return sb.toString();
+    }
+
+    /** First/next links that keep the filters; next is 0 when this was the last page. */
+    private static String pager(String path, String status, String date, int routeId, long before, long next) {
+        StringBuilder qs = new StringBuilder();
+        if (status != null && !status.isEmpty()) qs.append("&status=").append(URLEncoder.encode(status, StandardCharsets.UTF_8));
+        if (!date.isEmpty()) qs.append("&date=").append(URLEncoder.encode(date, StandardCharsets.UTF_8));
+        if (routeId > 0) qs.append("&route=").append(routeId);
+        StringBuilder sb = new StringBuilder("<div class='topbar' style='margin-top:12px'>");
+        if (before != Long.MAX_VALUE) sb.append("<a class='btn secondary' href='").append(path).append(qs.length() > 0 ? "?" + qs.substring(1) : "").append("'>প্রথম পাতা</a> ");
+        if (next > 0) sb.append("<a class='btn' href='").append(path).append("?before=").append(next).append(qs).append("'>পরের পাতা →</a>");
+        return sb.append("</div>").toString();
+    }
+
     // ---------- Handlers ----------
 
     // Login + Logout
@@ -349,7 +467,7 @@ public class Main {
             if ("GET".equalsIgnoreCase(ex.getRequestMethod())) {
                 String html = """
                 <!doctype html><html><head><meta charset='utf-8'><meta name='viewport' content='width=device-width,initial-scale=1'>
-                <title>লগইন</title>""" + uiStyles() + """
+                <title>লগইন</title>""" + CSS_LINK + """
                 </head><body><div class='wrap'>
                   <div class='hero'><div class='title'>বাস ম্যানেজমেন্ট সিস্টেম</div>
                   <div class='subtitle'>লগইন করুন (Admin/User)</div></div>
@@ -388,18 +506,13 @@ public class Main {
                 String u = f.getOrDefault("username","").trim();
                 String p = f.getOrDefault("password","").trim();
 
-                try (Connection c = DriverManager.getConnection(DB_URL)) {
-                    try (PreparedStatement ps = c.prepareStatement("SELECT role FROM users WHERE username=? AND password=?")) {
-                        ps.setString(1,u); ps.setString(2,p);
-                        try (ResultSet rs = ps.executeQuery()) {
-                            if (rs.next()) {
-                                String role = rs.getString(1);
-                                setSession(ex, u, role);
-                                if ("admin".equalsIgnoreCase(role)) redirect(ex,"/admin");
-                                else redirect(ex,"/user");
-                                return;
-                            }
-                        }
+                try {
+                    String role = BusService.login(u, p);
+                    if (role != null) {
+                        setSession(ex, u, role);
+                        if ("admin".equalsIgnoreCase(role)) redirect(ex,"/admin");
+                        else redirect(ex,"/user");
+                        return;
                     }
                 } catch (SQLException e) {
                     sendHtml(ex,500,"DB error: "+esc(e.getMessage()));
@@ -430,37 +543,63 @@ public class Main {
                       <div class='card'><h3>সিডিউল নিয়ন্ত্রণ</h3><p class='note'>বাস-রুট-সময়</p><a class='btn' href='/admin/schedules'>যান</a></div>
                       <div class='card'><h3>বুকিং সমূহ</h3><p class='note'>স্ট্যাটাস, ডিলিট</p><a class='btn' href='/admin/bookings'>যান</a></div>
                     </div>
-                    """ + pageFooter();
+                    """ + "<p class='note'>" + esc(CompressionFilter.summary()) + " · <a href='/metrics'>metrics</a></p>" + pageFooter();
             sendHtml(ex,200,html);
         }
     }
 
+    // Admin: Prometheus metrics (text format 0.0.4)
+    static class MetricsHandler implements HttpHandler {
+        private static final String TOKEN = System.getProperty("bus.metrics.token", "");
+
+        @Override public void handle(HttpExchange ex) throws IOException {
+            Session s = getSession(ex);
+            boolean admin = s != null && "admin".equalsIgnoreCase(s.role);
+            if (!admin && !bearer(ex)) {
+                ex.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                sendHtml(ex, s == null ? 401 : 403, "admin only");
+                return;
+            }
+            StringBuilder text = new StringBuilder(16 * 1024);
+            Metrics.write(text, sessions, executor);
+            ex.getResponseHeaders().set("Cache-Control", "no-store");
+            try (HtmlWriter out = HtmlWriter.open(ex, 200, "text/plain; version=0.0.4; charset=utf-8")) {
+                out.append(text);
+            }
+        }
+
+        private static boolean bearer(HttpExchange ex) {
+            String h = ex.getRequestHeaders().getFirst("Authorization");
+            if (TOKEN.isEmpty() || h == null || !h.startsWith("Bearer ")) return false;
+            return MessageDigest.isEqual(h.substring(7).trim().getBytes(StandardCharsets.UTF_8),
+                    TOKEN.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
     // Admin: Buses
     static class BusesHandler implements HttpHandler {
         @Override public void handle(HttpExchange ex) throws IOException {
             Session s = getSession(ex);
-            StringBuilder sb = new StringBuilder();
-            sb.append(pageHeader("বাস নিয়ন্ত্রণ", "বাস যোগ/তালিকা/ডিলিট", s));
-            sb.append("<div class='topbar'><a class='btn secondary' href='/admin'>হোম</a></div>");
-            sb.append("<div class='card'><h3>নতুন বাস যোগ</h3><form method='POST' action='/admin/buses/add'>");
-            sb.append("<div class='row'><div><label>নাম</label><input name='name' required></div><div><label>ধরণ</label><input name='type' placeholder='AC / Non-AC'></div></div>");
-            sb.append("<div class='row'><div><label>সিট সংখ্যা</label><input type='number' name='capacity' value='40' min='1'></div></div>");
-            sb.append("<button class='btn ok'>সংরক্ষণ</button></form></div>");
-
-            sb.append("<div class='card'><h3>সব বাস</h3><table><tr><th>ID</th><th>নাম</th><th>ধরণ</th><th>সিট</th><th>কর্ম</th></tr>");
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 Statement st = c.createStatement();
-                 ResultSet rs = st.executeQuery("SELECT id,name,type,capacity FROM buses ORDER BY id DESC")) {
-                while (rs.next()){
-                    sb.append("<tr><td>").append(rs.getInt(1)).append("</td><td>").append(esc(rs.getString(2)))
-                            .append("</td><td>").append(esc(rs.getString(3)==null?"":rs.getString(3)))
-                            .append("</td><td>").append(rs.getInt(4))
-                            .append("</td><td><a class='btn danger' href='/admin/buses/delete?id=").append(rs.getInt(1)).append("'>মুছুন</a></td></tr>");
-                }
-            } catch (SQLException e){ sb.append("<tr><td colspan='5'>").append(esc(e.getMessage())).append("</td></tr>"); }
-            sb.append("</table></div>");
-            sb.append(pageFooter());
-            sendHtml(ex,200,sb.toString());
+            try (HtmlWriter html = HtmlWriter.open(ex, 200)) {
+                html.append(pageHeader("বাস নিয়ন্ত্রণ", "বাস যোগ/তালিকা/ডিলিট", s));
+                html.append("<div class='topbar'><a class='btn secondary' href='/admin'>হোম</a></div>");
+                html.append("<div class='card'><h3>নতুন বাস যোগ</h3><form method='POST' action='/admin/buses/add'>");
+                html.append("<div class='row'><div><label>নাম</label><input name='name' required></div><div><label>ধরণ</label><input name='type' placeholder='AC / Non-AC'></div></div>");
+                html.append("<div class='row'><div><label>সিট সংখ্যা</label><input type='number' name='capacity' value='40' min='1'></div></div>");
+                html.append("<button class='btn ok'>সংরক্ষণ</button></form></div>");
+
+                html.append("<div class='card'><h3>সব বাস</h3><table><tr><th>ID</th><th>নাম</th><th>ধরণ</th><th>সিট</th><th>কর্ম</th></tr>");
+                try {
+                    for (RefData.Bus b : RefData.buses()) {
+                        html.append("<tr><td>").append(b.id()).append("</td><td>").append(esc(b.name()))
+                                .append("</td><td>").append(esc(b.type()))
+                                .append("</td><td>").append(b.capacity())
+                                .append("</td><td><a class='btn danger' href='/admin/buses/delete?id=").append(b.id()).append("'>মুছুন</a></td></tr>");
+                    }
+                } catch (SQLException e){ html.append("<tr><td colspan='5'>").append(esc(e.getMessage())).append("</td></tr>"); }
+                html.append("</table></div>");
+                html.append(pageFooter());
+            }
         }
     }
     static class AddBusHandler implements HttpHandler {
@@ -470,11 +609,8 @@ public class Main {
             String name = f.getOrDefault("name","").trim();
             String type = f.getOrDefault("type","").trim();
             int capacity = Integer.parseInt(f.getOrDefault("capacity","40"));
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 PreparedStatement ps = c.prepareStatement("INSERT INTO buses(name,type,capacity) VALUES(?,?,?)")) {
-                ps.setString(1,name); ps.setString(2,type); ps.setInt(3,capacity);
-                ps.executeUpdate();
-            } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+            try { BusService.addBus(name, type, capacity); }
+            catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
             redirect(ex,"/admin/buses");
         }
     }
@@ -482,10 +618,8 @@ public class Main {
         @Override public void handle(HttpExchange ex) throws IOException {
             Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
             int id = Integer.parseInt(q.getOrDefault("id","0"));
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 PreparedStatement ps = c.prepareStatement("DELETE FROM buses WHERE id=?")) {
-                ps.setInt(1,id); ps.executeUpdate();
-            } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+            try { BusService.deleteBus(id); }
+            catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
             redirect(ex,"/admin/buses");
         }
     }
@@ -494,27 +628,25 @@ public class Main {
     static class RoutesHandler implements HttpHandler {
         @Override public void handle(HttpExchange ex) throws IOException {
             Session s = getSession(ex);
-            StringBuilder sb = new StringBuilder();
-            sb.append(pageHeader("রুট নিয়ন্ত্রণ","সূত্র/গন্তব্য/ভাড়া", s));
-            sb.append("<div class='topbar'><a class='btn secondary' href='/admin'>হোম</a></div>");
-            sb.append("<div class='card'><h3>নতুন রুট যোগ</h3><form method='POST' action='/admin/routes/add'>");
-            sb.append("<div class='row'><div><label>সূত্র</label><input name='source' required></div><div><label>গন্তব্য</label><input name='destination' required></div></div>");
-            sb.append("<div class='row'><div><label>ভাড়া</label><input type='number' step='0.01' name='fare' value='500'></div></div>");
-            sb.append("<button class='btn ok'>সংরক্ষণ</button></form></div>");
-
-            sb.append("<div class='card'><h3>সব রুট</h3><table><tr><th>ID</th><th>সূত্র</th><th>গন্তব্য</th><th>ভাড়া</th><th>কর্ম</th></tr>");
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 Statement st = c.createStatement();
-                 ResultSet rs = st.executeQuery("SELECT id,source,destination,fare FROM routes ORDER BY id DESC")) {
-                while (rs.next()){
-                    sb.append("<tr><td>").append(rs.getInt(1)).append("</td><td>").append(esc(rs.getString(2)))
-                            .append("</td><td>").append(esc(rs.getString(3))).append("</td><td>").append(rs.getDouble(4))
-                            .append("</td><td><a class='btn danger' href='/admin/routes/delete?id=").append(rs.getInt(1)).append("'>মুছুন</a></td></tr>");
-                }
-            } catch (SQLException e){ sb.append("<tr><td colspan='5'>").append(esc(e.getMessage())).append("</td></tr>"); }
-            sb.append("</table></div>");
-            sb.append(pageFooter());
-            sendHtml(ex,200,sb.toString());
+            try (HtmlWriter html = HtmlWriter.open(ex, 200)) {
+                html.append(pageHeader("রুট নিয়ন্ত্রণ","সূত্র/গন্তব্য/ভাড়া", s));
+                html.append("<div class='topbar'><a class='btn secondary' href='/admin'>হোম</a></div>");
+                html.append("<div class='card'><h3>নতুন রুট যোগ</h3><form method='POST' action='/admin/routes/add'>");
+                html.append("<div class='row'><div><label>সূত্র</label><input name='source' required></div><div><label>গন্তব্য</label><input name='destination' required></div></div>");
+                html.append("<div class='row'><div><label>ভাড়া</label><input type='number' step='0.01' name='fare' value='500'></div><div><label>যাত্রার সময় (মিনিট)</label><input type='number' name='duration' value='240' min='1'></div></div>");
+                html.append("<button class='btn ok'>সংরক্ষণ</button></form></div>");
+
+                html.append("<div class='card'><h3>সব রুট</h3><table><tr><th>ID</th><th>সূত্র</th><th>গন্তব্য</th><th>ভাড়া</th><th>সময় (মিনিট)</th><th>কর্ম</th></tr>");
+                try {
+                    for (RefData.Route r : RefData.routes()) {
+                        html.append("<tr><td>").append(r.id()).append("</td><td>").append(esc(r.source()))
+                                .append("</td><td>").append(esc(r.destination())).append("</td><td>").append(r.fare()).append("</td><td>").append(r.durationMin())
+                                .append("</td><td><a class='btn danger' href='/admin/routes/delete?id=").append(r.id()).append("'>মুছুন</a></td></tr>");
+                    }
+                } catch (SQLException e){ html.append("<tr><td colspan='6'>").append(esc(e.getMessage())).append("</td></tr>"); }
+                html.append("</table></div>");
+                html.append(pageFooter());
+            }
         }
     }
     static class AddRouteHandler implements HttpHandler {
@@ -524,11 +656,9 @@ public class Main {
             String src = f.getOrDefault("source","").trim();
             String dst = f.getOrDefault("destination","").trim();
             double fare = Double.parseDouble(f.getOrDefault("fare","500"));
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 PreparedStatement ps = c.prepareStatement("INSERT INTO routes(source,destination,fare) VALUES(?,?,?)")) {
-                ps.setString(1,src); ps.setString(2,dst); ps.setDouble(3,fare);
-                ps.executeUpdate();
-            } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+            int minutes = parseInt(f.get("duration")) > 0 ? parseInt(f.get("duration")) : 240;
+            try { BusService.addRoute(src, dst, fare, minutes); }
+            catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
             redirect(ex,"/admin/routes");
         }
     }
@@ -536,73 +666,101 @@ public class Main {
         @Override public void handle(HttpExchange ex) throws IOException {
             Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
             int id = Integer.parseInt(q.getOrDefault("id","0"));
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 PreparedStatement ps = c.prepareStatement("DELETE FROM routes WHERE id=?")) {
-                ps.setInt(1,id); ps.executeUpdate();
-            } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+            try { BusService.deleteRoute(id); }
+            catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
             redirect(ex,"/admin/routes");
         }
     }
 
     // Admin: Schedules
     static class SchedulesHandler implements HttpHandler {
-        @Override public void handle(HttpExchange ex) throws IOException {
-            Session s = getSession(ex);
-            StringBuilder sb = new StringBuilder();
-            sb.append(pageHeader("সিডিউল নিয়ন্ত্রণ","বাস-রুট-তারিখ-সময়", s));
-            sb.append("<div class='topbar'><a class='btn secondary' href='/admin'>হোম</a></div>");
-
-            // Add form
-            sb.append("<div class='card'><h3>নতুন সিডিউল</h3><form method='POST' action='/admin/schedules/add'>");
-            sb.append("<div class='row'><div><label>বাস</label><select name='busId'>");
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 Statement st = c.createStatement();
-                 ResultSet rs = st.executeQuery("SELECT id,name,type FROM buses ORDER BY id DESC")) {
-                while (rs.next()){
-                    sb.append("<option value='").append(rs.getInt(1)).append("'>")
-                            .append(esc(rs.getString(2))).append(" (").append(esc(rs.getString(3)==null?"":rs.getString(3))).append(")")
+        static final Template ROW = Template.compile("schedules row",
+                "<tr><td>{{id:int}}</td><td>{{bus}}</td><td>{{source}} → {{destination}}</td><td>{{date}}</td><td>{{time}}</td>" +
+                "<td>{{available:int}}</td><td><a class='btn danger' href='/admin/schedules/delete?id={{id:int}}'>মুছুন</a></td></tr>");
+        static final Template RULE_ROW = Template.compile("schedule rules row",
+                "<tr><td>{{id:int}}</td><td>{{bus}}</td><td>{{source}} → {{destination}}</td><td>{{time}}</td><td>{{days}}</td>" +
+                "<td>{{start}}</td><td>{{end}}</td><td><a class='btn danger' href='/admin/schedules/rules/delete?id={{id:int}}'>মুছুন</a></td></tr>");
+
+        static void busRouteSelects(HtmlWriter html) throws IOException {
+            html.append("<div class='row'><div><label>বাস</label><select name='busId'>");
+            try {
+                for (RefData.Bus b : RefData.buses()) {
+                    html.append("<option value='").append(b.id()).append("'>")
+                            .append(esc(b.name())).append(" (").append(esc(b.type())).append(")")
                             .append("</option>");
                 }
-            } catch (SQLException e) { sb.append("<option>DB error</option>"); }
-            sb.append("</select></div><div><label>রুট</label><select name='routeId'>");
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 Statement st = c.createStatement();
-                 ResultSet rs = st.executeQuery("SELECT id,source,destination FROM routes ORDER BY id DESC")) {
-                while (rs.next()){
-                    sb.append("<option value='").append(rs.getInt(1)).append("'>")
-                            .append(esc(rs.getString(2))).append(" → ").append(esc(rs.getString(3)))
+            } catch (SQLException e) { html.append("<option>DB error</option>"); }
+            html.append("</select></div><div><label>রুট</label><select name='routeId'>");
+            try {
+                for (RefData.Route r : RefData.routes()) {
+                    html.append("<option value='").append(r.id()).append("'>")
+                            .append(esc(r.source())).append(" → ").append(esc(r.destination()))
                             .append("</option>");
                 }
-            } catch (SQLException e) { sb.append("<option>DB error</option>"); }
-            sb.append("</select></div></div>");
-            sb.append("<div class='row'><div><label>তারিখ</label><input name='date' value='").append(LocalDate.now().plusDays(1)).append("' required></div>")
-                    .append("<div><label>সময়</label><input name='time' value='09:00' required></div></div>");
-            sb.append("<button class='btn ok'>সংরক্ষণ</button></form></div>");
-
-            // List
-            sb.append("<div class='card'><h3>সব সিডিউল</h3><table><tr><th>ID</th><th>বাস</th><th>রুট</th><th>তারিখ</th><th>সময়</th><th>উপলব্ধ সিট</th><th>কর্ম</th></tr>");
-            String sql = """
-                SELECT s.id, b.name, r.source, r.destination, s.date, s.time,
-                  b.capacity - (SELECT COUNT(*) FROM bookings bk WHERE bk.schedule_id=s.id AND bk.status!='CANCELLED') AS avail
-                FROM schedules s
-                JOIN buses b ON b.id=s.bus_id
-                JOIN routes r ON r.id=s.route_id
-                ORDER BY s.id DESC
-            """;
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 Statement st = c.createStatement();
-                 ResultSet rs = st.executeQuery(sql)) {
-                while (rs.next()){
-                    sb.append("<tr><td>").append(rs.getInt("id")).append("</td><td>").append(esc(rs.getString("name")))
-                            .append("</td><td>").append(esc(rs.getString("source")+" → "+rs.getString("destination")))
-                            .append("</td><td>").append(esc(rs.getString("date"))).append("</td><td>").append(esc(rs.getString("time")))
-                            .append("</td><td>").append(rs.getInt("avail"))
-                            .append("</td><td><a class='btn danger' href='/admin/schedules/delete?id=").append(rs.getInt("id")).append("'>মুছুন</a></td></tr>");
+            } catch (SQLException e) { html.append("<option>DB error</option>"); }
+            html.append("</select></div></div>");
+        }
+
+        @Override public void handle(HttpExchange ex) throws IOException {
+            Session s = getSession(ex);
+            try (HtmlWriter html = HtmlWriter.open(ex, 200)) {
+                html.append(pageHeader("সিডিউল নিয়ন্ত্রণ","বাস-রুট-তারিখ-সময়", s));
+                html.append("<div class='topbar'><a class='btn secondary' href='/admin'>হোম</a></div>");
+
+                // Add form
+                html.append("<div class='card'><h3>নতুন সিডিউল</h3><form method='POST' action='/admin/schedules/add'>");
+                busRouteSelects(html);
+                html.append("<div class='row'><div><label>তারিখ</label><input name='date' value='").append(LocalDate.now().plusDays(1)).append("' required></div>")
+                        .append("<div><label>সময়</label><input name='time' value='09:00' required></div></div>");
+                html.append("<button class='btn ok'>সংরক্ষণ</button></form></div>");
+
+                // Recurring rules: trips are generated a window at a time (ScheduleRules)
+                html.append("<div class='card'><h3>নিয়মিত সিডিউল</h3><form method='POST' action='/admin/schedules/rules/add'>");
+                busRouteSelects(html);
+                html.append("<div class='row'><div><label>সময়</label><input name='time' value='09:00' required></div><div><label>দিন</label><div>");
+                for (int d = 0; d < 7; d++) {
+                    html.append("<label><input type='checkbox' name='days' value='").append(d + 1).append("' checked> ")
+                            .append(ScheduleRules.dayName(d)).append("</label> ");
                 }
-            } catch (SQLException e){ sb.append("<tr><td colspan='7'>").append(esc(e.getMessage())).append("</td></tr>"); }
-            sb.append("</table></div>");
-            sb.append(pageFooter());
-            sendHtml(ex,200,sb.toString());
+                html.append("</div></div></div>");
+                html.append("<div class='row'><div><label>শুরুর তারিখ</label><input name='start' value='").append(LocalDate.now()).append("' required></div>")
+                        .append("<div><label>শেষ তারিখ (ঐচ্ছিক)</label><input name='end' value=''></div></div>");
+                html.append("<button class='btn ok'>সংরক্ষণ</button></form>");
+                html.append("<table><tr><th>ID</th><th>বাস</th><th>রুট</th><th>সময়</th><th>দিন</th><th>শুরু</th><th>শেষ</th><th>কর্ম</th></tr>");
+                try {
+                    for (ScheduleRules.Rule r : BusService.rules()) {
+                        RefData.Bus b = RefData.bus(r.busId());
+                        RefData.Route rt = RefData.route(r.routeId());
+                        if (b == null || rt == null) continue;
+                        html.begin(RULE_ROW).num(r.id()).text(b.name()).text(rt.source()).text(rt.destination()).text(r.time())
+                                .text(ScheduleRules.describe(r.days())).text(r.start().toString())
+                                .text(r.end() == null ? "—" : r.end().toString()).num(r.id()).end();
+                    }
+                } catch (SQLException e){ html.append("<tr><td colspan='8'>").append(esc(e.getMessage())).append("</td></tr>"); }
+                html.append("</table></div>");
+
+                // List, one keyset page at a time (newest first)
+                Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
+                String date = q.getOrDefault("date","").trim();
+                int routeId = parseInt(q.get("route"));
+                long before = parseLong(q.get("before"));
+                html.append("<div class='card'><h3>সব সিডিউল</h3>");
+                html.append(filterForm("/admin/schedules", null, date, routeId));
+                html.append("<table><tr><th>ID</th><th>বাস</th><th>রুট</th><th>তারিখ</th><th>সময়</th><th>উপলব্ধ সিট</th><th>কর্ম</th></tr>");
+                long next = 0;
+                try {
+                    BusService.Page<BusService.ScheduleRow> page = BusService.schedules(date, routeId, before, PAGE_SIZE);
+                    for (BusService.ScheduleRow r : page.rows()) {
+                        html.begin(ROW).num(r.id()).text(r.bus().name()).text(r.route().source()).text(r.route().destination())
+                                .text(r.date()).text(r.time()).num(r.available()).num(r.id()).end();
+                    }
+                    next = page.next();
+                } catch (SQLException e){ html.append("<tr><td colspan='7'>").append(esc(e.getMessage())).append("</td></tr>"); }
+                html.append("</table>");
+                html.append(pager("/admin/schedules", null, date, routeId, before, next));
+                html.append("</div>");
+                html.append(pageFooter());
+            }
         }
     }
     static class AddScheduleHandler implements HttpHandler {
@@ -613,11 +771,8 @@ public class Main {
             int routeId = Integer.parseInt(f.getOrDefault("routeId","0"));
             String date = f.getOrDefault("date","");
             String time = f.getOrDefault("time","");
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 PreparedStatement ps = c.prepareStatement("INSERT INTO schedules(bus_id,route_id,date,time) VALUES(?,?,?,?)")) {
-                ps.setInt(1,busId); ps.setInt(2,routeId); ps.setString(3,date); ps.setString(4,time);
-                ps.executeUpdate();
-            } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+            try { BusService.addSchedule(busId, routeId, date, time); }
+            catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
             redirect(ex,"/admin/schedules");
         }
     }
@@ -625,52 +780,79 @@ public class Main {
         @Override public void handle(HttpExchange ex) throws IOException {
             Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
             int id = Integer.parseInt(q.getOrDefault("id","0"));
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 PreparedStatement ps = c.prepareStatement("DELETE FROM schedules WHERE id=?")) {
-                ps.setInt(1,id); ps.executeUpdate();
+            try { BusService.deleteSchedule(id); }
+            catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+            redirect(ex,"/admin/schedules");
+        }
+    }
+    static class AddRuleHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { sendHtml(ex,405,"Method Not Allowed"); return; }
+            String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            Map<String,String> f = parseForm(body);
+            int busId = parseInt(f.get("busId"));
+            int routeId = parseInt(f.get("routeId"));
+            String time = f.getOrDefault("time","").trim();
+            int days = ScheduleRules.days(formValues(body, "days"));
+            String start = f.getOrDefault("start","").trim();
+            String end = f.getOrDefault("end","").trim();
+            try {
+                String problem = ScheduleRules.check(busId, routeId, time, days, start, end);
+                if (problem != null) { sendHtml(ex,400,"ভুল তথ্য: "+esc(problem)); return; }
+                BusService.addRule(busId, routeId, time, days, start, end);
             } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
             redirect(ex,"/admin/schedules");
         }
     }
+    static class DeleteRuleHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
+            try { BusService.deleteRule(parseInt(q.get("id"))); }
+            catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+            redirect(ex,"/admin/schedules");
+        }
+    }
 
     // Admin: Bookings
     static class BookingsHandler implements HttpHandler {
+        static final Template ROW = Template.compile("bookings row",
+                "<tr><td>{{id:int}}</td><td>{{name}}</td><td>{{phone}}</td><td>{{source}} → {{destination}}</td>" +
+                "<td>{{date}} {{time}}</td><td>{{seat:int}}</td><td>{{total:num}}</td><td>{{status}}</td><td>" +
+                "<a class='btn ok' href='/admin/bookings/status?id={{id:int}}&st=COMPLETED'>সম্পন্ন</a> " +
+                "<a class='btn warn' href='/admin/bookings/status?id={{id:int}}&st=CANCELLED'>ক্যানসেল</a> " +
+                "<a class='btn danger' href='/admin/bookings/delete?id={{id:int}}'>মুছুন</a></td></tr>");
+
         @Override public void handle(HttpExchange ex) throws IOException {
             Session s = getSession(ex);
-            StringBuilder sb = new StringBuilder();
-            sb.append(pageHeader("বুকিং সমূহ","স্ট্যাটাস পরিবর্তন/ডিলিট", s));
-            sb.append("<div class='topbar'><a class='btn secondary' href='/admin'>হোম</a></div>");
-            sb.append("<div class='card'><table><tr><th>ID</th><th>নাম</th><th>ফোন</th><th>রুট</th><th>তারিখ/সময়</th><th>সিট</th><th>টোটাল</th><th>স্ট্যাটাস</th><th>কর্ম</th></tr>");
-
-            String sql = """
-              SELECT bk.id, bk.name, bk.phone, bk.seat_no, bk.total, bk.status,
-                     r.source, r.destination, s.date, s.time
-              FROM bookings bk
-              JOIN schedules s ON s.id=bk.schedule_id
-              JOIN routes r ON r.id=s.route_id
-              ORDER BY bk.id DESC
-            """;
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 Statement st = c.createStatement();
-                 ResultSet rs = st.executeQuery(sql)) {
-                while (rs.next()){
-                    int id = rs.getInt("id");
-                    sb.append("<tr><td>").append(id).append("</td><td>").append(esc(rs.getString("name")))
-                            .append("</td><td>").append(esc(rs.getString("phone"))).append("</td><td>")
-                            .append(esc(rs.getString("source")+" → "+rs.getString("destination")))
-                            .append("</td><td>").append(esc(rs.getString("date")+" "+rs.getString("time")))
-                            .append("</td><td>").append(rs.getInt("seat_no")).append("</td><td>")
-                            .append(rs.getDouble("total")).append("</td><td>").append(esc(rs.getString("status")))
-                            .append("</td><td>")
-                            .append("<a class='btn ok' href='/admin/bookings/status?id=").append(id).append("&st=COMPLETED'>সম্পন্ন</a> ")
-                            .append("<a class='btn warn' href='/admin/bookings/status?id=").append(id).append("&st=CANCELLED'>ক্যানসেল</a> ")
-                            .append("<a class='btn danger' href='/admin/bookings/delete?id=").append(id).append("'>মুছুন</a>")
-                            .append("</td></tr>");
-                }
-            } catch (SQLException e){ sb.append("<tr><td colspan='9'>").append(esc(e.getMessage())).append("</td></tr>"); }
-            sb.append("</table></div>");
-            sb.append(pageFooter());
-            sendHtml(ex,200,sb.toString());
+            Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
+            String status = q.getOrDefault("status","").trim().toUpperCase(Locale.ROOT);
+            String date = q.getOrDefault("date","").trim();
+            int routeId = parseInt(q.get("route"));
+            long before = parseLong(q.get("before"));
+            try (HtmlWriter html = HtmlWriter.open(ex, 200)) {
+                html.append(pageHeader("বুকিং সমূহ","স্ট্যাটাস পরিবর্তন/ডিলিট", s));
+                html.append("<div class='topbar'><a class='btn secondary' href='/admin'>হোম</a></div>");
+                html.append("<div class='card'>").append(filterForm("/admin/bookings", status, date, routeId));
+                html.append("<table><tr><th>ID</th><th>নাম</th><th>ফোন</th><th>রুট</th><th>তারিখ/সময়</th><th>সিট</th><th>টোটাল</th><th>স্ট্যাটাস</th><th>কর্ম</th></tr>");
+
+                long next = 0;
+                try {
+                    BusService.Page<BusService.BookingRow> page = BusService.bookings(status, date, routeId, before, PAGE_SIZE);
+                    for (BusService.BookingRow b : page.rows()) {
+                        RefData.Route r = b.route();
+                        html.begin(ROW).num(b.id()).text(b.name()).text(b.phone())
+                                .text(r == null ? "" : r.source()).text(r == null ? "" : r.destination())
+                                .text(b.date()).text(b.time())
+                                .num(b.seat()).num(b.total()).text(b.status())
+                                .num(b.id()).num(b.id()).num(b.id()).end();
+                    }
+                    next = page.next();
+                } catch (SQLException e){ html.append("<tr><td colspan='9'>").append(esc(e.getMessage())).append("</td></tr>"); }
+                html.append("</table>");
+                html.append(pager("/admin/bookings", status, date, routeId, before, next));
+                html.append("</div>");
+                html.append(pageFooter());
+            }
         }
     }
     static class BookingStatusHandler implements HttpHandler {
@@ -678,9 +860,12 @@ public class Main {
             Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
             int id = Integer.parseInt(q.getOrDefault("id","0"));
             String st = q.getOrDefault("st","CONFIRMED");
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 PreparedStatement ps = c.prepareStatement("UPDATE bookings SET status=? WHERE id=?")) {
-                ps.setString(1,st); ps.setInt(2,id); ps.executeUpdate();
+            try {
+                // Re-activating a cancelled booking whose seat has been sold again
+                if (BusService.setStatus(id, st) == BusService.Outcome.SEAT_TAKEN) {
+                    sendHtml(ex,409,"<p>এই সিট এখন অন্য বুকিংয়ে আছে. <a class='link' href='/admin/bookings'>ফিরে যান</a></p>");
+                    return;
+                }
             } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
             redirect(ex,"/admin/bookings");
         }
@@ -689,10 +874,8 @@ public class Main {
         @Override public void handle(HttpExchange ex) throws IOException {
             Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
             int id = Integer.parseInt(q.getOrDefault("id","0"));
-            try (Connection c = DriverManager.getConnection(DB_URL);
-                 PreparedStatement ps = c.prepareStatement("DELETE FROM bookings WHERE id=?")) {
-                ps.setInt(1,id); ps.executeUpdate();
-            } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+            try { BusService.deleteBooking(id); }
+            catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
             redirect(ex,"/admin/bookings");
         }
     }
@@ -704,11 +887,21 @@ public class Main {
             String html = pageHeader("ব্যবহারকারী প্যানেল","টিকিট খুঁজুন ও বুক করুন", s) +
                     "<div class='grid'>" +
                     "<div class='card'><h3>সিডিউল খুঁজুন</h3><p class='note'>সূত্র/গন্তব্য/তারিখ</p><a class='btn' href='/user/search'>যান</a></div>" +
+                    "<div class='card'><h3>যাত্রা পরিকল্পনা</h3><p class='note'>সরাসরি বাস না থাকলে বাস বদলে যাত্রা</p><a class='btn' href='/user/plan'>যান</a></div>" +
                     "</div>" + pageFooter();
             sendHtml(ex,200,html);
         }
     }
     static class SearchHandler implements HttpHandler {
+        static final Template ROW = Template.compile("search row",
+                "<tr><td>{{bus}}</td><td>{{source}} → {{destination}}</td><td>{{date}}</td><td>{{time}}</td>" +
+                "<td>{{available:int}}</td><td>{{fare:num}}</td><td>");
+        static final Template BOOK = Template.compile("search book",
+                "<a class='btn ok' href='/user/book?scheduleId={{id:int}}'>বুক</a></td></tr>");
+        // a full trip offers its waitlist instead, so nobody has to keep searching for a cancellation
+        static final Template FULL = Template.compile("search full",
+                "<span class='pill'>পূর্ণ</span> <a class='btn secondary' href='/user/book?scheduleId={{id:int}}'>অপেক্ষা তালিকা</a></td></tr>");
+
         @Override public void handle(HttpExchange ex) throws IOException {
             Session s = getSession(ex);
             if ("GET".equalsIgnoreCase(ex.getRequestMethod())) {
@@ -729,138 +922,659 @@ public class Main {
                 String dst = f.getOrDefault("destination","").trim();
                 String date = f.getOrDefault("date","").trim();
 
-                StringBuilder sb = new StringBuilder();
-                sb.append(pageHeader("সার্চ ফলাফল", src+" → "+dst, s));
-                sb.append("<div class='topbar'><a class='btn secondary' href='/user/search'>নতুন সার্চ</a></div>");
-                sb.append("<div class='card'><table><tr><th>বাস</th><th>রুট</th><th>তারিখ</th><th>সময়</th><th>উপলব্ধ সিট</th><th>ভাড়া</th><th>কর্ম</th></tr>");
-                String sql = """
-                  SELECT s.id, b.name as bus_name, r.source, r.destination, r.fare, s.date, s.time,
-                         (b.capacity - (SELECT COUNT(*) FROM bookings bk WHERE bk.schedule_id=s.id AND bk.status!='CANCELLED')) AS avail
-                  FROM schedules s
-                  JOIN buses b ON b.id=s.bus_id
-                  JOIN routes r ON r.id=s.route_id
-                  WHERE (?='' OR r.source LIKE ?) AND (?='' OR r.destination LIKE ?) AND (?='' OR s.date=?)
-                  ORDER BY s.date, s.time
-                """;
-                try (Connection c = DriverManager.getConnection(DB_URL);
-                     PreparedStatement ps = c.prepareStatement(sql)) {
-                    ps.setString(1, src);
-                    ps.setString(2, "%"+src+"%");
-                    ps.setString(3, dst);
-                    ps.setString(4, "%"+dst+"%");
-                    ps.setString(5, date);
-                    ps.setString(6, date);
-                    try (ResultSet rs = ps.executeQuery()) {
-                        while (rs.next()){
-                            int id = rs.getInt("id");
-                            int avail = rs.getInt("avail");
-                            sb.append("<tr><td>").append(esc(rs.getString("bus_name"))).append("</td><td>")
-                                    .append(esc(rs.getString("source")+" → "+rs.getString("destination")))
-                                    .append("</td><td>").append(esc(rs.getString("date"))).append("</td><td>").append(esc(rs.getString("time")))
-                                    .append("</td><td>").append(avail).append("</td><td>").append(rs.getDouble("fare"))
-                                    .append("</td><td>");
-                            if (avail>0) {
-                                sb.append("<a class='btn ok' href='/user/book?scheduleId=").append(id).append("'>বুক</a>");
-                            } else {
-                                sb.append("<span class='pill'>পূর্ণ</span>");
-                            }
-                            sb.append("</td></tr>");
-                        }
-                    }
-                } catch (SQLException e) { sb.append("<tr><td colspan='7'>").append(esc(e.getMessage())).append("</td></tr>"); }
-                sb.append("</table></div>").append(pageFooter());
-                sendHtml(ex,200,sb.toString());
+                try (HtmlWriter html = HtmlWriter.open(ex, 200)) {
+                    html.append(pageHeader("সার্চ ফলাফল", src+" → "+dst, s));
+                    html.append("<div class='topbar'><a class='btn secondary' href='/user/search'>নতুন সার্চ</a></div>");
+                    html.append("<div class='card'><table><tr><th>বাস</th><th>রুট</th><th>তারিখ</th><th>সময়</th><th>উপলব্ধ সিট</th><th>ভাড়া</th><th>কর্ম</th></tr>");
+                    try {
+                        BusService.search(src, dst, date, r -> {
+                            html.begin(ROW).text(r.bus().name()).text(r.route().source()).text(r.route().destination())
+                                    .text(r.date()).text(r.time()).num(r.available()).num(r.route().fare()).end();
+                            if (r.available()>0) html.begin(BOOK).num(r.id()).end();
+                            else html.begin(FULL).num(r.id()).end();
+                        });
+                    } catch (SQLException e) { html.append("<tr><td colspan='7'>").append(esc(e.getMessage())).append("</td></tr>"); }
+                    html.append("</table></div>").append(pageFooter());
+                }
             }
         }
     }
+    // User: journeys with changes, planned over all upcoming schedules (JourneyPlanner)
+    static class PlanHandler implements HttpHandler {
+        static final Template LEG = Template.compile("plan leg",
+                "<tr><td>{{bus}}</td><td>{{source}} → {{destination}}</td><td>{{depart}}</td><td>{{arrive}}</td>" +
+                "<td>{{available:int}}</td><td>{{fare:num}}</td><td><a class='btn ok' href='/user/book?scheduleId={{id:int}}'>বুক</a></td></tr>");
+
+        @Override public void handle(HttpExchange ex) throws IOException {
+            Session s = getSession(ex);
+            Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
+            String src = q.getOrDefault("source","").trim();
+            String dst = q.getOrDefault("destination","").trim();
+            String date = q.getOrDefault("date", LocalDate.now().plusDays(1).toString()).trim();
+            String time = q.getOrDefault("time","00:00").trim();
+            boolean cheapest = "cheapest".equals(q.get("goal"));
+
+            try (HtmlWriter html = HtmlWriter.open(ex, 200)) {
+                html.append(pageHeader("যাত্রা পরিকল্পনা","এক বা একাধিক বাসে গন্তব্যে পৌঁছান", s));
+                html.append("<div class='topbar'><a class='btn secondary' href='/user'>হোম</a></div>");
+                html.append("<div class='card'><form method='GET' action='/user/plan'>")
+                        .append("<div class='row'><div><label>সূত্র</label><input name='source' value='").append(esc(src)).append("' required></div>")
+                        .append("<div><label>গন্তব্য</label><input name='destination' value='").append(esc(dst)).append("' required></div></div>")
+                        .append("<div class='row'><div><label>তারিখ</label><input name='date' value='").append(esc(date)).append("'></div>")
+                        .append("<div><label>যে সময়ের পরে</label><input name='time' value='").append(esc(time)).append("'></div></div>")
+                        .append("<div class='row'><div><label>অগ্রাধিকার</label><select name='goal'>")
+                        .append("<option value='earliest'>দ্রুততম পৌঁছানো</option>")
+                        .append("<option value='cheapest'").append(cheapest ? " selected" : "").append(">সবচেয়ে কম ভাড়া</option>")
+                        .append("</select></div><div></div></div><button class='btn'>খুঁজুন</button></form></div>");
+                if (!src.isEmpty() && !dst.isEmpty()) {
+                    html.append("<div class='card'>");
+                    try {
+                        journey(html, src, dst, date, time, cheapest ? JourneyPlanner.Goal.CHEAPEST : JourneyPlanner.Goal.EARLIEST);
+                    } catch (SQLException e) { html.append("<p>").append(esc(e.getMessage())).append("</p>"); }
+                    html.append("</div>");
+                }
+                html.append(pageFooter());
+            }
+        }
+
+        private static void journey(HtmlWriter html, String src, String dst, String date, String time,
+                                    JourneyPlanner.Goal goal) throws IOException, SQLException {
+            long earliest = JourneyPlanner.minutes(date, time);
+            if (earliest < 0) { html.append("<p>তারিখ (YYYY-MM-DD) বা সময় (HH:MM) সঠিক নয়.</p>"); return; }
+            Set<String> from = RefData.matchPlaces(src), to = RefData.matchPlaces(dst);
+            ScheduleRules.ensure(date, JourneyPlanner.HORIZON / 1440 + 1);   // recurring trips the horizon may reach
+            JourneyPlanner planner = RefData.planner();
+
+            // The index has no seat counts and may be one rebuild stale: every leg's seats come
+            // from the DB, and a full or deleted schedule (0 seats) is planned around
+            Set<Integer> full = new HashSet<>();
+            Map<Integer,Integer> free = new HashMap<>();
+            Optional<JourneyPlanner.Journey> found = Optional.empty();
+            for (int attempt = 0; attempt < 5; attempt++) {
+                Optional<JourneyPlanner.Journey> j = planner.plan(from, to, earliest, goal, full);
+                if (j.isEmpty()) break;
+                boolean seats = true;
+                for (JourneyPlanner.Leg leg : j.get().legs()) {
+                    int n = BusService.available(leg.scheduleId());
+                    free.put(leg.scheduleId(), n);
+                    if (n <= 0) { full.add(leg.scheduleId()); seats = false; }
+                }
+                if (seats) { found = j; break; }
+            }
+            if (found.isEmpty()) { html.append("<p>কোনো যাত্রাপথ পাওয়া যায়নি.</p>"); return; }
+
+            JourneyPlanner.Journey j = found.get();
+            html.append("<h3>").append(esc(JourneyPlanner.format(j.depart()))).append(" → ").append(esc(JourneyPlanner.format(j.arrive())))
+                    .append("</h3><p class='note'>").append(j.legs().size()).append(" টি বাস • মোট ভাড়া ").append(j.fare()).append("</p>");
+            html.append("<table><tr><th>বাস</th><th>রুট</th><th>ছাড়বে</th><th>পৌঁছাবে</th><th>উপলব্ধ সিট</th><th>ভাড়া</th><th>কর্ম</th></tr>");
+            for (JourneyPlanner.Leg leg : j.legs()) {
+                RefData.Bus b = RefData.bus(leg.busId());
+                html.begin(LEG).text(b == null ? "" : b.name()).text(leg.route().source()).text(leg.route().destination())
+                        .text(JourneyPlanner.format(leg.depart())).text(JourneyPlanner.format(leg.arrive()))
+                        .num(free.get(leg.scheduleId())).num(leg.route().fare()).num(leg.scheduleId()).end();
+            }
+            html.append("</table>");
+        }
+    }
     static class BookHandler implements HttpHandler {
+        static final String SEAT_TAKEN = "<p>এই সিট ইতিমধ্যে বুকড. <a class='link' href='/user'>ফিরে যান</a></p>";
+
         @Override public void handle(HttpExchange ex) throws IOException {
             Session s = getSession(ex);
             Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
             int scheduleId = Integer.parseInt(q.getOrDefault("scheduleId","0"));
 
             if ("GET".equalsIgnoreCase(ex.getRequestMethod())) {
-                String sql = """
-                  SELECT s.id, b.name as bus_name, r.source, r.destination, r.fare, s.date, s.time,
-                         (b.capacity - (SELECT COUNT(*) FROM bookings bk WHERE bk.schedule_id=s.id AND bk.status!='CANCELLED')) AS avail,
-                         b.capacity as cap
-                  FROM schedules s
-                  JOIN buses b ON b.id=s.bus_id
-                  JOIN routes r ON r.id=s.route_id
-                  WHERE s.id=?
-                """;
-                try (Connection c = DriverManager.getConnection(DB_URL);
-                     PreparedStatement ps = c.prepareStatement(sql)) {
-                    ps.setInt(1, scheduleId);
-                    try (ResultSet rs = ps.executeQuery()) {
-                        if (!rs.next()) { sendHtml(ex,200,"<p>সিডিউল পাওয়া যায়নি. <a class='link' href='/user'>ফিরে যান</a></p>"); return; }
-                        String html = pageHeader("বুকিং", rs.getString("source")+" → "+rs.getString("destination"), s) +
-                                "<div class='topbar'><a class='btn secondary' href='/user'>হোম</a></div>" +
-                                "<div class='card'><div class='grid'>" +
-                                "<div><h3>সিডিউল</h3><div class='pill'>বাস: "+esc(rs.getString("bus_name"))+"</div> " +
-                                "<div class='pill'>তারিখ: "+esc(rs.getString("date"))+"</div> " +
-                                "<div class='pill'>সময়: "+esc(rs.getString("time"))+"</div> " +
-                                "<div class='pill'>উপলব্ধ: "+rs.getInt("avail")+"/"+rs.getInt("cap")+"</div> " +
-                                "<div class='pill'>ভাড়া: "+rs.getDouble("fare")+"</div></div>" +
-                                "<div><h3>তথ্য দিন</h3>" +
-                                "<form method='POST' action='/user/book?scheduleId="+scheduleId+"'>" +
+                // Served from the reference cache and the seat bitmap; no query once both are warm
+                try {
+                    BusService.ScheduleRow sc = BusService.schedule(scheduleId);
+                    SeatMap.Seats seats = sc == null ? null : SeatMap.get(scheduleId);
+                    if (seats == null) { sendHtml(ex,200,"<p>সিডিউল পাওয়া যায়নি. <a class='link' href='/user'>ফিরে যান</a></p>"); return; }
+                    int[] freeSeats = seats.freeSeats();
+                    String owner = holdOwner(ex);
+                    int[] held = SeatHolds.heldBy(owner, scheduleId);
+                    String form;
+                    if (held.length == 0 && freeSeats.length == 0) {
+                        // full: join the waitlist; a cancelled seat is booked for the first in line
+                        form = "<div class='note'>সব সিট বুকড. অপেক্ষা তালিকায় নাম দিন: কেউ বাতিল করলে সিটটি ক্রমানুসারে আপনার নামে বুক হবে. " +
+                                "এখন অপেক্ষায়: " + Waitlist.waiting(scheduleId) + " জন</div>" +
+                                "<form method='POST' action='/user/waitlist/join?scheduleId="+scheduleId+"'>" +
                                 "<label>নাম</label><input name='name' required>" +
                                 "<label>ফোন</label><input name='phone' required>" +
-                                "<label>সিট নম্বর</label><input type='number' name='seat' min='1' max='"+rs.getInt("cap")+"' required>" +
-                                "<button class='btn ok' style='margin-top:10px'>বুক করুন</button></form></div>" +
-                                "</div></div>" + pageFooter();
-                        sendHtml(ex,200,html);
+                                "<button class='btn' style='margin-top:10px'>অপেক্ষা তালিকায় যোগ দিন</button></form>";
+                    } else if (held.length == 0) {
+                        // step 1: choose seats, which holds them
+                        StringBuilder seatOptions = new StringBuilder();
+                        for (int free : freeSeats) {
+                            seatOptions.append("<option value='").append(free).append("'>").append(free).append("</option>");
+                        }
+                        form = "<form method='POST' action='/user/book/hold?scheduleId="+scheduleId+"'>" +
+                                "<label>সিট নম্বর</label><select name='seat' multiple size='6' required>" + seatOptions + "</select>" +
+                                "<div class='note'>Ctrl/⌘ চেপে একসাথে সর্বোচ্চ " + BusService.MAX_SEATS + " টি সিট</div>" +
+                                "<button class='btn' style='margin-top:10px'>সিট ধরে রাখুন</button></form>";
+                    } else {
+                        // step 2: the held seats are the booking's; name and phone complete it
+                        StringBuilder hidden = new StringBuilder();
+                        for (int seat : held) hidden.append("<input type='hidden' name='seat' value='").append(seat).append("'>");
+                        form = "<div class='pill'>সিট: " + Arrays.stream(held).mapToObj(String::valueOf).collect(Collectors.joining(", ")) + "</div> " +
+                                "<div class='note'>সিটগুলো " + SeatHolds.secondsLeft(owner, scheduleId) + " সেকেন্ড ধরে রাখা আছে</div>" +
+                                "<form method='POST' action='/user/book?scheduleId="+scheduleId+"'>" + hidden +
+                                "<label>নাম</label><input name='name' required>" +
+                                "<label>ফোন</label><input name='phone' required>" +
+                                "<button class='btn ok' style='margin-top:10px'>বুক করুন</button></form>" +
+                                "<form method='POST' action='/user/book/release?scheduleId="+scheduleId+"'>" +
+                                "<button class='btn secondary' style='margin-top:10px'>অন্য সিট বাছুন</button></form>";
                     }
+                    String html = pageHeader("বুকিং", sc.route().source()+" → "+sc.route().destination(), s) +
+                            "<div class='topbar'><a class='btn secondary' href='/user'>হোম</a></div>" +
+                            "<div class='card'><div class='grid'>" +
+                            "<div><h3>সিডিউল</h3><div class='pill'>বাস: "+esc(sc.bus().name())+"</div> " +
+                            "<div class='pill'>তারিখ: "+esc(sc.date())+"</div> " +
+                            "<div class='pill'>সময়: "+esc(sc.time())+"</div> " +
+                            "<div class='pill'>উপলব্ধ: "+freeSeats.length+"/"+sc.bus().capacity()+"</div> " +
+                            "<div class='pill'>ভাড়া: "+sc.route().fare()+"</div></div>" +
+                            "<div><h3>তথ্য দিন</h3>" +
+                            form + "</div>" +
+                            "</div></div>" + pageFooter();
+                    sendHtml(ex,200,html);
                 } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); }
                 return;
             }
 
             if ("POST".equalsIgnoreCase(ex.getRequestMethod())) {
-                Map<String,String> f = parseForm(new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+                String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                Map<String,String> f = parseForm(body);
                 String name = f.getOrDefault("name","").trim();
                 String phone = f.getOrDefault("phone","").trim();
-                int seat = Integer.parseInt(f.getOrDefault("seat","0"));
-                if (name.isEmpty() || phone.isEmpty() || seat<=0){ sendHtml(ex,200,"<p>ডেটা সঠিক নয়. <a class='link' href='/user'>ফিরে যান</a></p>"); return; }
-
-                String infoSql = """
-                  SELECT r.fare, b.capacity,
-                         (SELECT COUNT(*) FROM bookings bk WHERE bk.schedule_id=? AND bk.status!='CANCELLED') as booked
-                  FROM schedules s
-                  JOIN routes r ON r.id=s.route_id
-                  JOIN buses b ON b.id=s.bus_id
-                  WHERE s.id=?
-                """;
-                try (Connection c = DriverManager.getConnection(DB_URL)) {
-                    double fare=0; int cap=0; int booked=0;
-                    try (PreparedStatement ps = c.prepareStatement(infoSql)) {
-                        ps.setInt(1, scheduleId); ps.setInt(2, scheduleId);
-                        try (ResultSet rs = ps.executeQuery()) {
-                            if (!rs.next()){ sendHtml(ex,200,"<p>সিডিউল পাওয়া যায়নি.</p>"); return; }
-                            fare = rs.getDouble("fare"); cap = rs.getInt("capacity"); booked = rs.getInt("booked");
-                        }
-                    }
-                    if (seat<1 || seat>cap) { sendHtml(ex,200,"<p>সিট রেঞ্জ সঠিক নয়.</p>"); return; }
-                    if (booked>=cap) { sendHtml(ex,200,"<p>সিট পূর্ণ.</p>"); return; }
-
-                    try (PreparedStatement ps = c.prepareStatement(
-                            "INSERT INTO bookings(name,phone,schedule_id,seat_no,status,total) VALUES(?,?,?,?,?,?)"
-                    )) {
-                        ps.setString(1,name); ps.setString(2,phone); ps.setInt(3,scheduleId);
-                        ps.setInt(4,seat); ps.setString(5,"CONFIRMED"); ps.setDouble(6,fare);
-                        ps.executeUpdate();
-                    } catch (SQLException e) {
-                        if (e.getMessage()!=null && e.getMessage().toLowerCase().contains("unique")) {
-                            sendHtml(ex,200,"<p>এই সিট ইতিমধ্যে বুকড. <a class='link' href='/user'>ফিরে যান</a></p>");
-                            return;
-                        }
-                        throw e;
-                    }
-                } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+                int[] seats = seatNumbers(formValues(body, "seat"));
+                BusService.Booked booked;
+                try { booked = BusService.book(holdOwner(ex), scheduleId, name, phone, seats); }
+                catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+                switch (booked.outcome()) {
+                    case OK: break;
+                    case INVALID: sendHtml(ex,200,"<p>ডেটা সঠিক নয়. <a class='link' href='/user'>ফিরে যান</a></p>"); return;
+                    case NOT_FOUND: sendHtml(ex,200,"<p>সিডিউল পাওয়া যায়নি.</p>"); return;
+                    case SEAT_RANGE: sendHtml(ex,200,"<p>সিট রেঞ্জ সঠিক নয়.</p>"); return;
+                    case FULL: sendHtml(ex,200,"<p>সিট পূর্ণ. <a class='link' href='/user/book?scheduleId="+scheduleId+"'>অপেক্ষা তালিকা</a></p>"); return;
+                    default: sendHtml(ex,200,SEAT_TAKEN); return;
+                }
 
                 String html = pageHeader("বুকিং সম্পন্ন","ধন্যবাদ!", s) +
-                        "<div class='card'><a class='btn' href='/user'>হোম</a></div>" + pageFooter();
+                        "<div class='card'><p>সিট: " + Arrays.stream(seats).mapToObj(String::valueOf).collect(Collectors.joining(", ")) +
+                        " • মোট ভাড়া: " + booked.total() + "</p><a class='btn' href='/user'>হোম</a></div>" + pageFooter();
                 sendHtml(ex,200,html);
             }
         }
     }
+
+    // Step 1 of booking: hold the chosen seats, then back to the booking page to fill in name and phone
+    static class HoldSeatsHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
+            int scheduleId = parseInt(q.get("scheduleId"));
+            String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            BusService.Outcome o;
+            try { o = BusService.hold(holdOwner(ex), scheduleId, seatNumbers(formValues(body, "seat"))); }
+            catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+            switch (o) {
+                case OK: redirect(ex,"/user/book?scheduleId="+scheduleId); return;
+                case NOT_FOUND: sendHtml(ex,200,"<p>সিডিউল পাওয়া যায়নি.</p>"); return;
+                case SEAT_RANGE: sendHtml(ex,200,"<p>সিট রেঞ্জ সঠিক নয়.</p>"); return;
+                case SEAT_TAKEN: sendHtml(ex,200,BookHandler.SEAT_TAKEN); return;
+                default: sendHtml(ex,200,"<p>ডেটা সঠিক নয়. <a class='link' href='/user'>ফিরে যান</a></p>");
+            }
+        }
+    }
+
+    static class ReleaseSeatsHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
+            int scheduleId = parseInt(q.get("scheduleId"));
+            SeatHolds.release(holdOwner(ex), scheduleId);
+            redirect(ex,"/user/book?scheduleId="+scheduleId);
+        }
+    }
+
+    // Full schedule: join its waitlist, then watch the entry instead of searching again
+    static class JoinWaitlistHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
+            int scheduleId = parseInt(q.get("scheduleId"));
+            Map<String,String> f = parseForm(new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            String phone = f.getOrDefault("phone","").trim();
+            BusService.Waiting w;
+            try { w = BusService.joinWaitlist(scheduleId, f.getOrDefault("name","").trim(), phone); }
+            catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); return; }
+            switch (w.outcome()) {
+                case OK: redirect(ex,"/user/waitlist?id="+w.id()+"&phone="+URLEncoder.encode(phone, StandardCharsets.UTF_8)); return;
+                case NOT_FULL: redirect(ex,"/user/book?scheduleId="+scheduleId); return;
+                case NOT_FOUND: sendHtml(ex,200,"<p>সিডিউল পাওয়া যায়নি.</p>"); return;
+                default: sendHtml(ex,200,"<p>ডেটা সঠিক নয়. <a class='link' href='/user'>ফিরে যান</a></p>");
+            }
+        }
+    }
+
+    // GET: where the entry stands (phone must match); POST: leave the waitlist
+    static class WaitlistHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            Session s = getSession(ex);
+            Map<String,String> q = parseQuery(ex.getRequestURI().getQuery());
+            int id = parseInt(q.get("id"));
+            String phone = q.getOrDefault("phone","").trim();
+            try {
+                if ("POST".equalsIgnoreCase(ex.getRequestMethod())) {
+                    BusService.leaveWaitlist(id, phone);
+                    redirect(ex,"/user");
+                    return;
+                }
+                Waitlist.Entry w = Waitlist.entry(id);
+                if (w == null || !w.phone().equals(phone)) { sendHtml(ex,200,"<p>পাওয়া যায়নি. <a class='link' href='/user'>ফিরে যান</a></p>"); return; }
+                String self = "/user/waitlist?id="+id+"&phone="+URLEncoder.encode(phone, StandardCharsets.UTF_8);
+                String body = switch (w.status()) {
+                    case "WAITING" -> "<p>অপেক্ষা তালিকায় আপনার অবস্থান: <b>" + w.position() + "</b></p>" +
+                            "<div class='note'>কেউ বাতিল করলে সিটটি ক্রমানুসারে বুক হয়ে যাবে; এই পাতা আবার খুললে অবস্থা দেখতে পাবেন.</div>" +
+                            "<form method='POST' action='" + esc(self) + "'><button class='btn warn' style='margin-top:10px'>তালিকা থেকে সরে যান</button></form>";
+                    case "PROMOTED" -> "<p>আপনার সিট বুক হয়েছে: সিট " + w.seat() + " (বুকিং #" + w.bookingId() + ")</p>";
+                    default -> "<p>আপনি তালিকা থেকে সরে গেছেন.</p>";
+                };
+                sendHtml(ex,200, pageHeader("অপেক্ষা তালিকা", "#" + id + " • " + esc(w.name()), s) +
+                        "<div class='topbar'><a class='btn secondary' href='/user'>হোম</a></div>" +
+                        "<div class='card'>" + body + "</div>" + pageFooter());
+            } catch (SQLException e) { sendHtml(ex,500,"DB error: "+esc(e.getMessage())); }
+        }
+    }
+
+    // ---------- JSON API (/api/v1) ----------
+    // Request bodies are form-encoded, like the HTML forms; responses are streamed by JsonWriter.
+    // Data access is BusService, shared with the pages above.
+
+    /** Path segments after the context prefix: "/api/v1/schedules/7/seats" -> [schedules, 7, seats]. */
+    private static String[] apiPath(HttpExchange ex, String prefix) {
+        String rest = ex.getRequestURI().getPath().substring(prefix.length());
+        return rest.isEmpty() ? new String[0] : rest.split("/");
+    }
+
+    /** Query parameters plus a form body, if any (body wins). */
+    private static Map<String,String> apiParams(HttpExchange ex) throws IOException {
+        Map<String,String> m = parseQuery(ex.getRequestURI().getRawQuery());
+        m.putAll(parseForm(new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+        return m;
+    }
+
+    private static boolean is(HttpExchange ex, String method, String[] p, String... shape) {
+        if (p.length != shape.length || !method.equalsIgnoreCase(ex.getRequestMethod())) return false;
+        for (int i = 0; i < shape.length; i++) {
+            if (!shape[i].equals("*") && !shape[i].equals(p[i])) return false;
+        }
+        return true;
+    }
+
+    private static void noContent(HttpExchange ex) throws IOException {
+        ex.sendResponseHeaders(204, -1);
+        ex.close();
+    }
+
+    private static void outcomeError(HttpExchange ex, BusService.Outcome o) throws IOException {
+        switch (o) {
+            case NOT_FOUND: JsonWriter.error(ex, 404, "not_found", "no such schedule or booking"); break;
+            case SEAT_RANGE: JsonWriter.error(ex, 400, "seat_range", "seat is outside the bus capacity"); break;
+            case SEAT_TAKEN: JsonWriter.error(ex, 409, "seat_taken", "seat is already booked or held"); break;
+            case FULL: JsonWriter.error(ex, 409, "full", "no seats left; POST /api/v1/waitlist to queue for one"); break;
+            case NOT_FULL: JsonWriter.error(ex, 409, "not_full", "seats are free; book one instead"); break;
+            default: JsonWriter.error(ex, 400, "invalid", "missing or invalid fields"); break;
+        }
+    }
+
+    private static JsonWriter busJson(JsonWriter json, RefData.Bus b) throws IOException {
+        return json.beginObject().field("id", b.id()).field("name", b.name()).field("type", b.type())
+                .field("capacity", b.capacity()).endObject();
+    }
+
+    private static JsonWriter routeJson(JsonWriter json, RefData.Route r) throws IOException {
+        if (r == null) return json.nullValue();
+        return json.beginObject().field("id", r.id()).field("source", r.source()).field("destination", r.destination())
+                .field("fare", r.fare()).field("durationMin", r.durationMin()).endObject();
+    }
+
+    // days as names, e.g. ["MONDAY","TUESDAY"]
+    private static JsonWriter ruleJson(JsonWriter json, ScheduleRules.Rule r) throws IOException {
+        json.beginObject().field("id", r.id()).field("busId", r.busId()).field("routeId", r.routeId())
+                .field("time", r.time()).name("days").beginArray();
+        for (DayOfWeek d : DayOfWeek.values()) if ((r.days() & (1 << d.ordinal())) != 0) json.value(d.name());
+        json.endArray().field("start", r.start().toString()).name("end");
+        return (r.end() == null ? json.nullValue() : json.value(r.end().toString())).endObject();
+    }
+
+    private static JsonWriter scheduleJson(JsonWriter json, BusService.ScheduleRow r) throws IOException {
+        json.beginObject().field("id", r.id()).name("bus");
+        busJson(json, r.bus()).name("route");
+        return routeJson(json, r.route()).field("date", r.date()).field("time", r.time())
+                .field("available", r.available()).endObject();
+    }
+
+    private static JsonWriter bookingJson(JsonWriter json, BusService.BookingRow b) throws IOException {
+        json.beginObject().field("id", b.id()).field("name", b.name()).field("phone", b.phone()).name("route");
+        return routeJson(json, b.route()).field("date", b.date()).field("time", b.time()).field("seat", b.seat())
+                .field("total", b.total()).field("status", b.status()).endObject();
+    }
+
+    /** {"items": [...], "next": before-value or null}; the page is read before the writer opens. */
+    private static <T> void pageJson(JsonWriter json, BusService.Page<T> page, BusService.Sink<T> item) throws IOException {
+        json.beginObject().name("items").beginArray();
+        for (T row : page.rows()) item.accept(row);
+        json.endArray().name("next");
+        if (page.next() > 0) json.value(page.next()); else json.nullValue();
+        json.endObject();
+    }
+
+    // POST username+password -> session cookie; GET -> who am I; DELETE -> log out
+    static class ApiSessionHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            String method = ex.getRequestMethod();
+            if ("POST".equalsIgnoreCase(method)) {
+                Map<String,String> f = apiParams(ex);
+                String u = f.getOrDefault("username","").trim();
+                String role;
+                try { role = BusService.login(u, f.getOrDefault("password","").trim()); }
+                catch (SQLException e) { JsonWriter.error(ex, 500, "db_error", e.getMessage()); return; }
+                if (role == null) { JsonWriter.error(ex, 401, "unauthorized", "invalid username or password"); return; }
+                setSession(ex, u, role);
+                try (JsonWriter json = JsonWriter.open(ex, 200)) {
+                    json.beginObject().field("username", u).field("role", role).endObject();
+                }
+            } else if ("GET".equalsIgnoreCase(method)) {
+                Session s = getSession(ex);
+                if (s == null) { JsonWriter.error(ex, 401, "unauthorized", "not logged in"); return; }
+                try (JsonWriter json = JsonWriter.open(ex, 200)) {
+                    json.beginObject().field("username", s.username).field("role", s.role).endObject();
+                }
+            } else if ("DELETE".equalsIgnoreCase(method)) {
+                clearSession(ex);
+                noContent(ex);
+            } else {
+                JsonWriter.error(ex, 405, "method_not_allowed", method);
+            }
+        }
+    }
+
+    // Any logged-in user: search, availability, seat map, hold, book, cancel, waitlist
+    static class ApiHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            String[] p = apiPath(ex, "/api/v1/");
+            try {
+                if (is(ex, "GET", p, "schedules")) search(ex);
+                else if (is(ex, "GET", p, "schedules", "*")) availability(ex, parseInt(p[1]));
+                else if (is(ex, "GET", p, "schedules", "*", "seats")) seats(ex, parseInt(p[1]));
+                else if (is(ex, "POST", p, "holds")) hold(ex);
+                else if (is(ex, "DELETE", p, "holds", "*")) release(ex, parseInt(p[1]));
+                else if (is(ex, "POST", p, "waitlist")) joinWaitlist(ex);
+                else if (is(ex, "GET", p, "waitlist", "*")) waitlistEntry(ex, parseInt(p[1]));
+                else if (is(ex, "DELETE", p, "waitlist", "*")) leaveWaitlist(ex, parseInt(p[1]));
+                else if (is(ex, "POST", p, "bookings")) book(ex);
+                else if (is(ex, "POST", p, "bookings", "*", "cancel")) cancel(ex, parseInt(p[1]));
+                else JsonWriter.error(ex, 404, "not_found", "no endpoint " + ex.getRequestMethod() + " " + ex.getRequestURI().getPath());
+            } catch (SQLException e) { JsonWriter.error(ex, 500, "db_error", e.getMessage()); }
+        }
+
+        private static void search(HttpExchange ex) throws IOException, SQLException {
+            Map<String,String> q = apiParams(ex);
+            // streamed as rows are read, so a failing query must not be answered twice
+            try (JsonWriter json = JsonWriter.open(ex, 200)) {
+                json.beginArray();
+                try {
+                    BusService.search(q.getOrDefault("source","").trim(), q.getOrDefault("destination","").trim(),
+                            q.getOrDefault("date","").trim(), r -> scheduleJson(json, r));
+                } catch (SQLException e) {
+                    if (json.abort()) throw e;   // nothing sent yet: handle() answers with the error
+                    return;                      // part of the 200 is out: the body is cut off instead
+                }
+                json.endArray();
+            }
+        }
+
+        private static void availability(HttpExchange ex, int id) throws IOException, SQLException {
+            BusService.ScheduleRow r = BusService.schedule(id);
+            if (r == null) { outcomeError(ex, BusService.Outcome.NOT_FOUND); return; }
+            try (JsonWriter json = JsonWriter.open(ex, 200)) { scheduleJson(json, r); }
+        }
+
+        private static void seats(HttpExchange ex, int id) throws IOException, SQLException {
+            SeatMap.Seats seats = SeatMap.get(id);
+            if (seats == null) { outcomeError(ex, BusService.Outcome.NOT_FOUND); return; }
+            try (JsonWriter json = JsonWriter.open(ex, 200)) {
+                json.beginObject().field("scheduleId", id).field("capacity", seats.capacity()).name("free").beginArray();
+                for (int seat : seats.freeSeats()) json.value(seat);
+                json.endArray().endObject();
+            }
+        }
+
+        private static void book(HttpExchange ex) throws IOException, SQLException {
+            Map<String,String> f = apiParams(ex);
+            int scheduleId = parseInt(f.get("scheduleId"));
+            // seats=3,4,5 (or seat=3): one all-or-nothing booking
+            int[] seats = seatNumbers(List.of(f.getOrDefault("seats", f.getOrDefault("seat",""))));
+            BusService.Booked b = BusService.book(holdOwner(ex), scheduleId, f.getOrDefault("name","").trim(),
+                    f.getOrDefault("phone","").trim(), seats);
+            if (b.outcome() != BusService.Outcome.OK) { outcomeError(ex, b.outcome()); return; }
+            try (JsonWriter json = JsonWriter.open(ex, 201)) {
+                json.beginObject().field("scheduleId", scheduleId).field("total", b.total()).field("status", "CONFIRMED")
+                        .name("bookings").beginArray();
+                for (int i = 0; i < seats.length; i++) json.beginObject().field("id", b.ids()[i]).field("seat", seats[i]).endObject();
+                json.endArray().endObject();
+            }
+        }
+
+        // seats=3,4,5: held for this session until booked, released or timed out
+        private static void hold(HttpExchange ex) throws IOException, SQLException {
+            Map<String,String> f = apiParams(ex);
+            int scheduleId = parseInt(f.get("scheduleId"));
+            int[] seats = seatNumbers(List.of(f.getOrDefault("seats", f.getOrDefault("seat",""))));
+            BusService.Outcome o = BusService.hold(holdOwner(ex), scheduleId, seats);
+            if (o != BusService.Outcome.OK) { outcomeError(ex, o); return; }
+            try (JsonWriter json = JsonWriter.open(ex, 201)) {
+                json.beginObject().field("scheduleId", scheduleId).name("seats").beginArray();
+                for (int seat : seats) json.value(seat);
+                json.endArray().field("expiresInSec", SeatHolds.secondsLeft(holdOwner(ex), scheduleId)).endObject();
+            }
+        }
+
+        private static void release(HttpExchange ex, int scheduleId) throws IOException {
+            if (SeatHolds.release(holdOwner(ex), scheduleId)) noContent(ex);
+            else JsonWriter.error(ex, 404, "not_found", "no hold on schedule " + scheduleId);
+        }
+
+        // Only for a full schedule (409 not_full otherwise); the same phone keeps its place
+        private static void joinWaitlist(HttpExchange ex) throws IOException, SQLException {
+            Map<String,String> f = apiParams(ex);
+            BusService.Waiting w = BusService.joinWaitlist(parseInt(f.get("scheduleId")),
+                    f.getOrDefault("name","").trim(), f.getOrDefault("phone","").trim());
+            if (w.outcome() != BusService.Outcome.OK) { outcomeError(ex, w.outcome()); return; }
+            entryJson(ex, Waitlist.entry(w.id()), 201);
+        }
+
+        // Like cancel: the entry's phone number, unless an admin asks
+        private static void waitlistEntry(HttpExchange ex, int id) throws IOException, SQLException {
+            Waitlist.Entry w = Waitlist.entry(id);
+            boolean admin = "admin".equalsIgnoreCase(getSession(ex).role);
+            if (w == null || !admin && !w.phone().equals(apiParams(ex).getOrDefault("phone","").trim())) {
+                outcomeError(ex, BusService.Outcome.NOT_FOUND);
+                return;
+            }
+            entryJson(ex, w, 200);
+        }
+
+        private static void entryJson(HttpExchange ex, Waitlist.Entry w, int code) throws IOException {
+            try (JsonWriter json = JsonWriter.open(ex, code)) {
+                json.beginObject().field("id", w.id()).field("scheduleId", w.scheduleId()).field("status", w.status());
+                if (w.position() > 0) json.field("position", w.position());
+                if (w.bookingId() > 0) json.field("bookingId", w.bookingId()).field("seat", w.seat());
+                json.endObject();
+            }
+        }
+
+        private static void leaveWaitlist(HttpExchange ex, int id) throws IOException, SQLException {
+            BusService.Outcome o = BusService.leaveWaitlist(id, apiParams(ex).getOrDefault("phone","").trim());
+            if (o == BusService.Outcome.OK) noContent(ex);
+            else outcomeError(ex, o);
+        }
+
+        // Passengers prove the booking is theirs with its phone number; admins need not
+        private static void cancel(HttpExchange ex, int id) throws IOException, SQLException {
+            String phone = apiParams(ex).getOrDefault("phone","").trim();
+            boolean admin = "admin".equalsIgnoreCase(getSession(ex).role);
+            if (!admin && phone.isEmpty()) { outcomeError(ex, BusService.Outcome.INVALID); return; }
+            BusService.Outcome o = BusService.cancel(id, admin ? null : phone);
+            if (o != BusService.Outcome.OK) { outcomeError(ex, o); return; }
+            try (JsonWriter json = JsonWriter.open(ex, 200)) {
+                json.beginObject().field("id", id).field("status", "CANCELLED").endObject();
+            }
+        }
+    }
+
+    // Admin CRUD: buses, routes, schedules, recurring rules, bookings
+    static class ApiAdminHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            String[] p = apiPath(ex, "/api/v1/admin/");
+            try {
+                if (is(ex, "GET", p, "buses")) buses(ex);
+                else if (is(ex, "POST", p, "buses")) addBus(ex);
+                else if (is(ex, "DELETE", p, "buses", "*")) deleted(ex, BusService.deleteBus(parseInt(p[1])));
+                else if (is(ex, "GET", p, "routes")) routes(ex);
+                else if (is(ex, "POST", p, "routes")) addRoute(ex);
+                else if (is(ex, "DELETE", p, "routes", "*")) deleted(ex, BusService.deleteRoute(parseInt(p[1])));
+                else if (is(ex, "GET", p, "schedules")) schedules(ex);
+                else if (is(ex, "POST", p, "schedules")) addSchedule(ex);
+                else if (is(ex, "DELETE", p, "schedules", "*")) deleted(ex, BusService.deleteSchedule(parseInt(p[1])));
+                else if (is(ex, "GET", p, "rules")) rules(ex);
+                else if (is(ex, "POST", p, "rules")) addRule(ex);
+                else if (is(ex, "DELETE", p, "rules", "*")) deleted(ex, BusService.deleteRule(parseInt(p[1])));
+                else if (is(ex, "GET", p, "bookings")) bookings(ex);
+                else if (is(ex, "POST", p, "bookings", "*", "status")) status(ex, parseInt(p[1]));
+                else if (is(ex, "DELETE", p, "bookings", "*")) deleted(ex, BusService.deleteBooking(parseInt(p[1])) == BusService.Outcome.OK);
+                else if (is(ex, "POST", p, "import", "*")) importCsv(ex, CsvImport.Kind.of(p[1]));
+                else JsonWriter.error(ex, 404, "not_found", "no endpoint " + ex.getRequestMethod() + " " + ex.getRequestURI().getPath());
+            } catch (SQLException e) {
+                // e.g. a schedule for a bus that does not exist
+                if (e.getMessage() != null && e.getMessage().contains("CONSTRAINT")) JsonWriter.error(ex, 409, "constraint", e.getMessage());
+                else JsonWriter.error(ex, 500, "db_error", e.getMessage());
+            }
+        }
+
+        // Body is the CSV itself (curl --data-binary @timetable.csv), read as it arrives
+        private static void importCsv(HttpExchange ex, CsvImport.Kind kind) throws IOException, SQLException {
+            if (kind == null) { JsonWriter.error(ex, 404, "not_found", "import kinds: buses, routes, schedules"); return; }
+            CsvImport.Result r = CsvImport.run(kind, ex.getRequestBody());
+            try (JsonWriter json = JsonWriter.open(ex, 200)) {
+                json.beginObject().field("kind", kind.name().toLowerCase(Locale.ROOT)).field("imported", r.imported())
+                        .field("skipped", r.skipped()).field("batches", r.batches()).name("errors").beginArray();
+                for (CsvImport.LineError e : r.errors()) json.beginObject().field("line", e.line()).field("message", e.message()).endObject();
+                json.endArray().endObject();
+            }
+        }
+
+        private static void deleted(HttpExchange ex, boolean found) throws IOException {
+            if (found) noContent(ex);
+            else outcomeError(ex, BusService.Outcome.NOT_FOUND);
+        }
+
+        private static void buses(HttpExchange ex) throws IOException, SQLException {
+            try (JsonWriter json = JsonWriter.open(ex, 200)) {
+                json.beginArray();
+                for (RefData.Bus b : RefData.buses()) busJson(json, b);
+                json.endArray();
+            }
+        }
+
+        private static void addBus(HttpExchange ex) throws IOException, SQLException {
+            Map<String,String> f = apiParams(ex);
+            String name = f.getOrDefault("name","").trim();
+            int capacity = f.containsKey("capacity") ? parseInt(f.get("capacity")) : 40;
+            if (name.isEmpty() || capacity <= 0) { outcomeError(ex, BusService.Outcome.INVALID); return; }
+            int id = BusService.addBus(name, f.getOrDefault("type","").trim(), capacity);
+            try (JsonWriter json = JsonWriter.open(ex, 201)) { busJson(json, RefData.bus(id)); }
+        }
+
+        private static void routes(HttpExchange ex) throws IOException, SQLException {
+            try (JsonWriter json = JsonWriter.open(ex, 200)) {
+                json.beginArray();
+                for (RefData.Route r : RefData.routes()) routeJson(json, r);
+                json.endArray();
+            }
+        }
+
+        private static void addRoute(HttpExchange ex) throws IOException, SQLException {
+            Map<String,String> f = apiParams(ex);
+            String src = f.getOrDefault("source","").trim();
+            String dst = f.getOrDefault("destination","").trim();
+            double fare;
+            try { fare = Double.parseDouble(f.getOrDefault("fare","500").trim()); }
+            catch (NumberFormatException e) { fare = -1; }
+            int minutes = f.containsKey("duration") ? parseInt(f.get("duration")) : 240;
+            if (src.isEmpty() || dst.isEmpty() || !(fare >= 0) || minutes <= 0) { outcomeError(ex, BusService.Outcome.INVALID); return; }
+            int id = BusService.addRoute(src, dst, fare, minutes);
+            try (JsonWriter json = JsonWriter.open(ex, 201)) { routeJson(json, RefData.route(id)); }
+        }
+
+        private static void schedules(HttpExchange ex) throws IOException, SQLException {
+            Map<String,String> q = apiParams(ex);
+            BusService.Page<BusService.ScheduleRow> rows = BusService.schedules(q.getOrDefault("date","").trim(),
+                    parseInt(q.get("route")), parseLong(q.get("before")), PAGE_SIZE);
+            try (JsonWriter json = JsonWriter.open(ex, 200)) { pageJson(json, rows, r -> scheduleJson(json, r)); }
+        }
+
+        private static void rules(HttpExchange ex) throws IOException, SQLException {
+            try (JsonWriter json = JsonWriter.open(ex, 200)) {
+                json.beginArray();
+                for (ScheduleRules.Rule r : BusService.rules()) ruleJson(json, r);
+                json.endArray();
+            }
+        }
+
+        // days=MON,TUE,... or days=daily; end is optional
+        private static void addRule(HttpExchange ex) throws IOException, SQLException {
+            Map<String,String> f = apiParams(ex);
+            int busId = parseInt(f.get("busId")), routeId = parseInt(f.get("routeId"));
+            String time = f.getOrDefault("time","").trim();
+            int days = ScheduleRules.days(List.of(f.getOrDefault("days","daily")));
+            String start = f.getOrDefault("start", LocalDate.now().toString()).trim(), end = f.getOrDefault("end","").trim();
+            String problem = ScheduleRules.check(busId, routeId, time, days, start, end);
+            if (problem != null) { JsonWriter.error(ex, 400, "invalid", problem); return; }
+            int id = BusService.addRule(busId, routeId, time, days, start, end);
+            ScheduleRules.Rule rule = null;
+            for (ScheduleRules.Rule r : BusService.rules()) if (r.id() == id) rule = r;
+            try (JsonWriter json = JsonWriter.open(ex, 201)) {
+                if (rule == null) json.nullValue(); else ruleJson(json, rule);
+            }
+        }
+
+        private static void addSchedule(HttpExchange ex) throws IOException, SQLException {
+            Map<String,String> f = apiParams(ex);
+            int busId = parseInt(f.get("busId")), routeId = parseInt(f.get("routeId"));
+            String date = f.getOrDefault("date","").trim(), time = f.getOrDefault("time","").trim();
+            // stricter than the form: the planner only sees schedules with a real date and time
+            if (RefData.bus(busId) == null || RefData.route(routeId) == null || JourneyPlanner.minutes(date, time) < 0) {
+                outcomeError(ex, BusService.Outcome.INVALID);
+                return;
+            }
+            int id = BusService.addSchedule(busId, routeId, date, time);
+            try (JsonWriter json = JsonWriter.open(ex, 201)) { scheduleJson(json, BusService.schedule(id)); }
+        }
+
+        private static void bookings(HttpExchange ex) throws IOException, SQLException {
+            Map<String,String> q = apiParams(ex);
+            BusService.Page<BusService.BookingRow> rows = BusService.bookings(
+                    q.getOrDefault("status","").trim().toUpperCase(Locale.ROOT), q.getOrDefault("date","").trim(),
+                    parseInt(q.get("route")), parseLong(q.get("before")), PAGE_SIZE);
+            try (JsonWriter json = JsonWriter.open(ex, 200)) { pageJson(json, rows, b -> bookingJson(json, b)); }
+        }
+
+        private static void status(HttpExchange ex, int id) throws IOException, SQLException {
+            String st = apiParams(ex).getOrDefault("st","").trim().toUpperCase(Locale.ROOT);
+            BusService.Outcome o = BusService.setStatus(id, st);
+            if (o != BusService.Outcome.OK) { outcomeError(ex, o); return; }
+            try (JsonWriter json = JsonWriter.open(ex, 200)) {
+                json.beginObject().field("id", id).field("status", st).endObject();
+            }
+        }
+    }
 }
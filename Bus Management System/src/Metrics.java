@@ -0,0 +1,266 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-route request counts, status codes and latency histograms, plus pool, cache, session
+ * and JVM gauges, written in the Prometheus text format (version 0.0.4) for /metrics.
+ *
+ * {@link #filter} is the outermost filter on every context, so a route's latency covers
+ * role checks, load shedding and gzip. The route label is the registered context path,
+ * never the request URI, so label cardinality stays fixed.
+ *
+ * Latencies go into a log-linear histogram of atomic counters (8 buckets per power of two
+ * of microseconds, about 12% wide), so recording is one increment with no lock.
+ * Quantiles are read from those buckets. The exported le= buckets are sums of the fine
+ * buckets that end at or below each bound, so they can slightly undercount.
+ */
+public final class Metrics {
+
+    private static final double[] LE_SECONDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Map<String, Route> ROUTES = new ConcurrentSkipListMap<>();
+    private static final AtomicInteger active = new AtomicInteger();
+
+    private Metrics() {}
+
+    /** Counts and times every exchange on the context registered at {@code path}. */
+    public static Filter filter(String path) {
+        Route route = ROUTES.computeIfAbsent(path, p -> new Route());
+        return new Filter() {
+            @Override public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+                long start = System.nanoTime();
+                active.incrementAndGet();
+                int code = 500;   // a handler that throws gets no response
+                try {
+                    chain.doFilter(ex);
+                    code = ex.getResponseCode();
+                } finally {
+                    active.decrementAndGet();
+                    route.record(code, System.nanoTime() - start);
+                }
+            }
+            @Override public String description() { return "request metrics"; }
+        };
+    }
+
+    public static int activeRequests() { return active.get(); }
+
+    // ---------- Per-route stats ----------
+
+    private static final class Route {
+        final Map<Integer, LongAdder> codes = new ConcurrentHashMap<>();
+        final Histogram latency = new Histogram();
+
+        void record(int code, long nanos) {
+            codes.computeIfAbsent(code, c -> new LongAdder()).increment();
+            latency.record(nanos / 1000);
+        }
+    }
+
+    /** Log-linear histogram of microsecond values: values below 8 exact, then 8 buckets per doubling. */
+    static final class Histogram {
+        private static final int SUB = 3;                          // 2^3 buckets per power of two
+        private static final int MAX_EXP = 40;                     // ~12 days in microseconds
+        private static final int BUCKETS = ((MAX_EXP - SUB + 1) << SUB) + (1 << SUB);
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sumMicros = new LongAdder();
+
+        void record(long micros) {
+            if (micros < 0) micros = 0;
+            counts.incrementAndGet(index(micros));
+            sumMicros.add(micros);
+        }
+
+        static int index(long v) {
+            if (v < (1 << SUB)) return (int) v;
+            int e = Math.min(63 - Long.numberOfLeadingZeros(v), MAX_EXP);
+            if (e == MAX_EXP) return BUCKETS - 1;
+            return ((e - SUB + 1) << SUB) + (int) ((v >> (e - SUB)) & ((1 << SUB) - 1));
+        }
+
+        /** First value past bucket {@code i}. */
+        static long upper(int i) {
+            if (i < (1 << SUB)) return i + 1;
+            int e = (i >> SUB) + SUB - 1;
+            return ((long) ((1 << SUB) + (i & ((1 << SUB) - 1))) + 1) << (e - SUB);
+        }
+
+        /** One consistent-enough copy of the bucket counts; recording goes on meanwhile. */
+        long[] snapshot() {
+            long[] s = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) s[i] = counts.get(i);
+            return s;
+        }
+
+        static long quantile(long[] snap, long total, double q) {
+            long rank = (long) Math.ceil(q * total), seen = 0;
+            for (int i = 0; i < snap.length; i++) {
+                seen += snap[i];
+                if (seen >= rank && seen > 0) return upper(i) - 1;
+            }
+            return 0;
+        }
+    }
+
+    // ---------- Prometheus text ----------
+
+    /** Writes everything; {@code sessions} and {@code executor} are the running server's. */
+    public static void write(Appendable out, SessionStore sessions, RequestExecutor executor) throws IOException {
+        writeHttp(out, executor);
+        writeDb(out);
+        writeCaches(out, sessions);
+        writeJvm(out);
+    }
+
+    private static void writeHttp(Appendable out, RequestExecutor executor) throws IOException {
+        type(out, "bus_http_requests_total", "counter", "Requests by route and status code");
+        for (Map.Entry<String, Route> r : ROUTES.entrySet()) {
+            for (Map.Entry<Integer, LongAdder> c : new TreeMap<>(r.getValue().codes).entrySet()) {
+                sample(out, "bus_http_requests_total", "route", r.getKey(), "code", String.valueOf(c.getKey()), c.getValue().sum());
+            }
+        }
+
+        type(out, "bus_http_request_duration_seconds", "histogram", "Request latency by route");
+        StringBuilder q = new StringBuilder();
+        for (Map.Entry<String, Route> r : ROUTES.entrySet()) {
+            Histogram h = r.getValue().latency;
+            long[] snap = h.snapshot();
+            long total = 0;
+            for (long c : snap) total += c;
+            if (total == 0) continue;
+            int i = 0;
+            long cumulative = 0;
+            for (double le : LE_SECONDS) {
+                long bound = (long) (le * 1e6);
+                while (i < snap.length && Histogram.upper(i) <= bound) cumulative += snap[i++];
+                sample(out, "bus_http_request_duration_seconds_bucket", "route", r.getKey(), "le", number(le), cumulative);
+            }
+            sample(out, "bus_http_request_duration_seconds_bucket", "route", r.getKey(), "le", "+Inf", total);
+            sample(out, "bus_http_request_duration_seconds_sum", "route", r.getKey(), null, null, h.sumMicros.sum() / 1e6);
+            sample(out, "bus_http_request_duration_seconds_count", "route", r.getKey(), null, null, total);
+            for (double quantile : QUANTILES) {
+                q.append("bus_http_request_duration_quantile_seconds{route=\"").append(escape(r.getKey()))
+                        .append("\",quantile=\"").append(number(quantile)).append("\"} ")
+                        .append(number(Histogram.quantile(snap, total, quantile) / 1e6)).append('\n');
+            }
+        }
+        type(out, "bus_http_request_duration_quantile_seconds", "gauge", "Latency quantiles (p50/p90/p99/p999) since start");
+        out.append(q);
+
+        gauge(out, "bus_http_active_requests", "Requests being handled now", active.get());
+        gauge(out, "bus_executor_in_flight", "Requests queued or running on the executor", executor.inFlight());
+        gauge(out, "bus_executor_max_in_flight", "In-flight cap before shedding", executor.maxInFlight());
+        counter(out, "bus_executor_shed_total", "Requests answered 503 over the in-flight cap", executor.shedCount());
+        counter(out, "bus_executor_rejected_total", "Requests the executor rejected", executor.rejectedCount());
+        counter(out, "bus_gzip_responses_total", "Responses gzipped", CompressionFilter.compressedResponses());
+        counter(out, "bus_gzip_skipped_total", "Responses a gzip client got uncompressed", CompressionFilter.skippedResponses());
+        counter(out, "bus_gzip_bytes_in_total", "Bytes before gzip", CompressionFilter.bytesIn());
+        counter(out, "bus_gzip_bytes_out_total", "Bytes after gzip", CompressionFilter.bytesOut());
+    }
+
+    private static void writeDb(Appendable out) throws IOException {
+        try {
+            ConnectionPool.Stats p = DBUtil.pool().stats();
+            gauge(out, "bus_db_pool_connections", "Read connections created", p.created());
+            gauge(out, "bus_db_pool_in_use", "Read connections borrowed now", p.inUse());
+            gauge(out, "bus_db_pool_idle", "Read connections idle", p.idle());
+            gauge(out, "bus_db_pool_max", "Read pool size cap", p.maxSize());
+            counter(out, "bus_db_pool_borrows_total", "Read connection borrows", p.borrows());
+            gauge(out, "bus_db_pool_wait_avg_seconds", "Mean wait for a read connection", p.avgWaitNanos() / 1e9);
+            gauge(out, "bus_db_pool_wait_max_seconds", "Longest wait for a read connection", p.maxWaitNanos() / 1e9);
+            WriteQueue w = DBUtil.writer();
+            gauge(out, "bus_db_write_queue", "Writes waiting for the writer thread", w.pending());
+            counter(out, "bus_db_writes_total", "Writes applied", w.writeCount());
+            counter(out, "bus_db_commits_total", "Group commits", w.commitCount());
+        } catch (SQLException e) {
+            out.append("# db stats unavailable: ").append(e.getMessage().replace('\n', ' ')).append('\n');
+        }
+    }
+
+    private static void writeCaches(Appendable out, SessionStore sessions) throws IOException {
+        type(out, "bus_cache_entries", "gauge", "Entries held by each reference cache");
+        for (RefCache<?, ?> c : RefData.caches()) sample(out, "bus_cache_entries", "cache", c.name(), null, null, c.size());
+        type(out, "bus_cache_hits_total", "counter", "Reference cache hits");
+        for (RefCache<?, ?> c : RefData.caches()) sample(out, "bus_cache_hits_total", "cache", c.name(), null, null, c.hits());
+        type(out, "bus_cache_misses_total", "counter", "Reference cache misses (loads)");
+        for (RefCache<?, ?> c : RefData.caches()) sample(out, "bus_cache_misses_total", "cache", c.name(), null, null, c.misses());
+        gauge(out, "bus_seatmaps_loaded", "Schedules with a seat bitmap in memory", SeatMap.loaded());
+        gauge(out, "bus_seat_holds_active", "Checkout seat holds not yet booked, released or expired", SeatHolds.active());
+        counter(out, "bus_seat_holds_placed_total", "Seat holds placed", SeatHolds.placed());
+        counter(out, "bus_seat_holds_converted_total", "Seat holds turned into bookings", SeatHolds.converted());
+        counter(out, "bus_seat_holds_expired_total", "Seat holds released by the timer wheel", SeatHolds.expired());
+        gauge(out, "bus_seat_hold_timers", "Timeouts pending on the hold timer wheel", SeatHolds.timers());
+        gauge(out, "bus_waitlist_waiting", "Passengers waiting for a seat on a full schedule", Waitlist.waitingTotal());
+        counter(out, "bus_waitlist_promoted_total", "Waiters given a freed seat", Waitlist.promoted());
+        gauge(out, "bus_sessions_live", "Live sessions", sessions.live());
+        counter(out, "bus_sessions_evictions_total", "Sessions evicted over the cap", sessions.evictions());
+        counter(out, "bus_sessions_expirations_total", "Sessions expired", sessions.expirations());
+    }
+
+    private static void writeJvm(Appendable out) throws IOException {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        gauge(out, "jvm_heap_used_bytes", "Heap in use", heap.getUsed());
+        gauge(out, "jvm_heap_committed_bytes", "Heap committed", heap.getCommitted());
+        gauge(out, "jvm_heap_max_bytes", "Heap limit (-1 if undefined)", heap.getMax());
+        type(out, "jvm_gc_collections_total", "counter", "GC runs by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(out, "jvm_gc_collections_total", "gc", gc.getName(), null, null, gc.getCollectionCount());
+        }
+        type(out, "jvm_gc_seconds_total", "counter", "GC time by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            sample(out, "jvm_gc_seconds_total", "gc", gc.getName(), null, null, gc.getCollectionTime() / 1e3);
+        }
+        gauge(out, "jvm_threads", "Live threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        gauge(out, "process_uptime_seconds", "Seconds since the JVM started", ManagementFactory.getRuntimeMXBean().getUptime() / 1e3);
+    }
+
+    // ---------- Format helpers ----------
+
+    private static void type(Appendable out, String name, String type, String help) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(Appendable out, String name, String help, double v) throws IOException {
+        type(out, name, "gauge", help);
+        sample(out, name, null, null, null, null, v);
+    }
+
+    private static void counter(Appendable out, String name, String help, double v) throws IOException {
+        type(out, name, "counter", help);
+        sample(out, name, null, null, null, null, v);
+    }
+
+    private static void sample(Appendable out, String name, String k1, String v1, String k2, String v2, double v) throws IOException {
+        out.append(name);
+        if (k1 != null) {
+            out.append('{').append(k1).append("=\"").append(escape(v1)).append('"');
+            if (k2 != null) out.append(',').append(k2).append("=\"").append(escape(v2)).append('"');
+            out.append('}');
+        }
+        out.append(' ').append(number(v)).append('\n');
+    }
+
+    private static String number(double v) {
+        return v == Math.rint(v) && Math.abs(v) < 1e15 ? Long.toString((long) v) : Double.toString(v);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
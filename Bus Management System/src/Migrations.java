@@ -0,0 +1,240 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Versioned schema migrations for bus.db.
+ *
+ * Each migration runs once, in order, and is recorded in schema_version. Add new steps at
+ * the end of {@link #ALL} with the next version number; never edit one that has shipped.
+ */
+public class Migrations {
+
+    @FunctionalInterface
+    interface Step { void apply(Connection c) throws SQLException; }
+
+    record Migration(int version, String description, Step step) {}
+
+    /** A query the server runs per request; its plan may only SCAN the aliases listed. */
+    record HotQuery(String name, String sql, Set<String> scanAllowed) {}
+
+    static final List<Migration> ALL = List.of(
+            new Migration(1, "base tables", sql("""
+                CREATE TABLE IF NOT EXISTS users(
+                  username TEXT PRIMARY KEY,
+                  password TEXT NOT NULL,
+                  role     TEXT NOT NULL
+                )""", """
+                CREATE TABLE IF NOT EXISTS buses(
+                  id INTEGER PRIMARY KEY AUTOINCREMENT,
+                  name TEXT NOT NULL,
+                  type TEXT,
+                  capacity INTEGER NOT NULL
+                )""", """
+                CREATE TABLE IF NOT EXISTS routes(
+                  id INTEGER PRIMARY KEY AUTOINCREMENT,
+                  source TEXT NOT NULL,
+                  destination TEXT NOT NULL,
+                  fare REAL NOT NULL
+                )""", """
+                CREATE TABLE IF NOT EXISTS schedules(
+                  id INTEGER PRIMARY KEY AUTOINCREMENT,
+                  bus_id INTEGER NOT NULL,
+                  route_id INTEGER NOT NULL,
+                  date TEXT NOT NULL,
+                  time TEXT NOT NULL,
+                  FOREIGN KEY(bus_id) REFERENCES buses(id) ON DELETE CASCADE,
+                  FOREIGN KEY(route_id) REFERENCES routes(id) ON DELETE CASCADE
+                )""", """
+                CREATE TABLE IF NOT EXISTS bookings(
+                  id INTEGER PRIMARY KEY AUTOINCREMENT,
+                  name TEXT NOT NULL,
+                  phone TEXT NOT NULL,
+                  schedule_id INTEGER NOT NULL,
+                  seat_no INTEGER NOT NULL,
+                  status TEXT NOT NULL,
+                  total REAL NOT NULL,
+                  created_at TEXT DEFAULT CURRENT_TIMESTAMP,
+                  UNIQUE(schedule_id, seat_no),
+                  FOREIGN KEY(schedule_id) REFERENCES schedules(id) ON DELETE CASCADE
+                )""")),
+            new Migration(2, "schedules.booked_count", c -> {
+                if (!columnExists(c, "schedules", "booked_count")) {
+                    exec(c, "ALTER TABLE schedules ADD COLUMN booked_count INTEGER NOT NULL DEFAULT 0");
+                }
+            }),
+            new Migration(3, "search, listing and availability indexes", sql(
+                    // search by date, ordered by time; covers the columns the search page reads
+                    "CREATE INDEX IF NOT EXISTS idx_schedules_date_time ON schedules(date, time, route_id, bus_id, booked_count)",
+                    // search by route (+date) and ON DELETE CASCADE from routes/buses
+                    "CREATE INDEX IF NOT EXISTS idx_schedules_route_date ON schedules(route_id, date, time)",
+                    "CREATE INDEX IF NOT EXISTS idx_schedules_bus ON schedules(bus_id)",
+                    // route matching reads only the index
+                    "CREATE INDEX IF NOT EXISTS idx_routes_src_dst ON routes(source, destination, fare)",
+                    // per-schedule availability recount and booking listings by status
+                    "CREATE INDEX IF NOT EXISTS idx_bookings_schedule_status ON bookings(schedule_id, status)")),
+            new Migration(4, "seat uniqueness only for active bookings", Migrations::activeSeatIndex),
+            new Migration(5, "keyset paging indexes for admin lists", sql(
+                    // each is (filter, id) so "filter=? AND id<? ORDER BY id DESC LIMIT n" reads n entries
+                    "CREATE INDEX IF NOT EXISTS idx_bookings_status_id ON bookings(status, id)",
+                    "CREATE INDEX IF NOT EXISTS idx_schedules_date_id ON schedules(date, id)",
+                    "CREATE INDEX IF NOT EXISTS idx_schedules_route_id ON schedules(route_id, id)")),
+            new Migration(6, "routes.duration_min for journey planning", c -> {
+                if (!columnExists(c, "routes", "duration_min")) {
+                    // existing routes get a rough default; admins can correct it per route
+                    exec(c, "ALTER TABLE routes ADD COLUMN duration_min INTEGER NOT NULL DEFAULT 240");
+                }
+            }),
+            new Migration(7, "recurring schedule rules", c -> {
+                exec(c, """
+                    CREATE TABLE IF NOT EXISTS schedule_rules(
+                      id INTEGER PRIMARY KEY AUTOINCREMENT,
+                      bus_id INTEGER NOT NULL,
+                      route_id INTEGER NOT NULL,
+                      time TEXT NOT NULL,
+                      days INTEGER NOT NULL,
+                      start_date TEXT NOT NULL,
+                      end_date TEXT,
+                      generated_until TEXT,
+                      FOREIGN KEY(bus_id) REFERENCES buses(id) ON DELETE CASCADE,
+                      FOREIGN KEY(route_id) REFERENCES routes(id) ON DELETE CASCADE
+                    )""");
+                // dates an admin removed a generated trip from; generation leaves them out
+                exec(c, """
+                    CREATE TABLE IF NOT EXISTS schedule_rule_skips(
+                      rule_id INTEGER NOT NULL REFERENCES schedule_rules(id) ON DELETE CASCADE,
+                      date TEXT NOT NULL,
+                      PRIMARY KEY(rule_id, date)
+                    ) WITHOUT ROWID""");
+                if (!columnExists(c, "schedules", "rule_id")) {
+                    // trips already sold stay when their rule is deleted
+                    exec(c, "ALTER TABLE schedules ADD COLUMN rule_id INTEGER REFERENCES schedule_rules(id) ON DELETE SET NULL");
+                }
+                // one trip per rule and date: generating a date twice is a no-op
+                exec(c, "CREATE UNIQUE INDEX IF NOT EXISTS ux_schedules_rule_date ON schedules(rule_id, date) WHERE rule_id IS NOT NULL");
+            }),
+            new Migration(8, "waitlist for full schedules", sql("""
+                CREATE TABLE IF NOT EXISTS waitlist(
+                  id INTEGER PRIMARY KEY AUTOINCREMENT,
+                  schedule_id INTEGER NOT NULL REFERENCES schedules(id) ON DELETE CASCADE,
+                  name TEXT NOT NULL,
+                  phone TEXT NOT NULL,
+                  status TEXT NOT NULL DEFAULT 'WAITING',
+                  booking_id INTEGER,
+                  created_at TEXT DEFAULT CURRENT_TIMESTAMP
+                )""",
+                    // queue order per schedule, waiting rows only
+                    "CREATE INDEX IF NOT EXISTS idx_waitlist_waiting ON waitlist(schedule_id, id) WHERE status='WAITING'")),
+            new Migration(9, "drop the unused route matching index", sql(
+                    // routes are matched in memory by RouteIndex now; no query reads this index
+                    "DROP INDEX IF EXISTS idx_routes_src_dst"))
+    );
+
+    public static int latest() { return ALL.get(ALL.size() - 1).version(); }
+
+    /** Applies every pending migration; returns how many ran. Call on the writer connection. */
+    public static int migrate(Connection c) throws SQLException {
+        exec(c, """
+            CREATE TABLE IF NOT EXISTS schema_version(
+              version INTEGER PRIMARY KEY,
+              description TEXT NOT NULL,
+              applied_at TEXT DEFAULT CURRENT_TIMESTAMP
+            )""");
+        int current;
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(version),0) FROM schema_version")) {
+            current = rs.next() ? rs.getInt(1) : 0;
+        }
+        int applied = 0;
+        for (Migration m : ALL) {
+            if (m.version() <= current) continue;
+            try {
+                m.step().apply(c);
+            } catch (SQLException e) {
+                throw new SQLException("migration " + m.version() + " (" + m.description() + ") failed: " + e.getMessage(), e);
+            }
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO schema_version(version,description) VALUES(?,?)")) {
+                ps.setInt(1, m.version()); ps.setString(2, m.description()); ps.executeUpdate();
+            }
+            applied++;
+        }
+        return applied;
+    }
+
+    /**
+     * Runs EXPLAIN QUERY PLAN for each hot query and collects every table scan that is not
+     * explicitly allowed. In strict mode (tests) a scan fails startup, otherwise it is logged.
+     */
+    public static List<String> checkQueryPlans(Connection c, List<HotQuery> queries, boolean strict) throws SQLException {
+        List<String> problems = new ArrayList<>();
+        for (HotQuery q : queries) {
+            try (PreparedStatement ps = c.prepareStatement("EXPLAIN QUERY PLAN " + q.sql());
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String detail = rs.getString("detail");
+                    if (!detail.startsWith("SCAN ")) continue;
+                    String alias = detail.substring(5).split(" ", 2)[0];
+                    if (!q.scanAllowed().contains(alias)) problems.add(q.name() + ": " + detail);
+                }
+            }
+        }
+        if (!problems.isEmpty()) {
+            String msg = "Hot queries fall back to a scan:\n  " + String.join("\n  ", problems);
+            if (strict) throw new SQLException(msg);
+            System.out.println("⚠️ " + msg);
+        }
+        return problems;
+    }
+
+    /**
+     * UNIQUE(schedule_id, seat_no) kept cancelled rows holding their seat forever. SQLite cannot
+     * drop a table constraint, so bookings is rebuilt without it, and a partial unique index now
+     * covers only non-cancelled rows: a cancelled seat can be sold again straight away.
+     */
+    private static void activeSeatIndex(Connection c) throws SQLException {
+        long seq = 0;
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT seq FROM sqlite_sequence WHERE name='bookings'")) {
+            if (rs.next()) seq = rs.getLong(1);
+        }
+        sql("""
+            CREATE TABLE bookings_new(
+              id INTEGER PRIMARY KEY AUTOINCREMENT,
+              name TEXT NOT NULL,
+              phone TEXT NOT NULL,
+              schedule_id INTEGER NOT NULL,
+              seat_no INTEGER NOT NULL,
+              status TEXT NOT NULL,
+              total REAL NOT NULL,
+              created_at TEXT DEFAULT CURRENT_TIMESTAMP,
+              FOREIGN KEY(schedule_id) REFERENCES schedules(id) ON DELETE CASCADE
+            )""",
+            "INSERT INTO bookings_new(id,name,phone,schedule_id,seat_no,status,total,created_at) " +
+                    "SELECT id,name,phone,schedule_id,seat_no,status,total,created_at FROM bookings",
+            "DROP TABLE bookings",
+            "ALTER TABLE bookings_new RENAME TO bookings",
+            "CREATE INDEX idx_bookings_schedule_status ON bookings(schedule_id, status)",
+            "CREATE UNIQUE INDEX ux_bookings_active_seat ON bookings(schedule_id, seat_no) WHERE status!='CANCELLED'"
+        ).apply(c);
+        // keep AUTOINCREMENT from reusing ids of bookings deleted before the rebuild
+        try (PreparedStatement ps = c.prepareStatement("UPDATE sqlite_sequence SET seq=MAX(seq,?) WHERE name='bookings'")) {
+            ps.setLong(1, seq); ps.executeUpdate();
+        }
+    }
+
+    private static Step sql(String... statements) {
+        return c -> { for (String s : statements) exec(c, s); };
+    }
+
+    private static void exec(Connection c, String sql) throws SQLException {
+        try (Statement st = c.createStatement()) { st.executeUpdate(sql); }
+    }
+
+    static boolean columnExists(Connection c, String table, String column) throws SQLException {
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) if (column.equalsIgnoreCase(rs.getString("name"))) return true;
+        }
+        return false;
+    }
+}
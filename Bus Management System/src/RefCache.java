@@ -0,0 +1,155 @@
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small read-through cache: LRU with an entry cap, a TTL as a fallback for edits made outside
+ * the app, and hit/miss counters. Writers call {@link #invalidate}. A load that overlaps an
+ * invalidation is returned to its caller but not stored, so stale rows never stick.
+ *
+ * Loads are single-flight: callers missing the same key wait for the one load in progress
+ * instead of starting their own. A cache built with a refresher never makes a caller wait for
+ * a value it already has: an invalidated or expired entry is still served while one
+ * background load replaces it.
+ */
+public class RefCache<K, V> {
+
+    @FunctionalInterface
+    public interface Loader<K, V> { V load(K key) throws SQLException; }
+
+    private record Entry<V>(V value, long expiresAt, boolean stale) {
+        Entry<V> markStale() { return new Entry<>(value, expiresAt, true); }
+    }
+
+    private final String name;
+    private final Loader<K, V> loader;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Executor refresher;
+    private final LinkedHashMap<K, Entry<V>> map;
+    private final Map<K, CompletableFuture<V>> loading = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long generation;
+
+    public RefCache(String name, int maxEntries, long ttlMillis, Loader<K, V> loader) {
+        this(name, maxEntries, ttlMillis, loader, null);
+    }
+
+    /** With a {@code refresher}, stale entries are reloaded on it while the old value is served. */
+    public RefCache(String name, int maxEntries, long ttlMillis, Loader<K, V> loader, Executor refresher) {
+        this.name = name;
+        this.loader = loader;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.refresher = refresher;
+        this.map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> e) {
+                return size() > RefCache.this.maxEntries;
+            }
+        };
+    }
+
+    /** Cached value, loading it on a miss. Null results are not cached. */
+    public V get(K key) throws SQLException {
+        CompletableFuture<V> f;
+        long gen;
+        boolean running;
+        synchronized (this) {
+            Entry<V> e = map.get(key);
+            if (e != null && (refresher != null || (!e.stale && e.expiresAt - System.nanoTime() > 0))) {
+                if (e.stale || e.expiresAt - System.nanoTime() <= 0) refresh(key);
+                hits.incrementAndGet();
+                return e.value;
+            }
+            if (e != null) map.remove(key);
+            misses.incrementAndGet();
+            f = loading.get(key);
+            running = f != null;
+            if (!running) loading.put(key, f = new CompletableFuture<>());
+            gen = generation;
+        }
+        return running ? await(f) : load(key, f, gen);
+    }
+
+    public synchronized void invalidate(K key) {
+        generation++;
+        if (refresher == null) {
+            map.remove(key);
+            loading.remove(key);
+            return;
+        }
+        Entry<V> e = map.get(key);
+        if (e != null) { map.put(key, e.markStale()); refresh(key); }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        if (refresher == null) {
+            map.clear();
+            loading.clear();
+            return;
+        }
+        map.replaceAll((k, e) -> e.markStale());
+        for (K key : map.keySet()) refresh(key);
+    }
+
+    // Starts a background load unless one is running; one that started before the latest
+    // invalidation still stores its result, marked stale, so the next get loads again
+    private void refresh(K key) {
+        if (loading.containsKey(key)) return;
+        CompletableFuture<V> f = new CompletableFuture<>();
+        loading.put(key, f);
+        long gen = generation;
+        refresher.execute(() -> {
+            try {
+                load(key, f, gen);
+            } catch (SQLException | RuntimeException e) {
+                System.out.println("⚠️ " + name + " cache refresh failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private V load(K key, CompletableFuture<V> f, long gen) throws SQLException {
+        V value;
+        try {
+            value = loader.load(key);
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) { loading.remove(key, f); }
+            f.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            loading.remove(key, f);
+            if (value != null && (gen == generation || refresher != null)) {
+                map.put(key, new Entry<>(value, System.nanoTime() + ttlNanos, gen != generation));
+            }
+        }
+        f.complete(value);
+        return value;
+    }
+
+    private static <V> V await(CompletableFuture<V> f) throws SQLException {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException s) throw s;
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            throw e;
+        }
+    }
+
+    public synchronized int size() { return map.size(); }
+    public String name() { return name; }
+    public long hits() { return hits.get(); }
+    public long misses() { return misses.get(); }
+
+    @Override public String toString() {
+        return String.format("%s size=%d/%d hits=%d misses=%d", name, size(), maxEntries, hits(), misses());
+    }
+}
@@ -0,0 +1,117 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+
+/**
+ * Cached reference data: buses, routes, schedule rows and recurring schedule rules.
+ *
+ * These change only through the admin handlers, which call the invalidate methods after
+ * their write commits. Seat availability is not cached here; it comes from
+ * schedules.booked_count or SeatMap.
+ */
+public class RefData {
+
+    public record Bus(int id, String name, String type, int capacity) {}
+    public record Route(int id, String source, String destination, double fare, int durationMin) {}
+    public record Schedule(int id, int busId, int routeId, String date, String time) {}
+
+    private static final long TTL_MS = Long.getLong("bus.cache.ttlMs", 300_000);
+
+    private static final RefCache<String, Map<Integer, Bus>> BUSES =
+            new RefCache<>("buses", 1, TTL_MS, k -> loadBuses());
+    /** Routes by id plus the search index built from the same snapshot. */
+    private record RouteTable(Map<Integer, Route> byId, RouteIndex index) {}
+
+    private static final RefCache<String, RouteTable> ROUTES =
+            new RefCache<>("routes", 1, TTL_MS, k -> loadRoutes());
+    // Rebuilt off the request thread after a change; plans use the previous index meanwhile
+    private static final RefCache<String, JourneyPlanner> PLANNER =
+            new RefCache<>("planner", 1, TTL_MS, k -> JourneyPlanner.load(), Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "planner-rebuild");
+                t.setDaemon(true);
+                return t;
+            }));
+    private static final RefCache<String, List<ScheduleRules.Rule>> RULES =
+            new RefCache<>("rules", 1, TTL_MS, k -> loadRules());
+    private static final RefCache<Integer, Schedule> SCHEDULES =
+            new RefCache<>("schedules", Integer.getInteger("bus.cache.schedules", 10_000), TTL_MS, RefData::loadSchedule);
+
+    /** All buses, newest first. */
+    public static Collection<Bus> buses() throws SQLException { return BUSES.get("all").values(); }
+    public static Bus bus(int id) throws SQLException { return BUSES.get("all").get(id); }
+
+    /** All routes, newest first. */
+    public static Collection<Route> routes() throws SQLException { return ROUTES.get("all").byId().values(); }
+    public static Route route(int id) throws SQLException { return ROUTES.get("all").byId().get(id); }
+
+    public static Schedule schedule(int id) throws SQLException { return SCHEDULES.get(id); }
+
+    /** Recurring schedule rules, newest first. */
+    public static List<ScheduleRules.Rule> rules() throws SQLException { return RULES.get("all"); }
+
+    /**
+     * Routes matching a source and destination query through {@link RouteIndex}: prefix,
+     * substring, Bengali/Latin spelling and small typos. Empty means any.
+     */
+    public static List<Route> matchRoutes(String source, String destination) throws SQLException {
+        return ROUTES.get("all").index().match(source, destination);
+    }
+
+    /**
+     * Connection-scan index over upcoming schedules. After any change it is rebuilt in the
+     * background, and the previous index is served until the new one is ready.
+     */
+    public static JourneyPlanner planner() throws SQLException { return PLANNER.get("all"); }
+
+    /** Place names (as stored) that a search box entry matches. */
+    public static Set<String> matchPlaces(String query) throws SQLException {
+        return ROUTES.get("all").index().matchingNames(query);
+    }
+
+    // Deleting a bus or route cascades to its schedules and rules
+    public static void invalidateBuses() { BUSES.invalidateAll(); RULES.invalidateAll(); SCHEDULES.invalidateAll(); PLANNER.invalidateAll(); }
+    public static void invalidateRoutes() { ROUTES.invalidateAll(); RULES.invalidateAll(); SCHEDULES.invalidateAll(); PLANNER.invalidateAll(); }
+    public static void invalidateRules() { RULES.invalidateAll(); SCHEDULES.invalidateAll(); PLANNER.invalidateAll(); }
+    public static void invalidateSchedule(int id) { SCHEDULES.invalidate(id); PLANNER.invalidateAll(); }
+    public static void scheduleAdded() { PLANNER.invalidateAll(); }
+
+    public static List<RefCache<?, ?>> caches() { return List.of(BUSES, ROUTES, RULES, SCHEDULES, PLANNER); }
+
+    private static List<ScheduleRules.Rule> loadRules() throws SQLException {
+        try (Connection c = DBUtil.getConnection()) { return ScheduleRules.load(c); }
+    }
+
+    private static Map<Integer, Bus> loadBuses() throws SQLException {
+        Map<Integer, Bus> m = new LinkedHashMap<>();
+        try (Connection c = DBUtil.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id,name,type,capacity FROM buses ORDER BY id DESC")) {
+            while (rs.next()) {
+                m.put(rs.getInt(1), new Bus(rs.getInt(1), rs.getString(2), rs.getString(3) == null ? "" : rs.getString(3), rs.getInt(4)));
+            }
+        }
+        return Collections.unmodifiableMap(m);
+    }
+
+    private static RouteTable loadRoutes() throws SQLException {
+        Map<Integer, Route> m = new LinkedHashMap<>();
+        try (Connection c = DBUtil.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id,source,destination,fare,duration_min FROM routes ORDER BY id DESC")) {
+            while (rs.next()) {
+                m.put(rs.getInt(1), new Route(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getDouble(4), rs.getInt(5)));
+            }
+        }
+        return new RouteTable(Collections.unmodifiableMap(m), new RouteIndex(m.values()));
+    }
+
+    private static Schedule loadSchedule(int id) throws SQLException {
+        try (Connection c = DBUtil.getConnection();
+             PreparedStatement ps = c.prepareStatement("SELECT id,bus_id,route_id,date,time FROM schedules WHERE id=?")) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? new Schedule(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), rs.getString(5)) : null;
+            }
+        }
+    }
+}
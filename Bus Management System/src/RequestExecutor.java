@@ -0,0 +1,128 @@
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor plugged into HttpServer.setExecutor.
+ *
+ * Modes (-Dbus.executor=...):
+ *   virtual - one virtual thread per request (JDK 21+, falls back to pool)
+ *   pool    - fixed platform pool of -Dbus.threads threads
+ *   single  - one worker thread, same behaviour as the default dispatcher
+ *
+ * Every mode caps in-flight requests at -Dbus.maxQueue. Requests above the cap are
+ * still dispatched, but flagged, and {@link #shedFilter()} answers them with 503
+ * before any handler (and any DB work) runs. Above twice the cap the request is
+ * rejected outright and HttpServer drops the connection.
+ */
+public class RequestExecutor implements Executor {
+
+    public enum Mode { VIRTUAL, POOL, SINGLE }
+
+    private static final ThreadLocal<Boolean> SHED = new ThreadLocal<>();
+
+    private final Mode mode;
+    private final ExecutorService delegate;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public RequestExecutor(Mode mode, int threads, int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        ExecutorService virtual = mode == Mode.VIRTUAL ? newVirtualExecutor() : null;
+        if (mode == Mode.VIRTUAL && virtual == null) {
+            System.out.println("Virtual threads not available on this JDK, using pool executor");
+            mode = Mode.POOL;
+        }
+        this.mode = mode;
+        this.delegate = switch (mode) {
+            case VIRTUAL -> virtual;
+            case POOL -> Executors.newFixedThreadPool(Math.max(1, threads), named("http-worker"));
+            case SINGLE -> Executors.newSingleThreadExecutor(named("http-single"));
+        };
+    }
+
+    public static RequestExecutor fromSystemProperties() {
+        Mode mode;
+        try {
+            mode = Mode.valueOf(System.getProperty("bus.executor", "virtual").trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            mode = Mode.VIRTUAL;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Integer.getInteger("bus.threads", Math.max(8, cores * 4));
+        int maxQueue = Integer.getInteger("bus.maxQueue", 512);
+        return new RequestExecutor(mode, threads, maxQueue);
+    }
+
+    @Override public void execute(Runnable task) {
+        int depth = inFlight.incrementAndGet();
+        if (depth > maxInFlight * 2) {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("request queue full");
+        }
+        boolean overload = depth > maxInFlight;
+        if (overload) shed.incrementAndGet();
+        try {
+            delegate.execute(() -> {
+                SHED.set(overload);
+                try { task.run(); }
+                finally { SHED.remove(); inFlight.decrementAndGet(); }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    public void shutdown() { delegate.shutdown(); }
+
+    public Mode mode() { return mode; }
+    public int inFlight() { return inFlight.get(); }
+    public int maxInFlight() { return maxInFlight; }
+    public long shedCount() { return shed.get(); }
+    public long rejectedCount() { return rejected.get(); }
+
+    /** Answers 503 for requests the executor flagged as over the in-flight cap. */
+    public static Filter shedFilter() {
+        return new Filter() {
+            @Override public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+                if (Boolean.TRUE.equals(SHED.get())) {
+                    ex.getResponseHeaders().set("Retry-After", "1");
+                    ex.sendResponseHeaders(503, -1);
+                    ex.close();
+                    return;
+                }
+                chain.doFilter(ex);
+            }
+            @Override public String description() { return "load shedding"; }
+        };
+    }
+
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory named(String prefix) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + n.incrementAndGet());
+            t.setDaemon(false);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,261 @@
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * In-memory search index over route endpoints, built from the routes table by RefData and
+ * rebuilt whenever the route cache is invalidated (add/delete route).
+ *
+ * Every place name, Bengali or Latin, is reduced to a phonetic key: Bengali is transliterated,
+ * then both scripts are folded the same way (aspirates, a/o, doubled letters), so "ঢাকা",
+ * "Dhaka" and "dhakka" share the key "daka". A query matches a place when:
+ *   - it is a prefix of a word of the key (sorted map, for 1-2 letter queries), or
+ *   - it is a substring of the key (trigram postings, for longer ones), or
+ *   - failing both, it is within edit distance 1 (2 from 8 letters) of the key or its prefix.
+ * The fuzzy pass scans the distinct place names only, which stay in the hundreds even when
+ * routes do not. Empty queries match everything, as the old LIKE '%%' did.
+ */
+public final class RouteIndex {
+
+    private final List<RefData.Route> routes;
+    private final String[] keys;                              // place -> phonetic key
+    private final String[] names;                             // place -> name as stored (trimmed)
+    private final String[] lowerNames;                        // place -> name.toLowerCase()
+    private final Map<String, int[]> trigrams = new HashMap<>();
+    private final TreeMap<String, List<Integer>> wordPrefixes = new TreeMap<>();
+    private final int[][] routesFrom;                         // place -> route positions
+    private final int[] destination;                          // route position -> place
+
+    public RouteIndex(Collection<RefData.Route> all) {
+        routes = List.copyOf(all);
+        Map<String, Integer> placeIds = new LinkedHashMap<>();
+        destination = new int[routes.size()];
+        List<List<Integer>> from = new ArrayList<>();
+        for (int i = 0; i < routes.size(); i++) {
+            RefData.Route r = routes.get(i);
+            int src = place(placeIds, from, r.source());
+            destination[i] = place(placeIds, from, r.destination());
+            from.get(src).add(i);
+        }
+        int n = placeIds.size();
+        keys = new String[n];
+        names = new String[n];
+        lowerNames = new String[n];
+        routesFrom = new int[n][];
+        Map<String, List<Integer>> postings = new HashMap<>();
+        for (Map.Entry<String, Integer> e : placeIds.entrySet()) {
+            int p = e.getValue();
+            keys[p] = key(e.getKey());
+            names[p] = e.getKey();
+            lowerNames[p] = e.getKey().toLowerCase(Locale.ROOT);
+            routesFrom[p] = from.get(p).stream().mapToInt(Integer::intValue).toArray();
+            for (String g : grams(keys[p])) postings.computeIfAbsent(g, k -> new ArrayList<>()).add(p);
+            for (int i = 0; i < keys[p].length(); i++) {
+                if (i == 0 || keys[p].charAt(i - 1) == ' ') {
+                    wordPrefixes.computeIfAbsent(keys[p].substring(i), k -> new ArrayList<>()).add(p);
+                }
+            }
+        }
+        postings.forEach((g, ps) -> trigrams.put(g, ps.stream().mapToInt(Integer::intValue).distinct().toArray()));
+    }
+
+    private static int place(Map<String, Integer> ids, List<List<Integer>> from, String name) {
+        return ids.computeIfAbsent(name.trim(), k -> { from.add(new ArrayList<>()); return from.size() - 1; });
+    }
+
+    /** Routes whose source matches {@code source} and destination matches {@code destination}. */
+    public List<RefData.Route> match(String source, String destination) {
+        BitSet src = places(source), dst = places(destination);
+        List<RefData.Route> out = new ArrayList<>();
+        for (int p = src.nextSetBit(0); p >= 0; p = src.nextSetBit(p + 1)) {
+            for (int r : routesFrom[p]) if (dst.get(this.destination[r])) out.add(routes.get(r));
+        }
+        out.sort(Comparator.comparingInt(RefData.Route::id).reversed());
+        return out;
+    }
+
+    /** Stored place names matching one query field. */
+    public Set<String> matchingNames(String query) {
+        BitSet hit = places(query);
+        Set<String> out = new LinkedHashSet<>();
+        for (int p = hit.nextSetBit(0); p >= 0; p = hit.nextSetBit(p + 1)) out.add(names[p]);
+        return out;
+    }
+
+    /** Place ids matching one query field. */
+    BitSet places(String query) {
+        BitSet hit = new BitSet(keys.length);
+        String raw = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        if (raw.isEmpty()) { hit.set(0, keys.length); return hit; }
+        String q = key(raw);
+        if (q.length() < 3) {
+            // every key that starts with q sorts between q and q + U+FFFF
+            for (List<Integer> ps : wordPrefixes.subMap(q, true, q + '\uffff', true).values()) ps.forEach(hit::set);
+        } else {
+            candidates(q).forEach(p -> { if (keys[p].contains(q)) hit.set(p); });
+        }
+        for (int p = 0; p < keys.length && hit.isEmpty(); p++) {
+            if (lowerNames[p].contains(raw)) hit.set(p);
+        }
+        if (hit.isEmpty() && q.length() >= 4) {
+            int max = q.length() >= 8 ? 2 : 1;
+            for (int p = 0; p < keys.length; p++) if (near(q, keys[p], max)) hit.set(p);
+        }
+        return hit;
+    }
+
+    /** Places holding every trigram of q (intersection of the postings). */
+    private Set<Integer> candidates(String q) {
+        Set<Integer> out = null;
+        for (String g : grams(q)) {
+            int[] ps = trigrams.get(g);
+            if (ps == null) return Set.of();
+            Set<Integer> s = new HashSet<>();
+            for (int p : ps) if (out == null || out.contains(p)) s.add(p);
+            out = s;
+        }
+        return out == null ? Set.of() : out;
+    }
+
+    private static List<String> grams(String key) {
+        List<String> g = new ArrayList<>();
+        for (int i = 0; i + 3 <= key.length(); i++) g.add(key.substring(i, i + 3));
+        return g;
+    }
+
+    /** Whole key, or its prefix of about q's length, within {@code max} edits of q. */
+    private static boolean near(String q, String key, int max) {
+        if (distance(q, key, max) <= max) return true;
+        for (int len = q.length() - max; len <= q.length() + max; len++) {
+            if (len > 0 && len < key.length() && distance(q, key.substring(0, len), max) <= max) return true;
+        }
+        return false;
+    }
+
+    /** Levenshtein distance, giving up (returning max + 1) once it must exceed max. */
+    static int distance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) return max + 1;
+        int[] prev = new int[b.length() + 1], cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) prev[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (rowMin > max) return max + 1;
+            int[] t = prev; prev = cur; cur = t;
+        }
+        return prev[b.length()];
+    }
+
+    // ---------- normalisation ----------
+
+    /** Phonetic key shared by Bengali and Latin spellings of a place name. */
+    static String key(String name) {
+        String latin = transliterate(Normalizer.normalize(name.toLowerCase(Locale.ROOT), Normalizer.Form.NFD));
+        StringBuilder sb = new StringBuilder(latin.length());
+        for (int i = 0; i < latin.length(); i++) {
+            char c = latin.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') sb.append(c);
+            else if ((Character.isWhitespace(c) || c == '-' || c == ',') && sb.length() > 0 && sb.charAt(sb.length() - 1) != ' ') sb.append(' ');
+            // anything else (apostrophes, Latin accents after NFD) is dropped
+        }
+        String s = sb.toString().trim()
+                .replace("oo", "u").replace("ee", "i")
+                .replace("ph", "f").replace('z', 'j').replace('q', 'k').replace('v', 'b').replace('w', 'o')
+                .replace('y', 'i').replace('o', 'a');
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            char prev = out.length() == 0 ? ' ' : out.charAt(out.length() - 1);
+            if (c == prev && c != ' ') continue;                                  // doubled letters
+            if (c == 'h' && prev != ' ' && "aeiu".indexOf(prev) < 0) continue;   // kh, dh, sh, chh ...
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    private static final String[] CONSONANTS = new String[0x80];
+    private static final String[] VOWELS = new String[0x80];       // independent vowels
+    private static final String[] SIGNS = new String[0x80];        // dependent vowel signs
+    static {
+        String[][] consonants = {
+                {"ক", "k"}, {"খ", "kh"}, {"গ", "g"}, {"ঘ", "gh"}, {"ঙ", "ng"},
+                {"চ", "ch"}, {"ছ", "chh"}, {"জ", "j"}, {"ঝ", "jh"}, {"ঞ", "n"},
+                {"ট", "t"}, {"ঠ", "th"}, {"ড", "d"}, {"ঢ", "dh"}, {"ণ", "n"},
+                {"ত", "t"}, {"থ", "th"}, {"দ", "d"}, {"ধ", "dh"}, {"ন", "n"},
+                {"প", "p"}, {"ফ", "ph"}, {"ব", "b"}, {"ভ", "bh"}, {"ম", "m"},
+                {"য", "j"}, {"র", "r"}, {"ল", "l"}, {"শ", "sh"}, {"ষ", "sh"},
+                {"স", "s"}, {"হ", "h"}, {"ড়", "r"}, {"ঢ়", "rh"}, {"য়", "y"},
+        };
+        String[][] vowels = {
+                {"অ", "o"}, {"আ", "a"}, {"ই", "i"}, {"ঈ", "i"}, {"উ", "u"},
+                {"ঊ", "u"}, {"ঋ", "ri"}, {"এ", "e"}, {"ঐ", "oi"}, {"ও", "o"},
+                {"ঔ", "ou"},
+        };
+        String[][] signs = {
+                {"া", "a"}, {"ি", "i"}, {"ী", "i"}, {"ু", "u"}, {"ূ", "u"},
+                {"ৃ", "ri"}, {"ে", "e"}, {"ৈ", "oi"}, {"ো", "o"}, {"ৌ", "ou"},
+        };
+        for (String[] c : consonants) CONSONANTS[c[0].charAt(0) - 0x980] = c[1];
+        for (String[] v : vowels) VOWELS[v[0].charAt(0) - 0x980] = v[1];
+        for (String[] s : signs) SIGNS[s[0].charAt(0) - 0x980] = s[1];
+    }
+
+    private static String bengali(String[] table, char c) {
+        return c >= 0x980 && c < 0xA00 ? table[c - 0x980] : null;
+    }
+
+    /**
+     * Romanises Bengali letters (other text passes through). A consonant with no vowel sign
+     * or virama carries the inherent "o", except at the end of a word and, as in speech, between
+     * two voiced syllables: চট্টগ্রাম -> "chottogram", খুলনা -> "khulna", ময়মনসিংহ -> "moymonsingh".
+     */
+    static String transliterate(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        boolean prevVowel = false;   // did the previous syllable end in a vowel
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String base = bengali(CONSONANTS, c);
+            if (base == null) {
+                String v = bengali(VOWELS, c);
+                if (v != null) sb.append(v);
+                else if (c == '\u0982') sb.append("ng");                   // anusvara
+                else if (c == '\u0983') sb.append('h');                    // visarga
+                else if (c == '\u09CE') sb.append('t');                    // khanda ta
+                else if (c >= '\u09E6' && c <= '\u09EF') sb.append((char) ('0' + c - '\u09E6'));
+                else if (bengali(SIGNS, c) != null) sb.append(bengali(SIGNS, c));
+                else if (c < 0x980 || c >= 0xA00) sb.append(c);
+                // other marks (chandrabindu, stray nukta, au length mark) are dropped
+                prevVowel = v != null;
+                continue;
+            }
+            if (i + 1 < s.length() && s.charAt(i + 1) == '\u09BC') {       // nukta, NFD splits ড় ঢ় য়
+                base = c == '\u09A1' ? "r" : c == '\u09A2' ? "rh" : c == '\u09AF' ? "y" : base;
+                i++;
+            }
+            sb.append(base);
+            char next = charAt(s, i + 1);
+            String sign = bengali(SIGNS, next);
+            if (sign != null) { sb.append(sign); i++; prevVowel = true; continue; }
+            if (next == '\u09CD') { i++; prevVowel = false; continue; }    // virama: no vowel
+            boolean inherent = bengali(CONSONANTS, next) != null || bengali(VOWELS, next) != null;
+            if (inherent && prevVowel && bengali(CONSONANTS, next) != null && voicedAfter(s, i + 1)) inherent = false;
+            if (inherent) sb.append('o');
+            prevVowel = inherent;
+        }
+        return sb.toString();
+    }
+
+    /** Whether the consonant at {@code i} is followed by a vowel of its own (sign or inherent). */
+    private static boolean voicedAfter(String s, int i) {
+        int j = i + 1;
+        if (charAt(s, j) == '\u09BC') j++;
+        char after = charAt(s, j);
+        return bengali(SIGNS, after) != null || bengali(CONSONANTS, after) != null || bengali(VOWELS, after) != null;
+    }
+
+    private static char charAt(String s, int i) { return i < s.length() ? s.charAt(i) : ' '; }
+}
@@ -0,0 +1,225 @@
+import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recurring schedules: "this bus, this route, 09:00 every day except Friday, until 31 March".
+ *
+ * A rule is one schedule_rules row. Its trips are ordinary schedules rows (rule_id set), so
+ * search, booking and seat maps need no special case. Trips are generated lazily: a background
+ * job keeps the next -Dbus.rules.windowDays (default 14) days filled in, and a search or plan
+ * for a later date generates that date on first use (at most -Dbus.rules.maxDays ahead). Years
+ * of future trips are never written up front. (rule_id, date) is unique, so generating twice
+ * is harmless. A generated trip an admin deletes is recorded in schedule_rule_skips and not
+ * generated again.
+ */
+public final class ScheduleRules {
+
+    /** days: bit 0 = Monday ... bit 6 = Sunday. end is null for an open-ended rule. */
+    public record Rule(int id, int busId, int routeId, String time, int days, LocalDate start, LocalDate end) {
+        public boolean runsOn(LocalDate d) {
+            return !d.isBefore(start) && (end == null || !d.isAfter(end)) && (days & bit(d)) != 0;
+        }
+    }
+
+    public static final int EVERY_DAY = 0x7f;
+    static final int WINDOW_DAYS = Integer.getInteger("bus.rules.windowDays", 14);
+    static final int MAX_DAYS = Integer.getInteger("bus.rules.maxDays", 366);
+    private static final int MAX_ENSURED = 4096;
+    private static final String[] DAY_NAMES = {"সোম", "মঙ্গল", "বুধ", "বৃহস্পতি", "শুক্র", "শনি", "রবি"};
+
+    static final String INSERT_SQL = """
+        INSERT OR IGNORE INTO schedules(bus_id,route_id,date,time,rule_id)
+        SELECT ?,?,?,?,? WHERE NOT EXISTS (SELECT 1 FROM schedule_rule_skips WHERE rule_id=? AND date=?)""";
+
+    private static volatile LocalDate windowEnd = LocalDate.MIN;   // every rule is generated through this date
+    private static final Set<LocalDate> ensured = ConcurrentHashMap.newKeySet();   // later dates done on demand
+    private static final AtomicLong rulesVersion = new AtomicLong();
+    private static final AtomicLong generated = new AtomicLong();
+
+    private ScheduleRules() {}
+
+    static int bit(LocalDate d) { return 1 << (d.getDayOfWeek().getValue() - 1); }
+
+    /**
+     * Day mask from values like "MON", "mon,tue", "1" (Monday) .. "7", or "daily"; -1 if any
+     * value is not a day, 0 if none were given.
+     */
+    public static int days(Collection<String> values) {
+        int mask = 0;
+        for (String v : values) {
+            for (String t : v.split(",")) {
+                t = t.trim().toUpperCase(Locale.ROOT);
+                if (t.isEmpty()) continue;
+                if (t.equals("DAILY")) { mask |= EVERY_DAY; continue; }
+                int day = -1;
+                if (t.matches("[1-7]")) day = t.charAt(0) - '1';
+                else for (DayOfWeek d : DayOfWeek.values()) if (t.length() >= 3 && d.name().startsWith(t)) day = d.ordinal();
+                if (day < 0) return -1;
+                mask |= 1 << day;
+            }
+        }
+        return mask;
+    }
+
+    /** "প্রতিদিন" or the day names in the mask. */
+    public static String describe(int days) {
+        if ((days & EVERY_DAY) == EVERY_DAY) return "প্রতিদিন";
+        StringJoiner j = new StringJoiner(", ");
+        for (int i = 0; i < 7; i++) if ((days & (1 << i)) != 0) j.add(DAY_NAMES[i]);
+        return j.toString();
+    }
+
+    public static String dayName(int i) { return DAY_NAMES[i]; }
+
+    /** Null if a new rule is valid, else what is wrong with it. */
+    public static String check(int busId, int routeId, String time, int days, String start, String end) throws SQLException {
+        if (RefData.bus(busId) == null) return "no bus " + busId;
+        if (RefData.route(routeId) == null) return "no route " + routeId;
+        if (days <= 0) return "no valid days";
+        try {
+            LocalTime.parse(time);
+            LocalDate from = LocalDate.parse(start);
+            if (!end.isEmpty() && LocalDate.parse(end).isBefore(from)) return "end date before start date";
+        } catch (DateTimeParseException e) {
+            return "dates must be yyyy-MM-dd and time HH:mm";
+        }
+        return null;
+    }
+
+    // ---------- generation ----------
+
+    /** {@link #ensure(LocalDate, int)} for a date as typed; an unparsable date has nothing to generate. */
+    public static void ensure(String date, int days) throws SQLException {
+        LocalDate d;
+        try { d = LocalDate.parse(date.trim()); } catch (DateTimeParseException e) { return; }
+        ensure(d, days);
+    }
+
+    /** Makes sure trips exist for {@code days} dates from {@code from}; a no-op inside the window. */
+    public static void ensure(LocalDate from, int days) throws SQLException {
+        LocalDate today = LocalDate.now(), last = today.plusDays(MAX_DAYS);
+        List<LocalDate> todo = new ArrayList<>(days);
+        for (int i = 0; i < days; i++) {
+            LocalDate d = from.plusDays(i);
+            if (d.isBefore(today) || !d.isAfter(windowEnd) || d.isAfter(last) || ensured.contains(d)) continue;
+            todo.add(d);
+        }
+        if (todo.isEmpty()) return;
+        long version = rulesVersion.get();
+        List<Rule> rules = RefData.rules();
+        if (!rules.isEmpty()) {
+            int n = DBUtil.write(c -> {
+                try (PreparedStatement ps = c.prepareStatement(INSERT_SQL)) {
+                    int rows = 0;
+                    for (LocalDate d : todo) for (Rule r : rules) if (r.runsOn(d)) { add(ps, r, d); rows++; }
+                    return rows == 0 ? 0 : inserted(ps.executeBatch());
+                }
+            });
+            if (n > 0) { generated.addAndGet(n); RefData.scheduleAdded(); }
+        }
+        // a rule added meanwhile was not in this snapshot, so these dates stay open for it
+        if (rulesVersion.get() != version) return;
+        if (ensured.size() > MAX_ENSURED) ensured.clear();
+        ensured.addAll(todo);
+    }
+
+    /** Fills every rule in through today + window, from where it last stopped. */
+    public static int refreshWindow() throws SQLException {
+        LocalDate today = LocalDate.now(), until = today.plusDays(WINDOW_DAYS - 1);
+        int n = DBUtil.write(c -> {
+            List<Rule> rules = new ArrayList<>();
+            Map<Integer, LocalDate> done = new HashMap<>();
+            try (Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT id,bus_id,route_id,time,days,start_date,end_date,generated_until FROM schedule_rules")) {
+                while (rs.next()) {
+                    Rule r = rule(rs);
+                    rules.add(r);
+                    if (rs.getString(8) != null) done.put(r.id(), LocalDate.parse(rs.getString(8)));
+                }
+            }
+            int rows = 0, inserted = 0;
+            try (PreparedStatement ps = c.prepareStatement(INSERT_SQL)) {
+                for (Rule r : rules) {
+                    LocalDate d = max(today, r.start());
+                    if (done.containsKey(r.id())) d = max(d, done.get(r.id()).plusDays(1));
+                    for (; !d.isAfter(until); d = d.plusDays(1)) if (r.runsOn(d)) { add(ps, r, d); rows++; }
+                }
+                if (rows > 0) inserted = inserted(ps.executeBatch());
+            }
+            try (PreparedStatement ps = c.prepareStatement(
+                    "UPDATE schedule_rules SET generated_until=? WHERE generated_until IS NULL OR generated_until<?")) {
+                ps.setString(1, until.toString()); ps.setString(2, until.toString()); ps.executeUpdate();
+            }
+            return inserted;
+        });
+        windowEnd = until;
+        if (n > 0) { generated.addAndGet(n); RefData.scheduleAdded(); }
+        return n;
+    }
+
+    /** Called after a rule is added or deleted: on-demand dates must be generated again. */
+    static void rulesChanged() {
+        rulesVersion.incrementAndGet();
+        ensured.clear();
+    }
+
+    /** Generates the window now and then every -Dbus.rules.refreshMinutes (default 60). */
+    public static void start() throws SQLException {
+        refreshWindow();
+        long every = Long.getLong("bus.rules.refreshMinutes", 60);
+        ScheduledExecutorService job = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "schedule-rules");
+            t.setDaemon(true);
+            return t;
+        });
+        job.scheduleAtFixedRate(() -> {
+            try {
+                refreshWindow();
+                SeatMap.evictDeparted(LocalDate.now().toString());
+            } catch (SQLException | RuntimeException e) { System.out.println("⚠️ schedule rules: " + e.getMessage()); }
+        }, every, every, TimeUnit.MINUTES);
+    }
+
+    public static String summary() throws SQLException {
+        return RefData.rules().size() + " recurring rule(s), generated through " + windowEnd
+                + ", " + generated.get() + " trip(s) generated";
+    }
+
+    static List<Rule> load(Connection c) throws SQLException {
+        List<Rule> rules = new ArrayList<>();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id,bus_id,route_id,time,days,start_date,end_date FROM schedule_rules ORDER BY id DESC")) {
+            while (rs.next()) rules.add(rule(rs));
+        }
+        return Collections.unmodifiableList(rules);
+    }
+
+    private static Rule rule(ResultSet rs) throws SQLException {
+        String end = rs.getString(7);
+        return new Rule(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), rs.getInt(5),
+                LocalDate.parse(rs.getString(6)), end == null || end.isEmpty() ? null : LocalDate.parse(end));
+    }
+
+    private static void add(PreparedStatement ps, Rule r, LocalDate d) throws SQLException {
+        ps.setInt(1, r.busId()); ps.setInt(2, r.routeId()); ps.setString(3, d.toString()); ps.setString(4, r.time());
+        ps.setInt(5, r.id()); ps.setInt(6, r.id()); ps.setString(7, d.toString());
+        ps.addBatch();
+    }
+
+    private static int inserted(int[] counts) {
+        int n = 0;
+        for (int c : counts) if (c > 0) n += c;
+        return n;
+    }
+
+    private static LocalDate max(LocalDate a, LocalDate b) { return a.isAfter(b) ? a : b; }
+}
@@ -0,0 +1,191 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short seat holds during checkout, in memory only.
+ *
+ * Choosing seats claims them in SeatMap for -Dbus.hold.ttlSec (default 180) under the
+ * passenger's session; submitting the booking form turns the hold into bookings without
+ * claiming again. A hold that is not used is released by one {@link TimerWheel} rather than a
+ * thread or a DB poll per hold. Held seats count as taken in the seat bitmap and in the
+ * available counts, so a crowd after the same seats is turned away when it picks them, not
+ * by a failed INSERT at submit. A session has at most one hold per schedule; holding again
+ * replaces it. Holds are lost on restart, which only frees the seats early. Seats a hold
+ * gives back go to the schedule's {@link Waitlist} first.
+ */
+public final class SeatHolds {
+
+    public static final int TTL_SEC = Integer.getInteger("bus.hold.ttlSec", 180);
+
+    private static final class Hold {
+        final String owner;
+        final int scheduleId;
+        final int[] seats;
+        final long expiresAt;
+        volatile TimerWheel.Timeout timeout;
+
+        Hold(String owner, int scheduleId, int[] seats, long expiresAt) {
+            this.owner = owner; this.scheduleId = scheduleId; this.seats = seats; this.expiresAt = expiresAt;
+        }
+    }
+
+    // Whoever removes a hold from OWNERS (convert, replace, expire) owns its seat claims;
+    // HELD is the per-schedule index SeatMap and the available counts read.
+    private static final ConcurrentHashMap<String, Hold> OWNERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, ConcurrentHashMap<Integer, Hold>> HELD = new ConcurrentHashMap<>();
+    private static final TimerWheel WHEEL = new TimerWheel("seat-holds",
+            Long.getLong("bus.hold.tickMs", 250), TimeUnit.MILLISECONDS, 512);
+    private static final AtomicLong placed = new AtomicLong(), converted = new AtomicLong(), expired = new AtomicLong();
+
+    private SeatHolds() {}
+
+    private static String key(String owner, int scheduleId) { return scheduleId + "/" + owner; }
+
+    /**
+     * Claims every seat for {@code owner}, all or nothing, replacing the owner's earlier hold
+     * on this schedule. Seats that hold already has stay claimed throughout; the rest of it is
+     * given back only once every new seat is claimed, so a failed request leaves the earlier
+     * hold as it was. INVALID for a repeated seat, SEAT_TAKEN if a seat is booked or held by
+     * someone else.
+     */
+    static BusService.Outcome hold(String owner, SeatMap.Seats map, int scheduleId, int[] seats) {
+        for (int i = 0; i < seats.length; i++) {
+            for (int j = 0; j < i; j++) if (seats[j] == seats[i]) return BusService.Outcome.INVALID;
+        }
+        String key = key(owner, scheduleId);
+        while (true) {
+            Hold prev = OWNERS.get(key);
+            boolean[] claimed = new boolean[seats.length];
+            for (int i = 0; i < seats.length; i++) {
+                if (prev != null && contains(prev.seats, seats[i])) continue;
+                if (!map.claim(seats[i])) {
+                    for (int j = 0; j < i; j++) if (claimed[j]) map.release(seats[j]);
+                    return BusService.Outcome.SEAT_TAKEN;
+                }
+                claimed[i] = true;
+            }
+            // whoever removes prev from OWNERS owns its claims; if it ended meanwhile
+            // (expired, booked, replaced), its seats are not ours: undo and start again
+            if (prev != null && !OWNERS.remove(key, prev)) {
+                for (int i = 0; i < seats.length; i++) if (claimed[i]) map.release(seats[i]);
+                continue;
+            }
+            Hold h = new Hold(owner, scheduleId, seats.clone(), System.currentTimeMillis() + TTL_SEC * 1000L);
+            HELD.compute(scheduleId, (k, m) -> {
+                if (m == null) m = new ConcurrentHashMap<>();
+                for (int seat : h.seats) m.put(seat, h);
+                return m;
+            });
+            if (prev != null) {
+                cancel(prev);
+                boolean freed = false;
+                for (int seat : prev.seats) {
+                    if (contains(h.seats, seat)) continue;
+                    unindex(prev, seat);
+                    SeatMap.release(scheduleId, seat);
+                    freed = true;
+                }
+                if (freed) Waitlist.seatsFreed(scheduleId);
+            }
+            // the same session holding twice at once: the loser's seats go back
+            Hold raced = OWNERS.put(key, h);
+            if (raced != null) free(raced);
+            h.timeout = WHEEL.schedule(() -> expire(h), TTL_SEC, TimeUnit.SECONDS);
+            placed.incrementAndGet();
+            return BusService.Outcome.OK;
+        }
+    }
+
+    /**
+     * Ends the owner's hold on this schedule for a booking of {@code seats}. Returns which of
+     * them were held: those stay claimed in SeatMap for the booking; held seats not asked for
+     * are released.
+     */
+    static boolean[] take(String owner, int scheduleId, int[] seats) {
+        boolean[] held = new boolean[seats.length];
+        Hold h = owner == null ? null : OWNERS.remove(key(owner, scheduleId));
+        if (h == null) return held;
+        cancel(h);
+        boolean freed = false;
+        for (int seat : h.seats) {
+            unindex(h, seat);
+            boolean wanted = false;
+            for (int i = 0; i < seats.length; i++) if (seats[i] == seat) { held[i] = true; wanted = true; }
+            if (!wanted) { SeatMap.release(scheduleId, seat); freed = true; }
+        }
+        if (freed) Waitlist.seatsFreed(scheduleId);
+        converted.incrementAndGet();
+        return held;
+    }
+
+    /** Gives the owner's seats on this schedule back; false if there was no hold. */
+    public static boolean release(String owner, int scheduleId) {
+        Hold h = OWNERS.remove(key(owner, scheduleId));
+        if (h == null) return false;
+        free(h);
+        Waitlist.seatsFreed(scheduleId);
+        return true;
+    }
+
+    /** Seats the owner holds on this schedule, in the order chosen; empty if none. */
+    public static int[] heldBy(String owner, int scheduleId) {
+        Hold h = owner == null ? null : OWNERS.get(key(owner, scheduleId));
+        return h == null ? new int[0] : h.seats.clone();
+    }
+
+    /** Seconds left on the owner's hold on this schedule, 0 if none. */
+    public static long secondsLeft(String owner, int scheduleId) {
+        Hold h = owner == null ? null : OWNERS.get(key(owner, scheduleId));
+        return h == null ? 0 : Math.max(0, (h.expiresAt - System.currentTimeMillis() + 999) / 1000);
+    }
+
+    /** Seats currently held on a schedule; SeatMap claims these again when it reloads. */
+    public static Set<Integer> held(int scheduleId) {
+        ConcurrentHashMap<Integer, Hold> m = HELD.get(scheduleId);
+        return m == null ? Set.of() : m.keySet();
+    }
+
+    public static int count(int scheduleId) {
+        ConcurrentHashMap<Integer, Hold> m = HELD.get(scheduleId);
+        return m == null ? 0 : m.size();
+    }
+
+    public static int active() { return OWNERS.size(); }
+    public static long placed() { return placed.get(); }
+    public static long converted() { return converted.get(); }
+    public static long expired() { return expired.get(); }
+    public static long timers() { return WHEEL.pending(); }
+
+    // Runs on the wheel thread; a hold converted or replaced meanwhile is no longer in OWNERS
+    private static void expire(Hold h) {
+        if (!OWNERS.remove(key(h.owner, h.scheduleId), h)) return;
+        for (int seat : h.seats) { unindex(h, seat); SeatMap.release(h.scheduleId, seat); }
+        expired.incrementAndGet();
+        Waitlist.seatsFreed(h.scheduleId);
+    }
+
+    private static void free(Hold h) {
+        cancel(h);
+        for (int seat : h.seats) { unindex(h, seat); SeatMap.release(h.scheduleId, seat); }
+    }
+
+    private static boolean contains(int[] seats, int seat) {
+        for (int s : seats) if (s == seat) return true;
+        return false;
+    }
+
+    private static void cancel(Hold h) {
+        TimerWheel.Timeout t = h.timeout;
+        if (t != null) t.cancel();
+    }
+
+    // Under the schedule's bin lock, so an emptied map is never dropped while a hold goes in
+    private static void unindex(Hold h, int seat) {
+        HELD.computeIfPresent(h.scheduleId, (k, m) -> {
+            m.remove(seat, h);
+            return m.isEmpty() ? null : m;
+        });
+    }
+}
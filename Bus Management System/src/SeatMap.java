@@ -0,0 +1,203 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory seat bitmap per schedule, one bit per seat.
+ *
+ * A schedule's bitmap is loaded from its active bookings the first time it is needed, on a
+ * pooled reader connection, so a page view never waits for the writer. Concurrent loads
+ * resolve to the first one published. A booking change that finds no bitmap to update
+ * (it committed while a load was reading) is counted, and a load that sees the count move
+ * is thrown away and read again; after a few tries it loads on the writer thread, which is
+ * ordered against every commit. After that, seats are claimed and released with CAS, and a
+ * contended seat is rejected here instead of by a failed INSERT. The UNIQUE index is still
+ * the final authority: callers release a claim whose insert did not commit. Seats in a
+ * checkout hold (SeatHolds) are claimed too, and claimed again when a bitmap is reloaded.
+ *
+ * At most -Dbus.seatmap.maxEntries (default 50000) bitmaps stay in memory. Past that, the
+ * bitmaps of departed schedules go first, then the least recently used; ScheduleRules'
+ * hourly job also drops departed ones. A dropped bitmap is simply loaded again if needed.
+ */
+public class SeatMap {
+
+    private static final int MAX_ENTRIES = Integer.getInteger("bus.seatmap.maxEntries", 50_000);
+    private static final int READ_TRIES = 3;
+
+    private static final ConcurrentHashMap<Integer, Seats> SCHEDULES = new ConcurrentHashMap<>();
+    private static final Object evictLock = new Object();
+    // booking changes that found no bitmap to apply to; a load that overlaps one is redone
+    private static final AtomicLong unapplied = new AtomicLong();
+
+    /** Bitmap for a schedule, or null if the schedule does not exist. */
+    public static Seats get(int scheduleId) throws SQLException {
+        Seats s = SCHEDULES.get(scheduleId);
+        if (s != null) { s.touch(); return s; }
+        for (int i = 0; i < READ_TRIES; i++) {
+            long seen = unapplied.get();
+            Seats loaded;
+            try (Connection c = DBUtil.getConnection()) { loaded = load(c, scheduleId); }
+            if (loaded == null) return null;
+            Seats won = SCHEDULES.putIfAbsent(scheduleId, loaded);
+            if (won != null) return won;
+            // published first, checked after: a change that came later was applied to it
+            if (unapplied.get() == seen) {
+                if (SCHEDULES.size() > MAX_ENTRIES) evictOverCap();
+                return loaded;
+            }
+            SCHEDULES.remove(scheduleId, loaded);
+        }
+        return DBUtil.write(c -> {
+            Seats loaded = SCHEDULES.get(scheduleId);
+            if (loaded != null) return loaded;
+            loaded = load(c, scheduleId);
+            if (loaded != null) SCHEDULES.put(scheduleId, loaded);
+            return loaded;
+        });
+    }
+
+    /** Releases a seat if that schedule's bitmap is loaded; a later load reads the DB anyway. */
+    public static void release(int scheduleId, int seat) {
+        Seats s = SCHEDULES.get(scheduleId);
+        if (s != null) s.release(seat); else unapplied.incrementAndGet();
+    }
+
+    public static void claim(int scheduleId, int seat) {
+        Seats s = SCHEDULES.get(scheduleId);
+        if (s != null) s.claim(seat); else unapplied.incrementAndGet();
+    }
+
+    /** The bitmap if it is loaded, else null; never loads. */
+    public static Seats peek(int scheduleId) { return SCHEDULES.get(scheduleId); }
+
+    public static void invalidate(int scheduleId) {
+        unapplied.incrementAndGet();
+        SCHEDULES.remove(scheduleId);
+    }
+
+    public static void clear() {
+        unapplied.incrementAndGet();
+        SCHEDULES.clear();
+    }
+
+    /** Drops the bitmaps of schedules dated before {@code today} (YYYY-MM-DD); returns how many. */
+    public static int evictDeparted(String today) {
+        int n = 0;
+        for (Map.Entry<Integer, Seats> e : SCHEDULES.entrySet()) {
+            if (e.getValue().date.compareTo(today) < 0 && SCHEDULES.remove(e.getKey(), e.getValue())) n++;
+        }
+        return n;
+    }
+
+    /** Schedules with a bitmap in memory. */
+    public static int loaded() { return SCHEDULES.size(); }
+
+    // Departed schedules first, then the least recently used, down to 15/16 of the cap
+    private static void evictOverCap() {
+        synchronized (evictLock) {
+            if (SCHEDULES.size() <= MAX_ENTRIES) return;
+            evictDeparted(LocalDate.now().toString());
+            int excess = SCHEDULES.size() - (MAX_ENTRIES - MAX_ENTRIES / 16);
+            if (excess <= 0) return;
+            List<Map.Entry<Integer, Seats>> all = new ArrayList<>(SCHEDULES.entrySet());
+            all.sort((a, b) -> Long.compare(a.getValue().lastUsed, b.getValue().lastUsed));
+            for (int i = 0; i < all.size() && excess > 0; i++) {
+                Map.Entry<Integer, Seats> e = all.get(i);
+                if (SCHEDULES.remove(e.getKey(), e.getValue())) excess--;
+            }
+        }
+    }
+
+    private static Seats load(Connection c, int scheduleId) throws SQLException {
+        Seats seats;
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT b.capacity, s.date FROM schedules s JOIN buses b ON b.id=s.bus_id WHERE s.id=?")) {
+            ps.setInt(1, scheduleId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                seats = new Seats(rs.getInt(1), rs.getString(2));
+            }
+        }
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT seat_no FROM bookings WHERE schedule_id=? AND status!='CANCELLED'")) {
+            ps.setInt(1, scheduleId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) seats.claim(rs.getInt(1));
+            }
+        }
+        for (int seat : SeatHolds.held(scheduleId)) seats.claim(seat);
+        return seats;
+    }
+
+    public static final class Seats {
+        private final int capacity;
+        private final AtomicLongArray words;
+        final String date;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Seats(int capacity, String date) {
+            this.capacity = capacity;
+            this.date = date == null ? "" : date;
+            this.words = new AtomicLongArray((capacity + 63) >>> 6);
+        }
+
+        // Once a second at most, so readers of a busy schedule do not all write the same line
+        void touch() {
+            long now = System.currentTimeMillis();
+            if (now - lastUsed > 1000) lastUsed = now;
+        }
+
+        public int capacity() { return capacity; }
+
+        /** Seats are numbered 1..capacity. Returns false if out of range or already taken. */
+        public boolean claim(int seat) {
+            if (seat < 1 || seat > capacity) return false;
+            int i = (seat - 1) >>> 6;
+            long bit = 1L << ((seat - 1) & 63);
+            while (true) {
+                long w = words.get(i);
+                if ((w & bit) != 0) return false;
+                if (words.compareAndSet(i, w, w | bit)) return true;
+            }
+        }
+
+        public void release(int seat) {
+            if (seat < 1 || seat > capacity) return;
+            int i = (seat - 1) >>> 6;
+            long bit = 1L << ((seat - 1) & 63);
+            while (true) {
+                long w = words.get(i);
+                if ((w & bit) == 0) return;
+                if (words.compareAndSet(i, w, w & ~bit)) return;
+            }
+        }
+
+        public boolean isTaken(int seat) {
+            if (seat < 1 || seat > capacity) return true;
+            return (words.get((seat - 1) >>> 6) & (1L << ((seat - 1) & 63))) != 0;
+        }
+
+        public int takenCount() {
+            int n = 0;
+            for (int i = 0; i < words.length(); i++) n += Long.bitCount(words.get(i));
+            return n;
+        }
+
+        public int[] freeSeats() {
+            int[] free = new int[capacity - takenCount()];
+            int n = 0;
+            for (int seat = 1; seat <= capacity && n < free.length; seat++) {
+                if (!isTaken(seat)) free[n++] = seat;
+            }
+            return n == free.length ? free : java.util.Arrays.copyOf(free, n);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+/** A logged-in user, as held by {@link SessionStore}. */
+public class Session {
+    final String username;
+    final String role;
+    final long createdAt;
+    volatile long lastAccess;
+
+    Session(String username, String role, long createdAt) {
+        this.username = username;
+        this.role = role;
+        this.createdAt = createdAt;
+        this.lastAccess = createdAt;
+    }
+}
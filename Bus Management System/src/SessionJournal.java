@@ -0,0 +1,121 @@
+import java.io.*;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Append-only journal of session creates and removes, so logins survive a restart.
+ *
+ *   C	token	createdAt	username	role
+ *   R	token
+ *
+ * Login, logout, eviction and expiry only queue a line; no request thread writes the file or
+ * waits for a lock. The store's sweeper thread calls {@link #flush} about once a second, so a
+ * crash loses at most the last second of logins and logouts. The journal is replayed and
+ * compacted to the live set at startup, and again by the sweeper once it holds more dead
+ * lines than live ones. A torn last line from a crash is ignored.
+ *
+ * The file holds live session tokens in plain text. It is -Dbus.session.journal, by default
+ * sessions.journal next to the database ("off" disables it), and every rewrite creates it
+ * owner-only (rw-------) before the first token is written.
+ */
+public class SessionJournal implements AutoCloseable {
+
+    private final Path path;
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+    private Writer out;
+    private long lines;   // in the file since the last compaction
+
+    public SessionJournal(Path path) { this.path = path; }
+
+    /** Sessions recorded in the journal that were never removed, in creation order. */
+    public Map<String, Session> replay() throws IOException {
+        Map<String, Session> live = new LinkedHashMap<>();
+        if (!Files.exists(path)) return live;
+        try (BufferedReader r = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] f = line.split("\t");
+                try {
+                    if (f.length == 5 && f[0].equals("C")) {
+                        live.put(f[1], new Session(dec(f[3]), dec(f[4]), Long.parseLong(f[2])));
+                    } else if (f.length == 2 && f[0].equals("R")) {
+                        live.remove(f[1]);
+                    }
+                } catch (IllegalArgumentException ignored) {
+                    // torn or hand-edited line
+                }
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Rewrites the journal to hold exactly the live set, then keeps appending to it. The
+     * snapshot is taken under this journal's lock, so no line can be flushed to the old file
+     * after it; lines still queued go after the snapshot, and replaying one the snapshot
+     * already reflects changes nothing.
+     */
+    public synchronized void compact(Supplier<Map<String, Session>> snapshot) throws IOException {
+        Map<String, Session> live = snapshot.get();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        createOwnerOnly(tmp);
+        long n = 0;
+        try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, Session> e : live.entrySet()) { w.write(createLine(e.getKey(), e.getValue())); n++; }
+        }
+        if (out != null) out.close();
+        out = null;
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        out = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        lines = n;
+        flush();
+    }
+
+    public void created(String token, Session s) { pending.add(createLine(token, s)); }
+
+    public void removed(String token) { pending.add("R\t" + token + "\n"); }
+
+    /** Writes the queued lines with one flush; called from the sweeper thread. */
+    public synchronized void flush() {
+        if (out == null || pending.isEmpty()) return;
+        try {
+            for (String line; (line = pending.poll()) != null; ) { out.write(line); lines++; }
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Session journal write failed: " + e.getMessage());
+        }
+    }
+
+    /** Lines in the file since it was last compacted. */
+    public synchronized long lines() { return lines; }
+
+    @Override public synchronized void close() throws IOException {
+        flush();
+        if (out != null) out.close();
+        out = null;
+    }
+
+    private static String createLine(String token, Session s) {
+        return "C\t" + token + "\t" + s.createdAt + "\t" + enc(s.username) + "\t" + enc(s.role) + "\n";
+    }
+
+    private static String enc(String s) { return URLEncoder.encode(s, StandardCharsets.UTF_8); }
+    private static String dec(String s) { return URLDecoder.decode(s, StandardCharsets.UTF_8); }
+
+    // Empty file that only the owner can read, so no token is ever world-readable
+    private static void createOwnerOnly(Path p) throws IOException {
+        try {
+            Files.createFile(p, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(p);   // not a POSIX filesystem (Windows)
+        }
+    }
+}
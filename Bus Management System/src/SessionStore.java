@@ -0,0 +1,222 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bounded session store with idle and absolute expiry.
+ *
+ * Sessions live in a ConcurrentHashMap, so a lookup takes no lock: get() only stamps the
+ * session's lastAccess. The size cap is kept approximately: when a login takes the map over
+ * maxEntries, the least recently used 1/16 of it is evicted in one pass (by lastAccess),
+ * under a lock that only eviction takes. A daemon sweeper removes expired sessions in the
+ * background, and get() also rejects any expired session it finds.
+ *
+ * With {@link #enableJournal} every create/remove is also queued for a {@link SessionJournal},
+ * so a restart does not log everyone out. The sweeper thread writes the queue out and
+ * compacts the file; lookups stay purely in memory.
+ */
+public class SessionStore {
+
+    private final long idleTtlMillis;
+    private final long absoluteTtlMillis;
+    private final int maxEntries;
+    private final long journalFlushMillis = Long.getLong("bus.session.journalFlushMs", 1000);
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final ConcurrentHashMap<String, Session> map = new ConcurrentHashMap<>(1024);
+    private final Object evictLock = new Object();
+    // logins share it; a journal compaction takes it alone while it copies the map
+    private final ReentrantReadWriteLock createLock = new ReentrantReadWriteLock();
+    private ScheduledExecutorService sweeper;
+    private volatile SessionJournal journal;
+
+    public SessionStore(long idleTtlMillis, long absoluteTtlMillis, int maxEntries) {
+        this.idleTtlMillis = idleTtlMillis;
+        this.absoluteTtlMillis = absoluteTtlMillis;
+        this.maxEntries = maxEntries;
+    }
+
+    public static SessionStore fromSystemProperties() {
+        return new SessionStore(
+                TimeUnit.MINUTES.toMillis(Long.getLong("bus.session.idleMinutes", 30)),
+                TimeUnit.HOURS.toMillis(Long.getLong("bus.session.maxHours", 12)),
+                Integer.getInteger("bus.session.maxEntries", 100_000));
+    }
+
+    /** Starts the background sweeper; safe to call once. */
+    public synchronized void startSweeper(long periodSeconds) {
+        if (sweeper != null) return;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        sweeper.scheduleWithFixedDelay(this::flushJournal, journalFlushMillis, journalFlushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Session get(String token) {
+        if (token == null) return null;
+        Session s = map.get(token);
+        if (s == null) return null;
+        long now = System.currentTimeMillis();
+        if (expired(s, now)) {
+            if (map.remove(token, s)) {
+                expirations.incrementAndGet();
+                journalRemoved(token);
+            }
+            return null;
+        }
+        s.lastAccess = now;
+        return s;
+    }
+
+    /** Creates a session and returns its token. */
+    public String create(String username, String role) {
+        byte[] b = new byte[18];
+        random.nextBytes(b);
+        String token = java.util.Base64.getUrlEncoder().withoutPadding().encodeToString(b);
+        Session s = new Session(username, role, System.currentTimeMillis());
+        // journaled before it is visible, so no eviction can log its removal ahead of it;
+        // both under the shared lock, so a compaction snapshot has either both or neither
+        createLock.readLock().lock();
+        try {
+            SessionJournal j = journal;
+            if (j != null) j.created(token, s);
+            map.put(token, s);
+        } finally {
+            createLock.readLock().unlock();
+        }
+        if (map.size() > maxEntries) evictOverCap();
+        return token;
+    }
+
+    public void remove(String token) {
+        if (token == null) return;
+        if (map.remove(token) != null) journalRemoved(token);
+    }
+
+    /**
+     * Removes every expired session and returns how many went. Also compacts the journal once
+     * it holds more dead lines than live sessions, so it stays about twice the live set.
+     */
+    public int sweep() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Map.Entry<String, Session> e : map.entrySet()) {
+            if (expired(e.getValue(), now) && map.remove(e.getKey(), e.getValue())) { journalRemoved(e.getKey()); removed++; }
+        }
+        expirations.addAndGet(removed);
+        if (map.size() > maxEntries) evictOverCap();
+        SessionJournal j = journal;
+        if (j != null) {
+            j.flush();
+            int live = map.size();
+            if (j.lines() - live > live) {
+                try {
+                    j.compact(this::snapshot);
+                } catch (IOException e) {
+                    System.out.println("Session journal compaction failed: " + e.getMessage());
+                }
+            }
+        }
+        return removed;
+    }
+
+    private void flushJournal() {
+        SessionJournal j = journal;
+        if (j != null) j.flush();
+    }
+
+    // Approximate LRU: one pass drops the least recently used entries down to 15/16 of the cap,
+    // so a full store pays for a scan once every maxEntries/16 logins, not on each
+    private void evictOverCap() {
+        synchronized (evictLock) {
+            if (map.size() <= maxEntries) return;
+            int excess = map.size() - (maxEntries - maxEntries / 16);
+            List<Map.Entry<String, Session>> all = new ArrayList<>(map.entrySet());
+            all.sort((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess));
+            for (int i = 0; i < all.size() && excess > 0; i++) {
+                Map.Entry<String, Session> e = all.get(i);
+                if (map.remove(e.getKey(), e.getValue())) {
+                    evictions.incrementAndGet();
+                    journalRemoved(e.getKey());
+                    excess--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays the journal at {@code path} into this store, compacts it, and journals every
+     * change from now on. Idle time restarts at replay; the absolute TTL still counts from login.
+     */
+    public void enableJournal(Path path) throws IOException {
+        SessionJournal j = new SessionJournal(path);
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Session> e : j.replay().entrySet()) {
+            Session s = e.getValue();
+            s.lastAccess = now;
+            if (!expired(s, now)) map.put(e.getKey(), s);
+        }
+        j.compact(this::snapshot);
+        journal = j;
+        // a normal stop writes out what the sweeper has not yet
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try { j.close(); } catch (IOException ignored) {}
+        }, "session-journal"));
+    }
+
+    private Map<String, Session> snapshot() {
+        createLock.writeLock().lock();
+        try {
+            return new HashMap<>(map);
+        } finally {
+            createLock.writeLock().unlock();
+        }
+    }
+
+    private void journalRemoved(String token) {
+        SessionJournal j = journal;
+        if (j != null) j.removed(token);
+    }
+
+    private boolean expired(Session s, long now) {
+        return now - s.lastAccess > idleTtlMillis || now - s.createdAt > absoluteTtlMillis;
+    }
+
+    public int live() { return map.size(); }
+    public long evictions() { return evictions.get(); }
+    public long expirations() { return expirations.get(); }
+
+    @Override public String toString() {
+        return String.format("sessions live=%d max=%d evictions=%d expirations=%d", live(), maxEntries, evictions(), expirations());
+    }
+
+    /** Value of one cookie from a Cookie header, scanned in place (no split/array allocation). */
+    public static String cookie(String header, String name) {
+        if (header == null) return null;
+        int n = header.length(), i = 0, len = name.length();
+        while (i < n) {
+            while (i < n && (header.charAt(i) == ' ' || header.charAt(i) == ';')) i++;
+            int end = header.indexOf(';', i);
+            if (end < 0) end = n;
+            if (end - i > len && header.charAt(i + len) == '=' && header.regionMatches(i, name, 0, len)) {
+                return header.substring(i + len + 1, end).trim();
+            }
+            i = end + 1;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,113 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves /static/ assets from bytes prepared once at registration: the raw body, a gzip copy
+ * (best compression, paid once), and a content-hash ETag.
+ *
+ * Pages link the URL from {@link #add}/{@link #url}, which carries the hash in the file name
+ * (app.3f2a9c.css), so that URL can be cached as immutable for a year; a changed asset gets a
+ * new URL. The plain name stays servable with revalidation for anything that links it directly.
+ */
+public class StaticAssets implements HttpHandler {
+
+    public static final String PREFIX = "/static/";
+
+    private record Asset(String contentType, byte[] raw, byte[] gzip, String etag, boolean immutable) {}
+
+    private static final Map<String, Asset> ASSETS = new ConcurrentHashMap<>();
+    private static final Map<String, String> URLS = new ConcurrentHashMap<>();
+
+    /** Registers {@code name} (e.g. "app.css") and returns its fingerprinted URL. */
+    public static String add(String name, String contentType, String body) {
+        byte[] raw = body.getBytes(StandardCharsets.UTF_8);
+        String hash = sha256(raw).substring(0, 12);
+        int dot = name.lastIndexOf('.');
+        String versioned = dot < 0 ? name + "." + hash : name.substring(0, dot) + "." + hash + name.substring(dot);
+        byte[] gzip = gzip(raw);
+        String etag = "\"" + hash + "\"";
+        ASSETS.put(versioned, new Asset(contentType, raw, gzip, etag, true));
+        ASSETS.put(name, new Asset(contentType, raw, gzip, etag, false));
+        URLS.put(name, PREFIX + versioned);
+        return PREFIX + versioned;
+    }
+
+    public static String url(String name) {
+        String u = URLS.get(name);
+        if (u == null) throw new IllegalArgumentException("no static asset " + name);
+        return u;
+    }
+
+    @Override public void handle(HttpExchange ex) throws IOException {
+        String method = ex.getRequestMethod();
+        boolean head = "HEAD".equalsIgnoreCase(method);
+        if (!head && !"GET".equalsIgnoreCase(method)) { ex.sendResponseHeaders(405, -1); ex.close(); return; }
+
+        Asset a = ASSETS.get(ex.getRequestURI().getPath().substring(PREFIX.length()));
+        if (a == null) { ex.sendResponseHeaders(404, -1); ex.close(); return; }
+
+        boolean gz = CompressionFilter.acceptsGzip(ex.getRequestHeaders().getFirst("Accept-Encoding"));
+        // each encoding is its own representation, so it gets its own strong validator
+        String etag = gz ? a.etag.substring(0, a.etag.length() - 1) + "-gz\"" : a.etag;
+        var h = ex.getResponseHeaders();
+        h.set("ETag", etag);
+        h.set("Vary", "Accept-Encoding");
+        h.set("Cache-Control", a.immutable ? "public, max-age=31536000, immutable" : "public, max-age=0, must-revalidate");
+        if (matches(ex.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
+            return;
+        }
+        byte[] body = gz ? a.gzip : a.raw;
+        h.set("Content-Type", a.contentType);
+        if (gz) h.set("Content-Encoding", "gzip");
+        if (head) {
+            h.set("Content-Length", String.valueOf(body.length));
+            ex.sendResponseHeaders(200, -1);
+            ex.close();
+            return;
+        }
+        ex.sendResponseHeaders(200, body.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String t : ifNoneMatch.split(",")) {
+            t = t.trim();
+            if (t.equals("*") || t.equals(etag) || t.equals("W/" + etag)) return true;
+        }
+        return false;
+    }
+
+    private static String sha256(byte[] b) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(b));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] raw) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(raw.length / 3 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(bos) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            gz.write(raw);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,66 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An HTML template compiled once into UTF-8 byte segments and typed slots.
+ *
+ *   {{name}}      text, HTML-escaped
+ *   {{name:int}}  whole number
+ *   {{name:num}}  decimal number
+ *   {{name:raw}}  markup written as-is
+ *
+ * Rendering ({@link HtmlWriter#begin}) copies the static bytes and writes each value in
+ * slot order, so a row costs no string concatenation and no re-encoding of its markup.
+ * Filling a slot with the wrong type, or out of order, throws IllegalStateException.
+ */
+public final class Template {
+
+    enum Kind { TEXT, INT, NUM, RAW }
+
+    private final String name;
+    private final byte[][] segments;   // slots + 1, around the slots
+    private final Kind[] kinds;
+    private final String[] slotNames;
+
+    private Template(String name, List<byte[]> segments, List<Kind> kinds, List<String> slotNames) {
+        this.name = name;
+        this.segments = segments.toArray(new byte[0][]);
+        this.kinds = kinds.toArray(new Kind[0]);
+        this.slotNames = slotNames.toArray(new String[0]);
+    }
+
+    public static Template compile(String name, String source) {
+        List<byte[]> segments = new ArrayList<>();
+        List<Kind> kinds = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int pos = 0;
+        while (true) {
+            int open = source.indexOf("{{", pos);
+            if (open < 0) break;
+            int close = source.indexOf("}}", open + 2);
+            if (close < 0) throw new IllegalArgumentException(name + ": unclosed {{ at " + open);
+            segments.add(source.substring(pos, open).getBytes(StandardCharsets.UTF_8));
+            String slot = source.substring(open + 2, close).trim();
+            int colon = slot.indexOf(':');
+            String type = colon < 0 ? "text" : slot.substring(colon + 1).trim();
+            names.add(colon < 0 ? slot : slot.substring(0, colon).trim());
+            kinds.add(switch (type) {
+                case "text" -> Kind.TEXT;
+                case "int" -> Kind.INT;
+                case "num" -> Kind.NUM;
+                case "raw" -> Kind.RAW;
+                default -> throw new IllegalArgumentException(name + ": unknown slot type '" + type + "' in {{" + slot + "}}");
+            });
+            pos = close + 2;
+        }
+        segments.add(source.substring(pos).getBytes(StandardCharsets.UTF_8));
+        return new Template(name, segments, kinds, names);
+    }
+
+    int slots() { return kinds.length; }
+    Kind kind(int slot) { return kinds[slot]; }
+    byte[] segment(int i) { return segments[i]; }
+
+    @Override public String toString() { return name + "(" + String.join(",", slotNames) + ")"; }
+}
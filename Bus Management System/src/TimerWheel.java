@@ -0,0 +1,135 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel: many short timeouts on one thread.
+ *
+ * Time is cut into ticks; a timeout due in k ticks goes into slot (now + k) mod slots, with
+ * the number of full turns it still has to wait. Scheduling and cancelling are O(1) and take
+ * no lock: new timeouts are queued and moved into their slot by the ticker thread, which is
+ * the only thread that touches the slots. A cancelled timeout is dropped when its slot comes
+ * round. Tasks run on the ticker thread, so they must be short.
+ */
+public final class TimerWheel {
+
+    private static final int WAITING = 0, CANCELLED = 1, EXPIRED = 2;
+
+    public final class Timeout {
+        private final Runnable task;
+        private final long deadline;   // nanos since the wheel started
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private long rounds;
+        private Timeout next, prev;
+
+        private Timeout(Runnable task, long deadline) { this.task = task; this.deadline = deadline; }
+
+        /** True if the task will not run; false if it already ran or was cancelled before. */
+        public boolean cancel() {
+            if (!state.compareAndSet(WAITING, CANCELLED)) return false;
+            pending.decrementAndGet();
+            return true;
+        }
+    }
+
+    // Doubly linked list of timeouts; only the ticker thread touches it
+    private static final class Slot {
+        Timeout head, tail;
+
+        void add(Timeout t) {
+            if (head == null) head = tail = t;
+            else { tail.next = t; t.prev = tail; tail = t; }
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null) t.prev.next = t.next; else head = t.next;
+            if (t.next != null) t.next.prev = t.prev; else tail = t.prev;
+            t.next = t.prev = null;
+        }
+    }
+
+    private final long tickNanos;
+    private final Slot[] slots;
+    private final int mask;
+    private final long start = System.nanoTime();
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final Thread ticker;
+    private volatile boolean running = true;
+
+    /** {@code slots} is rounded up to a power of two; one turn of the wheel is tick * slots. */
+    public TimerWheel(String name, long tick, TimeUnit unit, int slots) {
+        if (tick <= 0 || slots <= 0) throw new IllegalArgumentException("tick and slots must be positive");
+        this.tickNanos = unit.toNanos(tick);
+        int n = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.slots = new Slot[n];
+        for (int i = 0; i < n; i++) this.slots[i] = new Slot();
+        this.mask = n - 1;
+        this.ticker = new Thread(this::run, name);
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /** Runs {@code task} on the wheel's thread after {@code delay}, rounded up to the next tick. */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) throw new IllegalStateException("timer wheel stopped");
+        Timeout t = new Timeout(task, System.nanoTime() - start + unit.toNanos(Math.max(0, delay)));
+        pending.incrementAndGet();
+        added.add(t);
+        return t;
+    }
+
+    /** Timeouts scheduled and neither run nor cancelled yet. */
+    public long pending() { return pending.get(); }
+
+    /** Timeouts whose task has run. */
+    public long expired() { return expired.get(); }
+
+    public void stop() {
+        running = false;
+        ticker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            long due = (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = due - (System.nanoTime() - start)) > 0 && running) LockSupport.parkNanos(wait);
+            transfer(tick);
+            expire(slots[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    // Moves newly scheduled timeouts into their slot; one already due goes into the current one
+    private void transfer(long tick) {
+        for (Timeout t; (t = added.poll()) != null; ) {
+            if (t.state.get() != WAITING) continue;
+            long at = Math.max(t.deadline / tickNanos, tick);
+            t.rounds = (at - tick) / slots.length;
+            slots[(int) (at & mask)].add(t);
+        }
+    }
+
+    private void expire(Slot slot) {
+        for (Timeout t = slot.head; t != null; ) {
+            Timeout next = t.next;
+            if (t.state.get() == CANCELLED) slot.remove(t);
+            else if (t.rounds > 0) t.rounds--;
+            else {
+                slot.remove(t);
+                if (t.state.compareAndSet(WAITING, EXPIRED)) {
+                    pending.decrementAndGet();
+                    expired.incrementAndGet();
+                    try { t.task.run(); }
+                    catch (RuntimeException e) { System.out.println("⚠️ timer task failed: " + e); }
+                }
+            }
+            t = next;
+        }
+    }
+}
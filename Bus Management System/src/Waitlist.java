@@ -0,0 +1,213 @@
+import java.sql.*;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * First come, first served waitlist for full schedules.
+ *
+ * A waiter is one waitlist row (one seat). When a booking is cancelled or deleted, the same
+ * write books the freed seat for the oldest waiter on that schedule, so the seat never
+ * becomes free for whoever happens to refresh first. A seat freed by an expired checkout
+ * hold goes to the queue the same way, in its own write. The queues are also kept in memory
+ * (only schedules that have waiters), so a cancellation on a schedule nobody waits for costs
+ * no query. They are changed only on the writer thread. Other threads only read them, or
+ * mark them stale after a failed write ({@link #invalidate}); the writer then reloads them
+ * from the table before it next uses them.
+ */
+public final class Waitlist {
+
+    /** status is WAITING, PROMOTED (bookingId and seat set) or LEFT; position is 0 unless waiting. */
+    public record Entry(int id, int scheduleId, String name, String phone, String status, int position,
+                        int bookingId, int seat) {}
+
+    /** A waiter who got a seat: their waitlist row and new booking. */
+    record Promotion(int waitlistId, int bookingId, int seat) {}
+
+    private record Waiter(int id, String name, String phone) {}
+
+    private static final ConcurrentHashMap<Integer, Queue<Waiter>> QUEUES = new ConcurrentHashMap<>();
+    private static volatile boolean loaded;
+    private static final AtomicLong promoted = new AtomicLong();
+
+    private static final String ENTRY_SQL = """
+        SELECT w.id, w.schedule_id, w.name, w.phone, w.status, w.booking_id, b.seat_no,
+               (SELECT COUNT(*) FROM waitlist x WHERE x.schedule_id=w.schedule_id AND x.status='WAITING' AND x.id<=w.id)
+        FROM waitlist w LEFT JOIN bookings b ON b.id=w.booking_id
+        WHERE w.id=?""";
+
+    private Waitlist() {}
+
+    // ---------- writer thread ----------
+
+    /**
+     * Adds a waiter to a full schedule and returns its id, or 0 if seats are free (book
+     * instead). The same phone joining the same schedule again keeps its place.
+     */
+    static int join(Connection c, int scheduleId, SeatMap.Seats seats, String name, String phone) throws SQLException {
+        ensureLoaded(c);
+        if (seats.takenCount() < seats.capacity()) return 0;
+        Queue<Waiter> q = QUEUES.get(scheduleId);
+        if (q != null) for (Waiter w : q) if (w.phone().equals(phone)) return w.id();
+        try (PreparedStatement ps = c.prepareStatement("INSERT INTO waitlist(schedule_id,name,phone) VALUES(?,?,?)")) {
+            ps.setInt(1, scheduleId); ps.setString(2, name); ps.setString(3, phone); ps.executeUpdate();
+        }
+        int id = BusService.lastInsertId(c);
+        QUEUES.computeIfAbsent(scheduleId, k -> new ConcurrentLinkedQueue<>()).add(new Waiter(id, name, phone));
+        return id;
+    }
+
+    /** Takes a waiter off the list; their phone must match. False if they were not waiting. */
+    static boolean leave(Connection c, int id, String phone) throws SQLException {
+        ensureLoaded(c);
+        int scheduleId;
+        try (PreparedStatement ps = c.prepareStatement(
+                "UPDATE waitlist SET status='LEFT' WHERE id=? AND phone=? AND status='WAITING' RETURNING schedule_id")) {
+            ps.setInt(1, id); ps.setString(2, phone);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return false;
+                scheduleId = rs.getInt(1);
+            }
+        }
+        QUEUES.computeIfPresent(scheduleId, (k, q) -> {
+            q.removeIf(w -> w.id() == id);
+            return q.isEmpty() ? null : q;
+        });
+        return true;
+    }
+
+    /**
+     * Books {@code seat}, just freed inside this write, for the schedule's oldest waiter.
+     * Null if nobody waits; the caller then releases the seat as usual.
+     */
+    static Promotion promote(Connection c, int scheduleId, int seat) throws SQLException {
+        ensureLoaded(c);
+        Queue<Waiter> q = QUEUES.get(scheduleId);
+        Waiter w = q == null ? null : q.peek();
+        if (w == null) return null;
+        double fare;
+        try (PreparedStatement ps = c.prepareStatement(BusService.INFO_SQL)) {
+            ps.setInt(1, scheduleId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                fare = rs.getDouble("fare");
+            }
+        }
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT INTO bookings(name,phone,schedule_id,seat_no,status,total) VALUES(?,?,?,?,'CONFIRMED',?)")) {
+            ps.setString(1, w.name()); ps.setString(2, w.phone()); ps.setInt(3, scheduleId);
+            ps.setInt(4, seat); ps.setDouble(5, fare);
+            ps.executeUpdate();
+        }
+        int bookingId = BusService.lastInsertId(c);
+        try (PreparedStatement ps = c.prepareStatement("UPDATE waitlist SET status='PROMOTED', booking_id=? WHERE id=?")) {
+            ps.setInt(1, bookingId); ps.setInt(2, w.id()); ps.executeUpdate();
+        }
+        try (PreparedStatement ps = c.prepareStatement("UPDATE schedules SET booked_count=booked_count+1 WHERE id=?")) {
+            ps.setInt(1, scheduleId); ps.executeUpdate();
+        }
+        QUEUES.computeIfPresent(scheduleId, (k, queue) -> {
+            queue.remove(w);
+            return queue.isEmpty() ? null : queue;
+        });
+        promoted.incrementAndGet();
+        return new Promotion(w.id(), bookingId, seat);
+    }
+
+    // ---------- events from other threads ----------
+
+    /**
+     * Seats came free outside a booking write (an expired hold): hands free seats to the
+     * schedule's waiters in one write of their own. Returns at once.
+     */
+    static void seatsFreed(int scheduleId) {
+        if (loaded && !QUEUES.containsKey(scheduleId)) return;
+        try {
+            DBUtil.writeAsync(c -> {
+                ensureLoaded(c);
+                SeatMap.Seats seats = SeatMap.peek(scheduleId);
+                if (seats == null) return 0;
+                int n = 0;
+                for (int seat : seats.freeSeats()) {
+                    if (!QUEUES.containsKey(scheduleId)) break;
+                    if (!seats.claim(seat)) continue;
+                    if (promote(c, scheduleId, seat) == null) { seats.release(seat); break; }
+                    n++;
+                }
+                return n;
+            }).exceptionally(e -> {
+                // the whole write rolled back, earlier promotions and seat claims included
+                invalidate();
+                SeatMap.invalidate(scheduleId);
+                System.out.println("⚠️ waitlist promotion failed: " + e.getMessage());
+                return 0;
+            });
+        } catch (SQLException e) {
+            System.out.println("⚠️ waitlist promotion failed: " + e.getMessage());
+        }
+    }
+
+    /** The schedule is gone (its rows went with it); call inside the deleting write. */
+    static void scheduleDeleted(Connection c, int scheduleId) throws SQLException {
+        ensureLoaded(c);
+        QUEUES.remove(scheduleId);
+    }
+
+    /**
+     * Memory may disagree with the table (a failed write, a cascade): the writer reloads the
+     * queues before it next uses them. Safe from any thread; it does not touch the queues.
+     */
+    static void invalidate() { loaded = false; }
+
+    // ---------- reads ----------
+
+    public static Entry entry(int id) throws SQLException {
+        try (Connection c = DBUtil.getConnection(); PreparedStatement ps = c.prepareStatement(ENTRY_SQL)) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                String status = rs.getString(5);
+                return new Entry(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4), status,
+                        "WAITING".equals(status) ? rs.getInt(8) : 0, rs.getInt(6), rs.getInt(7));
+            }
+        }
+    }
+
+    /** Waiters on a schedule, from memory. */
+    public static int waiting(int scheduleId) {
+        Queue<Waiter> q = QUEUES.get(scheduleId);
+        return q == null ? 0 : q.size();
+    }
+
+    public static int waitingTotal() {
+        int n = 0;
+        for (Queue<Waiter> q : QUEUES.values()) n += q.size();
+        return n;
+    }
+
+    public static long promoted() { return promoted.get(); }
+
+    /** Loads the queues at startup, so the first cancellation does not pay for it. */
+    public static void load() throws SQLException {
+        DBUtil.write(c -> { ensureLoaded(c); return null; });
+    }
+
+    // Writer thread only. The flag is set before reading, so an invalidate() that lands
+    // during the load is not overwritten and the next use loads again.
+    private static void ensureLoaded(Connection c) throws SQLException {
+        if (loaded) return;
+        loaded = true;
+        QUEUES.clear();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id,schedule_id,name,phone FROM waitlist WHERE status='WAITING' ORDER BY id")) {
+            while (rs.next()) {
+                QUEUES.computeIfAbsent(rs.getInt(2), k -> new ConcurrentLinkedQueue<>())
+                        .add(new Waiter(rs.getInt(1), rs.getString(3), rs.getString(4)));
+            }
+        } catch (SQLException | RuntimeException e) {
+            loaded = false;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-writer path for SQLite.
+ *
+ * All mutations are submitted here and run on one dedicated thread that owns the only
+ * writable connection, so writers never race each other for the WAL lock (no SQLITE_BUSY).
+ * Whatever is queued when the writer wakes up is run as one transaction (group commit):
+ * each write gets its own savepoint, so a failing write is rolled back alone and the rest
+ * still commit together with a single fsync. Futures complete only after the commit.
+ */
+public class WriteQueue implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface Write<T> { T apply(Connection c) throws SQLException; }
+
+    private static final int MAX_BATCH = 64;
+
+    private final BlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+    private final Connection conn;
+    private final Thread thread;
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private volatile boolean running = true;
+
+    public WriteQueue(String url, List<String> pragmas) throws SQLException {
+        conn = DriverManager.getConnection(url);
+        try (Statement st = conn.createStatement()) {
+            for (String pragma : pragmas) st.execute(pragma);
+        }
+        conn.setAutoCommit(false);
+        thread = new Thread(this::loop, "db-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public <T> CompletableFuture<T> submit(Write<T> write) {
+        Task<T> t = new Task<>(write);
+        if (!running) {
+            t.future.completeExceptionally(new SQLException("write queue closed"));
+            return t.future;
+        }
+        queue.add(t);
+        return t.future;
+    }
+
+    public int pending() { return queue.size(); }
+    public long commitCount() { return commits.get(); }
+    public long writeCount() { return writes.get(); }
+
+    private void loop() {
+        List<Task<?>> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                if (!running) break;
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            runBatch(batch);
+            batch.clear();
+        }
+        try { conn.close(); } catch (SQLException ignored) {}
+    }
+
+    private void runBatch(List<Task<?>> batch) {
+        for (Task<?> t : batch) {
+            try {
+                Savepoint sp = conn.setSavepoint();
+                try {
+                    t.run(conn);
+                    conn.releaseSavepoint(sp);
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback(sp);
+                    conn.releaseSavepoint(sp);
+                    t.error = e;
+                }
+            } catch (SQLException e) {
+                t.error = e;
+            }
+        }
+        try {
+            conn.commit();
+            commits.incrementAndGet();
+            writes.addAndGet(batch.size());
+            for (Task<?> t : batch) t.complete();
+        } catch (SQLException e) {
+            try { conn.rollback(); } catch (SQLException ignored) {}
+            for (Task<?> t : batch) t.future.completeExceptionally(e);
+        }
+    }
+
+    @Override public void close() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private static final class Task<T> {
+        final Write<T> write;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Exception error;
+
+        Task(Write<T> write) { this.write = write; }
+
+        void run(Connection c) throws SQLException { result = write.apply(c); }
+
+        void complete() {
+            if (error != null) future.completeExceptionally(error);
+            else future.complete(result);
+        }
+    }
+}
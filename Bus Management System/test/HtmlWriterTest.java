@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HtmlWriterTest {
+
+    // A page of n rows; Bengali so rows straddle buffer boundaries mid-character
+    private static String page(int rows) {
+        StringBuilder sb = new StringBuilder("<table>");
+        for (int i = 0; i < rows; i++) sb.append("<tr><td>").append(i).append("</td><td>ঢাকা → সিলেট 😀</td></tr>");
+        return sb.append("</table>").toString();
+    }
+
+    private static HttpResponse<byte[]> render(String body) throws Exception {
+        try (TestServer server = new TestServer("/", ex -> {
+            try (HtmlWriter w = HtmlWriter.open(ex, 200)) {
+                // the body in uneven pieces, as handlers append it
+                for (int i = 0; i < body.length(); i += 1000) w.append(body.substring(i, Math.min(body.length(), i + 1000)));
+            }
+        })) {
+            return server.get("/");
+        }
+    }
+
+    @Test
+    void smallPageHasAContentLength() throws Exception {
+        String body = page(10);
+        HttpResponse<byte[]> r = render(body);
+        assertEquals(200, r.statusCode());
+        byte[] expected = body.getBytes(StandardCharsets.UTF_8);
+        assertEquals(String.valueOf(expected.length), r.headers().firstValue("Content-Length").orElse(null));
+        assertTrue(r.headers().firstValue("Transfer-Encoding").isEmpty());
+        assertEquals("text/html; charset=utf-8", r.headers().firstValue("Content-Type").orElse(null));
+        assertArrayEquals(expected, r.body());
+    }
+
+    @Test
+    void largePageIsStreamedChunked() throws Exception {
+        String body = page(5000);
+        HttpResponse<byte[]> r = render(body);
+        assertEquals(200, r.statusCode());
+        assertEquals("chunked", r.headers().firstValue("Transfer-Encoding").orElse(null));
+        assertEquals(body, new String(r.body(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void emptyPageHasNoBody() throws Exception {
+        HttpResponse<byte[]> r = render("");
+        assertEquals(200, r.statusCode());
+        assertEquals(0, r.body().length);
+    }
+
+    @Test
+    void escapesWhileStreaming() throws Exception {
+        String evil = "<script>alert('x & \"y\"')</script>";
+        String expected = "&lt;script&gt;alert(&#39;x &amp; &quot;y&quot;&#39;)&lt;/script&gt;";
+        assertEquals(expected, HtmlWriter.escaped(evil));
+        assertEquals("ঢাকা", HtmlWriter.escaped("ঢাকা"));
+        try (TestServer server = new TestServer("/", ex -> {
+            try (HtmlWriter w = HtmlWriter.open(ex, 200)) { w.append("<p>").escape(evil).append("</p>").append(42L); }
+        })) {
+            assertEquals("<p>" + expected + "</p>42", new String(server.get("/").body(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void abortBeforeSendingLeavesRoomForAnError() throws Exception {
+        try (TestServer server = new TestServer("/", ex -> {
+            HtmlWriter w = HtmlWriter.open(ex, 200);
+            w.append("<p>half a page");
+            if (w.abort()) { ex.sendResponseHeaders(500, -1); ex.close(); }
+        })) {
+            HttpResponse<byte[]> r = server.get("/");
+            assertEquals(500, r.statusCode());
+            assertEquals(0, r.body().length);
+        }
+    }
+}
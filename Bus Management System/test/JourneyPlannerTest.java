@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JourneyPlannerTest {
+
+    // Alphapur -> Betanagar -> Gammaganj in two legs, or direct: slower but cheaper
+    private static int firstLeg, tightLeg, secondLeg, direct;
+
+    @BeforeAll
+    static void timetable() throws Exception {
+        TestDatabase.migrate();
+        int bus = BusService.addBus("planner", "AC", 40);
+        int ab = BusService.addRoute("Alphapur", "Betanagar", 300, 120);
+        int bc = BusService.addRoute("Betanagar", "Gammaganj", 200, 60);
+        int ac = BusService.addRoute("Alphapur", "Gammaganj", 450, 300);
+        firstLeg = BusService.addSchedule(bus, ab, "2030-02-01", "08:00");
+        tightLeg = BusService.addSchedule(bus, bc, "2030-02-01", "10:10");    // inside the 30 min connection time
+        secondLeg = BusService.addSchedule(bus, bc, "2030-02-01", "10:45");
+        direct = BusService.addSchedule(bus, ac, "2030-02-01", "08:00");
+    }
+
+    private static JourneyPlanner.Journey plan(JourneyPlanner p, JourneyPlanner.Goal goal, Set<Integer> excluded) {
+        return p.plan(List.of("alphapur"), List.of("gammaganj"), JourneyPlanner.minutes("2030-02-01", "07:00"), goal, excluded)
+                .orElseThrow();
+    }
+
+    private static List<Integer> schedules(JourneyPlanner.Journey j) {
+        return j.legs().stream().map(JourneyPlanner.Leg::scheduleId).toList();
+    }
+
+    @Test
+    void earliestArrivalChangesBuses() throws Exception {
+        JourneyPlanner.Journey j = plan(JourneyPlanner.load(), JourneyPlanner.Goal.EARLIEST, Set.of());
+        assertEquals(List.of(firstLeg, secondLeg), schedules(j));
+        assertEquals(500, j.fare());
+        assertEquals("2030-02-01 11:45", JourneyPlanner.format(j.legs().get(1).arrive()));
+    }
+
+    @Test
+    void cheapestTakesTheDirectBus() throws Exception {
+        JourneyPlanner.Journey j = plan(JourneyPlanner.load(), JourneyPlanner.Goal.CHEAPEST, Set.of());
+        assertEquals(List.of(direct), schedules(j));
+        assertEquals(450, j.fare());
+    }
+
+    @Test
+    void excludedConnectionIsRoutedAround() throws Exception {
+        JourneyPlanner.Journey j = plan(JourneyPlanner.load(), JourneyPlanner.Goal.EARLIEST, Set.of(secondLeg));
+        assertEquals(List.of(direct), schedules(j));
+        assertFalse(schedules(j).contains(tightLeg));
+    }
+
+    @Test
+    void cachedPlannerCatchesUpWithADeletedTrip() throws Exception {
+        int bus = BusService.addBus("planner", "AC", 40);
+        int route = BusService.addRoute("Deltapur", "Epsilonganj", 100, 60);
+        int trip = BusService.addSchedule(bus, route, "2030-02-02", "09:00");
+        long earliest = JourneyPlanner.minutes("2030-02-02", "00:00");
+        awaitPlanner(p -> p.plan(List.of("deltapur"), List.of("epsilonganj"), earliest, JourneyPlanner.Goal.EARLIEST, Set.of()).isPresent());
+
+        assertTrue(BusService.deleteSchedule(trip));
+        // served stale for at most one background rebuild
+        awaitPlanner(p -> p.plan(List.of("deltapur"), List.of("epsilonganj"), earliest, JourneyPlanner.Goal.EARLIEST, Set.of()).isEmpty());
+    }
+
+    private static void awaitPlanner(Predicate<JourneyPlanner> check) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!check.test(RefData.planner())) {
+            assertTrue(System.nanoTime() < deadline, "planner never rebuilt");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RefCacheTest {
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        RefCache<String, Integer> cache = new RefCache<>("test", 10, 60_000, k -> {
+            loads.incrementAndGet();
+            try { release.await(); } catch (InterruptedException e) { throw new IllegalStateException(e); }
+            return 42;
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) results.add(pool.submit(() -> cache.get("k")));
+            Thread.sleep(100);   // let them all miss while the first load is blocked
+            release.countDown();
+            for (Future<Integer> f : results) assertEquals(42, f.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(42, cache.get("k"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void invalidatedEntryIsReloaded() throws Exception {
+        AtomicInteger version = new AtomicInteger();
+        RefCache<String, Integer> cache = new RefCache<>("test", 10, 60_000, k -> version.get());
+        assertEquals(0, cache.get("k"));
+        version.set(1);
+        assertEquals(0, cache.get("k"));
+        cache.invalidate("k");
+        assertEquals(1, cache.get("k"));
+        version.set(2);
+        cache.invalidateAll();
+        assertEquals(2, cache.get("k"));
+    }
+
+    @Test
+    void failedLoadIsNotCached() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        RefCache<String, Integer> cache = new RefCache<>("test", 10, 60_000, k -> {
+            if (calls.incrementAndGet() == 1) throw new java.sql.SQLException("busy");
+            return 7;
+        });
+        assertThrows(java.sql.SQLException.class, () -> cache.get("k"));
+        assertEquals(7, cache.get("k"));
+    }
+
+    @Test
+    void refresherServesTheOldValueWhileItReloads() throws Exception {
+        AtomicInteger version = new AtomicInteger();
+        CountDownLatch reloading = new CountDownLatch(1), release = new CountDownLatch(1);
+        ExecutorService refresher = Executors.newSingleThreadExecutor();
+        try {
+            RefCache<String, Integer> cache = new RefCache<>("test", 10, 60_000, k -> {
+                int v = version.get();
+                if (v > 0) {
+                    reloading.countDown();
+                    try { release.await(); } catch (InterruptedException e) { throw new IllegalStateException(e); }
+                }
+                return v;
+            }, refresher);
+            assertEquals(0, cache.get("k"));
+
+            version.set(1);
+            cache.invalidate("k");
+            assertTrue(reloading.await(5, TimeUnit.SECONDS));
+            // the reload is blocked, yet readers get the stale value at once
+            assertEquals(0, cache.get("k"));
+            release.countDown();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (cache.get("k") != 1) {
+                assertTrue(System.nanoTime() < deadline, "refresh never landed");
+                Thread.sleep(10);
+            }
+        } finally {
+            refresher.shutdown();
+        }
+    }
+}
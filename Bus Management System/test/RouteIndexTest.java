@@ -0,0 +1,61 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteIndexTest {
+
+    private static final RouteIndex INDEX = new RouteIndex(List.of(
+            new RefData.Route(1, "ঢাকা", "সিলেট", 550, 240),
+            new RefData.Route(2, "ঢাকা", "চট্টগ্রাম", 600, 300),
+            new RefData.Route(3, "চট্টগ্রাম", "কক্সবাজার", 400, 180),
+            new RefData.Route(4, "রাজশাহী", "ঢাকা", 650, 330),
+            new RefData.Route(5, "Khulna", "Barishal", 500, 240)));
+
+    private static Set<Integer> ids(String source, String destination) {
+        return INDEX.match(source, destination).stream().mapToInt(RefData.Route::id)
+                .boxed().collect(Collectors.toSet());
+    }
+
+    @Test
+    void latinSpellingsFindBengaliRoutes() {
+        assertEquals(Set.of(1), ids("Dhaka", "Sylhet"));
+        assertEquals(Set.of(1), ids("dhaka", "sylhet"));
+        assertEquals(Set.of(2), ids("Dhaka", "Chattogram"));
+        assertEquals(Set.of(3), ids("chattogram", "bazar"));
+        assertEquals(Set.of(4), ids("Rajshahi", "Dhaka"));
+    }
+
+    @Test
+    void misspellingsStillMatch() {
+        assertEquals(Set.of(1), ids("dhakka", "silet"));
+        assertEquals(Set.of(1), ids("daka", "sylhet"));
+        assertEquals(Set.of(4), ids("rajshai", "dacca"));
+    }
+
+    @Test
+    void prefixesAndBengaliQueriesMatch() {
+        assertEquals(Set.of(1, 2), ids("dh", ""));
+        assertEquals(Set.of(1, 2), ids("ঢাকা", ""));
+        assertEquals(Set.of(5), ids("খুলনা", "বরিশাল"));
+        assertTrue(INDEX.matchingNames("syl").contains("সিলেট"));
+    }
+
+    @Test
+    void emptyQueryMatchesEverythingAndStrangersNothing() {
+        assertEquals(Set.of(1, 2, 3, 4, 5), ids("", ""));
+        assertTrue(ids("Rangpur", "").isEmpty());
+        assertTrue(ids("Sylhet", "Dhaka").isEmpty());
+    }
+
+    @Test
+    void bengaliAndLatinShareAKey() {
+        assertEquals("daka", RouteIndex.key("ঢাকা"));
+        assertEquals(RouteIndex.key("ঢাকা"), RouteIndex.key("Dhaka"));
+        assertEquals(RouteIndex.key("ঢাকা"), RouteIndex.key("dhakka"));
+        assertEquals(RouteIndex.key("সিলেট"), RouteIndex.key("Silet"));
+    }
+}
@@ -0,0 +1,58 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class SeatHoldsTest {
+
+    // Polls until the hold's timer has run; fails after ten times the TTL
+    private static void awaitExpiry(int scheduleId, int seat) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SeatHolds.TTL_SEC * 10_000L;
+        while (SeatHolds.held(scheduleId).contains(seat)) {
+            assertTrue(System.currentTimeMillis() < deadline, "hold never expired");
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    void heldSeatIsFreeForOthersOnceTheHoldExpires() throws Exception {
+        assumeTrue(SeatHolds.TTL_SEC <= 5, "run with -Dbus.hold.ttlSec=1 (set in pom.xml)");
+        int scheduleId = TestDatabase.schedule(40);
+
+        assertEquals(BusService.Outcome.OK, BusService.hold("a", scheduleId, 5));
+        assertEquals(BusService.Outcome.SEAT_TAKEN, BusService.book("b", scheduleId, "খ", "01800000001", new int[]{5}).outcome());
+        assertEquals(39, BusService.available(scheduleId));
+
+        awaitExpiry(scheduleId, 5);
+        assertEquals(0, SeatHolds.heldBy("a", scheduleId).length);
+        assertEquals(40, BusService.available(scheduleId));
+
+        BusService.Booked b = BusService.book("b", scheduleId, "খ", "01800000001", new int[]{5});
+        assertEquals(BusService.Outcome.OK, b.outcome());
+        assertEquals(1, b.ids().length);
+        // the lapsed holder cannot book it any more
+        assertEquals(BusService.Outcome.SEAT_TAKEN, BusService.book("a", scheduleId, "ক", "01800000002", new int[]{5}).outcome());
+    }
+
+    @Test
+    void holderBooksTheirOwnHeldSeat() throws Exception {
+        int scheduleId = TestDatabase.schedule(40);
+        assertEquals(BusService.Outcome.OK, BusService.hold("a", scheduleId, 1, 2));
+        assertEquals(BusService.Outcome.SEAT_TAKEN, BusService.hold("b", scheduleId, 2));
+
+        BusService.Booked b = BusService.book("a", scheduleId, "ক", "01800000003", new int[]{1, 2});
+        assertEquals(BusService.Outcome.OK, b.outcome());
+        assertEquals(0, SeatHolds.heldBy("a", scheduleId).length);
+        assertTrue(SeatHolds.held(scheduleId).isEmpty());
+        assertEquals(38, BusService.available(scheduleId));
+    }
+
+    @Test
+    void releasedHoldFreesItsSeats() throws Exception {
+        int scheduleId = TestDatabase.schedule(40);
+        assertEquals(BusService.Outcome.OK, BusService.hold("a", scheduleId, 9));
+        assertTrue(SeatHolds.release("a", scheduleId));
+        assertFalse(SeatHolds.release("a", scheduleId));
+        assertEquals(BusService.Outcome.OK, BusService.book("b", scheduleId, "খ", "01800000004", new int[]{9}).outcome());
+    }
+}
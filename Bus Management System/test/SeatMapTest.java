@@ -0,0 +1,89 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeatMapTest {
+
+    private static final int THREADS = 16;
+
+    // Runs the task on THREADS threads released together; returns their results
+    private static <T> List<T> race(Callable<T> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) futures.add(pool.submit(() -> { start.await(); return task.call(); }));
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> f : futures) results.add(f.get());
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void oneSeatIsClaimedOnce() throws Exception {
+        SeatMap.Seats seats = new SeatMap.Seats(40, "2030-01-01");
+        List<Boolean> won = race(() -> seats.claim(7));
+        assertEquals(1, won.stream().filter(b -> b).count());
+        assertTrue(seats.isTaken(7));
+        assertEquals(1, seats.takenCount());
+    }
+
+    @Test
+    void seatsSharingAWordAreAllClaimed() throws Exception {
+        SeatMap.Seats seats = new SeatMap.Seats(64, "2030-01-01");
+        int[] next = {0};
+        List<Boolean> won = race(() -> {
+            int first;
+            synchronized (next) { first = next[0]; next[0] += 4; }
+            boolean all = true;
+            for (int seat = first + 1; seat <= first + 4; seat++) all &= seats.claim(seat);
+            return all;
+        });
+        assertFalse(won.contains(false));
+        assertEquals(64, seats.takenCount());
+        assertEquals(0, seats.freeSeats().length);
+    }
+
+    @Test
+    void outOfRangeSeatsAreNeverClaimed() {
+        SeatMap.Seats seats = new SeatMap.Seats(10, "2030-01-01");
+        assertFalse(seats.claim(0));
+        assertFalse(seats.claim(11));
+        assertTrue(seats.claim(10));
+        seats.release(10);
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, seats.freeSeats());
+    }
+
+    @Test
+    void concurrentBookingsOfOneSeatSellItOnce() throws Exception {
+        int scheduleId = TestDatabase.schedule(40);
+        int[] n = {0};
+        List<BusService.Outcome> outcomes = race(() -> {
+            String phone;
+            synchronized (n) { phone = "0170000" + (n[0]++); }
+            return BusService.book(scheduleId, "যাত্রী", phone, 3).outcome();
+        });
+        assertEquals(1, outcomes.stream().filter(o -> o == BusService.Outcome.OK).count());
+        assertEquals(THREADS - 1, outcomes.stream().filter(o -> o == BusService.Outcome.SEAT_TAKEN).count());
+        assertEquals(39, BusService.available(scheduleId));
+        assertTrue(SeatMap.get(scheduleId).isTaken(3));
+    }
+
+    @Test
+    void unknownScheduleHasNoSeatMap() throws Exception {
+        TestDatabase.migrate();
+        assertNull(SeatMap.get(987_654));
+        assertNull(SeatMap.peek(987_654));
+    }
+}
@@ -0,0 +1,75 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionStoreTest {
+
+    @Test
+    void createdSessionIsFoundUntilRemoved() {
+        SessionStore store = new SessionStore(60_000, 60_000, 100);
+        String token = store.create("user", "USER");
+        Session s = store.get(token);
+        assertNotNull(s);
+        assertEquals("user", s.username);
+        assertEquals("USER", s.role);
+        assertNull(store.get("no-such-token"));
+        assertNull(store.get(null));
+
+        store.remove(token);
+        assertNull(store.get(token));
+        assertEquals(0, store.live());
+    }
+
+    @Test
+    void idleSessionExpires() throws Exception {
+        SessionStore store = new SessionStore(50, 60_000, 100);
+        String lapsed = store.create("a", "USER");
+        String swept = store.create("b", "USER");
+        Thread.sleep(120);
+        assertNull(store.get(lapsed));
+        assertEquals(1, store.sweep());
+        assertNull(store.get(swept));
+        assertEquals(0, store.live());
+        assertEquals(2, store.expirations());
+    }
+
+    @Test
+    void absoluteLifetimeHoldsEvenWhenActive() throws Exception {
+        SessionStore store = new SessionStore(60_000, 150, 100);
+        String token = store.create("a", "USER");
+        for (int i = 0; i < 3; i++) { Thread.sleep(30); assertNotNull(store.get(token)); }
+        Thread.sleep(150);
+        assertNull(store.get(token));
+    }
+
+    @Test
+    void overCapEvictsTheLeastRecentlyUsed() throws Exception {
+        SessionStore store = new SessionStore(60_000, 60_000, 32);
+        List<String> tokens = new ArrayList<>();
+        // a millisecond apart, so least recently used is well defined
+        for (int i = 0; i < 32; i++) { tokens.add(store.create("u" + i, "USER")); Thread.sleep(2); }
+        String kept = tokens.get(0);
+        assertNotNull(store.get(kept));   // now the most recently used
+
+        String newest = store.create("u32", "USER");
+        assertTrue(store.live() <= 32);
+        assertTrue(store.evictions() > 0);
+        assertNotNull(store.get(kept));
+        assertNotNull(store.get(newest));
+        // 33 over a cap of 32 drops 1/16 of it: the three oldest untouched
+        for (int i = 1; i <= 3; i++) assertNull(store.get(tokens.get(i)));
+        assertNotNull(store.get(tokens.get(4)));
+    }
+
+    @Test
+    void cookieIsReadFromTheHeader() {
+        assertEquals("abc", SessionStore.cookie("SESSION=abc", "SESSION"));
+        assertEquals("abc", SessionStore.cookie("theme=dark; SESSION=abc; lang=bn", "SESSION"));
+        assertNull(SessionStore.cookie("XSESSION=abc", "SESSION"));
+        assertNull(SessionStore.cookie("SESSIONS=abc", "SESSION"));
+        assertNull(SessionStore.cookie(null, "SESSION"));
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticAssetsTest {
+
+    private static final String CSS = "body { font-family: 'Hind Siliguri', sans-serif; }\n".repeat(50);
+    private static String url;
+
+    @BeforeAll
+    static void register() {
+        url = StaticAssets.add("test.css", "text/css; charset=utf-8", CSS);
+    }
+
+    private static HttpResponse<byte[]> get(String path, String... headers) throws Exception {
+        try (TestServer server = new TestServer(StaticAssets.PREFIX, new StaticAssets())) {
+            HttpRequest.Builder r = server.request(path);
+            if (headers.length > 0) r.headers(headers);
+            return server.send(r);
+        }
+    }
+
+    @Test
+    void fingerprintedUrlIsImmutable() throws Exception {
+        assertTrue(url.matches("/static/test\\.[0-9a-f]{12}\\.css"), url);
+        assertEquals(url, StaticAssets.url("test.css"));
+        HttpResponse<byte[]> r = get(url);
+        assertEquals(200, r.statusCode());
+        assertEquals("public, max-age=31536000, immutable", r.headers().firstValue("Cache-Control").orElse(null));
+        assertEquals("text/css; charset=utf-8", r.headers().firstValue("Content-Type").orElse(null));
+        assertEquals(CSS, new String(r.body(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void plainNameMustRevalidate() throws Exception {
+        HttpResponse<byte[]> r = get("/static/test.css");
+        assertEquals(200, r.statusCode());
+        assertEquals("public, max-age=0, must-revalidate", r.headers().firstValue("Cache-Control").orElse(null));
+    }
+
+    @Test
+    void matchingEtagGetsNotModified() throws Exception {
+        String etag = get(url).headers().firstValue("ETag").orElseThrow();
+        HttpResponse<byte[]> r = get(url, "If-None-Match", etag);
+        assertEquals(304, r.statusCode());
+        assertEquals(0, r.body().length);
+        assertEquals(304, get(url, "If-None-Match", "\"other\", W/" + etag).statusCode());
+        assertEquals(200, get(url, "If-None-Match", "\"other\"").statusCode());
+    }
+
+    @Test
+    void gzipIsItsOwnRepresentation() throws Exception {
+        HttpResponse<byte[]> plain = get(url);
+        HttpResponse<byte[]> gz = get(url, "Accept-Encoding", "gzip, deflate");
+        assertEquals("gzip", gz.headers().firstValue("Content-Encoding").orElse(null));
+        assertEquals("Accept-Encoding", gz.headers().firstValue("Vary").orElse(null));
+        assertNotEquals(plain.headers().firstValue("ETag"), gz.headers().firstValue("ETag"));
+        assertTrue(gz.body().length < plain.body().length);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gz.body()))) {
+            assertEquals(CSS, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        // the plain ETag does not validate the gzip body
+        assertEquals(200, get(url, "Accept-Encoding", "gzip", "If-None-Match", plain.headers().firstValue("ETag").orElseThrow()).statusCode());
+    }
+
+    @Test
+    void unknownAssetsAndMethodsAreRefused() throws Exception {
+        assertEquals(404, get("/static/missing.css").statusCode());
+        try (TestServer server = new TestServer(StaticAssets.PREFIX, new StaticAssets())) {
+            assertEquals(405, server.send(server.request(url).POST(HttpRequest.BodyPublishers.ofString("x"))).statusCode());
+            HttpResponse<byte[]> head = server.send(server.request(url).method("HEAD", HttpRequest.BodyPublishers.noBody()));
+            assertEquals(200, head.statusCode());
+            assertEquals(String.valueOf(CSS.length()), head.headers().firstValue("Content-Length").orElse(null));
+        }
+        assertThrows(IllegalArgumentException.class, () -> StaticAssets.url("missing.css"));
+    }
+}
@@ -0,0 +1,35 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The database the tests share: -Dbus.db.url from pom.xml (a temp file when run without it),
+ * emptied and migrated once per run, plus small fixtures. Never the real bus.db.
+ */
+final class TestDatabase {
+
+    private static boolean ready;
+
+    private TestDatabase() {}
+
+    static synchronized void migrate() throws Exception {
+        if (ready) return;
+        String url = System.getProperty("bus.db.url");
+        if (url == null) {
+            // set before DBUtil is first used, which reads it once
+            url = "jdbc:sqlite:" + Files.createTempFile("bus-test", ".db");
+            System.setProperty("bus.db.url", url);
+        }
+        String file = url.substring("jdbc:sqlite:".length());
+        for (String suffix : new String[]{"", "-wal", "-shm"}) Files.deleteIfExists(Path.of(file + suffix));
+        DBUtil.write(Migrations::migrate);
+        ready = true;
+    }
+
+    /** A new schedule on a new bus with {@code capacity} seats; returns its id. */
+    static int schedule(int capacity) throws Exception {
+        migrate();
+        int bus = BusService.addBus("পরীক্ষা", "AC", capacity);
+        int route = BusService.addRoute("ঢাকা", "সিলেট", 550, 240);
+        return BusService.addSchedule(bus, route, "2030-01-01", "09:00");
+    }
+}
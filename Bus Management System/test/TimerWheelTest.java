@@ -0,0 +1,53 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+
+    // 8 slots of 10 ms: anything past 80 ms needs more than one turn
+    private final TimerWheel wheel = new TimerWheel("test-wheel", 10, TimeUnit.MILLISECONDS, 8);
+
+    @AfterEach
+    void stop() { wheel.stop(); }
+
+    @Test
+    void runsAfterTheDelayEvenPastOneTurn() throws Exception {
+        CountDownLatch ran = new CountDownLatch(1);
+        long started = System.nanoTime();
+        wheel.schedule(ran::countDown, 200, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(0, wheel.pending());
+        assertEquals(1, wheel.expired());
+    }
+
+    @Test
+    void cancelledTimeoutNeverRuns() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        TimerWheel.Timeout t = wheel.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        assertTrue(t.cancel());
+        assertFalse(t.cancel());
+        assertEquals(0, wheel.pending());
+
+        CountDownLatch later = new CountDownLatch(1);
+        wheel.schedule(later::countDown, 150, TimeUnit.MILLISECONDS);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void manyTimeoutsAllRunOnce() throws Exception {
+        int n = 1000;
+        CountDownLatch ran = new CountDownLatch(n);
+        AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < n; i++) wheel.schedule(() -> { runs.incrementAndGet(); ran.countDown(); }, i % 300, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(n, runs.get());
+    }
+}
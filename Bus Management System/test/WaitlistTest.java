@@ -0,0 +1,63 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WaitlistTest {
+
+    private static int join(int scheduleId, String name, String phone) throws Exception {
+        BusService.Waiting w = BusService.joinWaitlist(scheduleId, name, phone);
+        assertEquals(BusService.Outcome.OK, w.outcome());
+        return w.id();
+    }
+
+    @Test
+    void cancellationPromotesTheOldestWaiter() throws Exception {
+        int scheduleId = TestDatabase.schedule(2);
+        int first = BusService.book(scheduleId, "ক", "01900000001", 1).ids()[0];
+        int second = BusService.book(scheduleId, "খ", "01900000002", 2).ids()[0];
+
+        int w1 = join(scheduleId, "গ", "01900000003");
+        Waitlist.invalidate();   // the next write reloads the queues from the table
+        int w2 = join(scheduleId, "ঘ", "01900000004");
+        int w3 = join(scheduleId, "ঙ", "01900000005");
+        assertEquals(BusService.Outcome.OK, BusService.leaveWaitlist(w3, "01900000005"));
+        assertEquals(2, Waitlist.waiting(scheduleId));
+        assertEquals(2, Waitlist.entry(w2).position());
+
+        assertEquals(BusService.Outcome.OK, BusService.cancel(first, "01900000001"));
+        Waitlist.Entry promoted = Waitlist.entry(w1);
+        assertEquals("PROMOTED", promoted.status());
+        assertEquals(1, promoted.seat());
+        assertTrue(promoted.bookingId() > 0);
+        Waitlist.Entry still = Waitlist.entry(w2);
+        assertEquals("WAITING", still.status());
+        assertEquals(1, still.position());
+        // the seat went straight to the waiter and was never free
+        assertEquals(0, BusService.available(scheduleId));
+        assertTrue(SeatMap.get(scheduleId).isTaken(1));
+
+        assertEquals(BusService.Outcome.OK, BusService.cancel(second, "01900000002"));
+        assertEquals("PROMOTED", Waitlist.entry(w2).status());
+        assertEquals(2, Waitlist.entry(w2).seat());
+        assertEquals("LEFT", Waitlist.entry(w3).status());
+        assertEquals(0, Waitlist.waiting(scheduleId));
+    }
+
+    @Test
+    void scheduleWithFreeSeatsHasNoWaitlist() throws Exception {
+        int scheduleId = TestDatabase.schedule(2);
+        BusService.book(scheduleId, "ক", "01900000011", 1);
+        assertEquals(BusService.Outcome.NOT_FULL, BusService.joinWaitlist(scheduleId, "খ", "01900000012").outcome());
+        assertEquals(BusService.Outcome.NOT_FOUND, BusService.joinWaitlist(987_654, "খ", "01900000012").outcome());
+    }
+
+    @Test
+    void cancellationWithNoWaitersFreesTheSeat() throws Exception {
+        int scheduleId = TestDatabase.schedule(1);
+        int id = BusService.book(scheduleId, "ক", "01900000021", 1).ids()[0];
+        assertEquals(BusService.Outcome.NOT_FOUND, BusService.cancel(id, "01900000099"));
+        assertEquals(BusService.Outcome.OK, BusService.cancel(id, "01900000021"));
+        assertEquals(1, BusService.available(scheduleId));
+        assertFalse(SeatMap.get(scheduleId).isTaken(1));
+    }
+}